@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.aop;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the {@link TimedAspect} on a call to a method annotated with {@link Timed}
+ * <p>
+ * The per call timer reproduces the previous aspect that formatted the name and registered the timer on every
+ * call, the untimed benchmark is the same proxy without any aspect.
+ *
+ * @author Joumen Harzli
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimedAspectBenchmark {
+
+  @Param({"false", "true"})
+  private boolean percentileHistogram;
+
+  private TimedTarget untimed;
+  private TimedTarget cachedTimer;
+  private TimedTarget perCallTimer;
+
+  private long value;
+
+  @Setup
+  public void setUp() {
+    untimed = proxy(null);
+    cachedTimer = proxy(new TimedAspect(new SimpleMeterRegistry(), percentileHistogram));
+    perCallTimer = proxy(new PerCallTimedAspect(new SimpleMeterRegistry()));
+  }
+
+  @Benchmark
+  public long untimed() {
+    return untimed.handle(value++);
+  }
+
+  @Benchmark
+  public long cachedTimer() {
+    return cachedTimer.handle(value++);
+  }
+
+  @Benchmark
+  public long perCallTimer() {
+    return perCallTimer.handle(value++);
+  }
+
+  private static TimedTarget proxy(Object aspect) {
+    AspectJProxyFactory factory = new AspectJProxyFactory(new TimedTarget());
+    factory.setProxyTargetClass(true);
+    if (Objects.nonNull(aspect)) {
+      factory.addAspect(aspect);
+    }
+    return factory.getProxy();
+  }
+
+  public static class TimedTarget {
+
+    @Timed
+    public long handle(long value) {
+      return value * 31;
+    }
+  }
+
+  /**
+   * Timing of the previous aspect: the name is formatted and the timer is looked up in the registry on each call
+   */
+  @Aspect
+  public static class PerCallTimedAspect {
+
+    private final MeterRegistry registry;
+
+    public PerCallTimedAspect(MeterRegistry registry) {
+      this.registry = registry;
+    }
+
+    @Around("execution (@io.micrometer.core.annotation.Timed * *.*(..))")
+    public Object timedMethod(ProceedingJoinPoint joinPoint) throws Throwable {
+      MethodSignature methodSignature = (MethodSignature) joinPoint.getSignature();
+
+      String className = methodSignature.getDeclaringType().getSimpleName();
+      String methodName = methodSignature.getName();
+      String metricName = String.format("%s.%s", className, methodName);
+
+      Timer.Sample sample = Timer.start(registry);
+      try {
+        return joinPoint.proceed();
+      } finally {
+        sample.stop(Timer.builder(metricName)
+                         .tags("class", className, "method", methodName)
+                         .publishPercentiles(0.75, 0.95, 0.99)
+                         .register(registry));
+      }
+    }
+  }
+
+}
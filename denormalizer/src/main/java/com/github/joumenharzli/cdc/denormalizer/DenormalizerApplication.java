@@ -17,8 +17,10 @@ package com.github.joumenharzli.cdc.denormalizer;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 
-@SpringBootApplication
+// the datasource is only configured for the rebuild by RebuildConfiguration
+@SpringBootApplication(exclude = DataSourceAutoConfiguration.class)
 public class DenormalizerApplication {
 
   public static void main(String[] args) {
@@ -16,62 +16,97 @@
 package com.github.joumenharzli.cdc.denormalizer.aop;
 
 import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Clock;
 import io.micrometer.core.instrument.MeterRegistry;
-import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.Timer;
-import io.vavr.control.Try;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 
 /**
  * Aspect for intercepting methods annotated with {@link Timed}
+ * <p>
+ * The timer of a method is registered on its first call and reused by the next ones.
  *
  * @author Joumen Harzli
  */
 @Aspect
 @Component
-@RequiredArgsConstructor
 @Slf4j
 public class TimedAspect {
 
   private final MeterRegistry registry;
+  private final Clock clock;
+  private final boolean percentileHistogram;
+  private final Map<Method, Timer> timers = new ConcurrentHashMap<>();
+
+  /**
+   * @param registry            the registry of the timers
+   * @param percentileHistogram publish histograms aggregated by the monitoring system instead of percentiles
+   *                            computed by the application
+   */
+  public TimedAspect(MeterRegistry registry,
+                     @Value("${application.denormalizer.metrics.percentileHistogram}") boolean percentileHistogram) {
+    this.registry = registry;
+    this.clock = registry.config().clock();
+    this.percentileHistogram = percentileHistogram;
+  }
 
   @Around("execution (@io.micrometer.core.annotation.Timed * *.*(..))")
   public Object timedMethod(ProceedingJoinPoint joinPoint) throws Throwable {
+    Timer timer = getTimer(((MethodSignature) joinPoint.getSignature()).getMethod());
+    long start = clock.monotonicTime();
 
-    MethodSignature methodSignature = (MethodSignature) joinPoint.getSignature();
+    try {
+      return joinPoint.proceed();
+    } finally {
+      stopTimer(timer, start);
+    }
+  }
 
-    String className = methodSignature.getDeclaringType().getSimpleName();
-    String methodName = methodSignature.getName();
-    String metricName = String.format("%s.%s", className, methodName);
+  private void stopTimer(Timer timer, long start) {
+    long elapsedTime = clock.monotonicTime() - start;
+    timer.record(elapsedTime, TimeUnit.NANOSECONDS);
 
-    Timer.Sample timer = Timer.start(registry);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Execution of method : {} took : {} milliseconds", timer.getId().getName(),
+                   TimeUnit.NANOSECONDS.toMillis(elapsedTime));
+    }
+  }
 
-    return Try.of(joinPoint::proceed)
-              .andFinally(() -> stopTimer(className, methodName, metricName, timer));
+  private Timer getTimer(Method method) {
+    Timer timer = timers.get(method);
+    if (Objects.isNull(timer)) {
+      timer = timers.computeIfAbsent(method, this::registerTimer);
+    }
+    return timer;
   }
 
-  private void stopTimer(String className, String methodName, String metricName, Timer.Sample timer) {
-    long elapsedTime = timer.stop(getTimer(className, methodName, metricName));
-    long elapsedTimeInSeconds = TimeUnit.MILLISECONDS.convert(elapsedTime, TimeUnit.NANOSECONDS);
+  private Timer registerTimer(Method method) {
+    String className = method.getDeclaringClass().getSimpleName();
+    String methodName = method.getName();
 
-    LOGGER.debug("Execution of method : {} took : {} milliseconds", metricName, elapsedTimeInSeconds);
-  }
+    Timer.Builder builder = Timer.builder(className + "." + methodName)
+                                 .tags("class", className, "method", methodName);
+
+    if (percentileHistogram) {
+      builder.publishPercentileHistogram();
+    } else {
+      builder.publishPercentiles(0.75, 0.95, 0.99);
+    }
 
-  private Timer getTimer(String className, String methodName, String metricName) {
-    return Timer.builder(metricName)
-                .tags(Tags.of("class", className,
-                              "method", methodName))
-                .publishPercentiles(0.75, 0.95, 0.99)
-                .register(registry);
+    return builder.register(registry);
   }
 
-}
\ No newline at end of file
+}
@@ -36,8 +36,13 @@ import java.io.IOException;
 public class ElasticsearchConfiguration {
 
   @Bean
-  public ElasticsearchTemplate elasticsearchTemplate(Client client, ObjectMapper objectMapper) {
-    return new ElasticsearchTemplate(client, new CustomEntityMapper(objectMapper));
+  public EntityMapper entityMapper(ObjectMapper objectMapper) {
+    return new CustomEntityMapper(objectMapper);
+  }
+
+  @Bean
+  public ElasticsearchTemplate elasticsearchTemplate(Client client, EntityMapper entityMapper) {
+    return new ElasticsearchTemplate(client, entityMapper);
   }
 
   /**
@@ -15,22 +15,51 @@
 
 package com.github.joumenharzli.cdc.denormalizer.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.joumenharzli.cdc.denormalizer.listener.EventHandlerFactory;
+import com.github.joumenharzli.cdc.denormalizer.listener.ParkingBuffer;
+import com.github.joumenharzli.cdc.denormalizer.listener.PipelineMetrics;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.AdaptiveConsumerFactory;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.AvroDebeziumEventDeserializer;
 import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEventDeserializer;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.PollSettings;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.RetryTopics;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.SchemaRegistry;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.TimedDeserializer;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
-import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.SeekToCurrentBatchErrorHandler;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import reactor.kafka.receiver.ReceiverOptions;
+import reactor.kafka.receiver.ReceiverPartition;
 
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.stream.Collectors;
 
-import static org.springframework.kafka.listener.AbstractMessageListenerContainer.AckMode.MANUAL;
+import static com.github.joumenharzli.cdc.denormalizer.listener.PipelineMetrics.Stage.DESERIALIZE;
+import static org.springframework.kafka.listener.AbstractMessageListenerContainer.AckMode.MANUAL_IMMEDIATE;
 
 /**
  * Kafka Consumer Configuration
@@ -41,29 +70,193 @@ import static org.springframework.kafka.listener.AbstractMessageListenerContaine
 @EnableKafka
 public class KafkaConfiguration {
 
+  private static final String AVRO_FORMAT = "avro";
+
   @Value("${application.kafka.bootstrapServers}")
   private String bootstrapServers;
 
   @Value("${application.kafka.groupId}")
   private String groupId;
 
+  @Value("${application.denormalizer.adaptive.lowLatency.maxPollRecords}")
+  private int maxPollRecords;
+
+  @Value("${application.denormalizer.replay.maxPollRecords}")
+  private int replayMaxPollRecords;
+
+  @Value("${application.kafka.topics}")
+  private String[] topics;
+
+  @Value("${application.kafka.retry.prefix}")
+  private String retryPrefix;
+
+  @Value("${application.kafka.retry.delaysSeconds}")
+  private long[] retryDelaysSeconds;
+
+  @Value("${application.denormalizer.rebuild.enabled}")
+  private boolean rebuildEnabled;
+
+  @Value("${application.denormalizer.format:json}")
+  private String format;
+
   @Bean
   public ConcurrentKafkaListenerContainerFactory<String, DebeziumEvent>
-  kafkaListenerContainerFactory() {
+  kafkaListenerContainerFactory(ConsumerFactory<String, DebeziumEvent> consumerFactory,
+                                ParkingBuffer parkingBuffer) {
     ConcurrentKafkaListenerContainerFactory<String, DebeziumEvent> factory = new ConcurrentKafkaListenerContainerFactory<>();
 
-    factory.setConsumerFactory(consumerFactory());
-    factory.getContainerProperties().setAckMode(MANUAL);
+    factory.setConsumerFactory(consumerFactory);
+    // the listener commits the offsets itself, below the parked records, so the container never commits them
+    factory.getContainerProperties().setAckMode(MANUAL_IMMEDIATE);
+    // a batch that fails before being acknowledged is polled again instead of being skipped by the next one
+    factory.getContainerProperties().setBatchErrorHandler(new SeekToCurrentBatchErrorHandler());
+    factory.getContainerProperties().setAckOnError(false);
+    // the records parked for the revoked partitions are consumed again by their new consumer
+    factory.getContainerProperties().setConsumerRebalanceListener(parkingBuffer);
     factory.setBatchListener(true);
+    // the rebuild starts the containers once the index is rebuilt
+    factory.setAutoStartup(!rebuildEnabled);
 
     return factory;
   }
 
   @Bean
-  public ConsumerFactory<String, DebeziumEvent> consumerFactory() {
-    return new DefaultKafkaConsumerFactory<>(consumerConfigs(),
+  public ConsumerFactory<String, DebeziumEvent> consumerFactory(Deserializer<DebeziumEvent> eventDeserializer) {
+    PollSettings pollSettings = pollSettings();
+    return new AdaptiveConsumerFactory<>(consumerConfigs(),
+                                         new StringDeserializer(),
+                                         eventDeserializer,
+                                         pollSettings::getMaxPollRecords);
+  }
+
+  @Bean
+  public PollSettings pollSettings() {
+    return new PollSettings(maxPollRecords);
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "application.denormalizer.format", havingValue = "json", matchIfMissing = true)
+  public Deserializer<DebeziumEvent> jsonEventDeserializer(ObjectMapper mapper, EventHandlerFactory handlerFactory,
+                                                           PipelineMetrics pipelineMetrics) {
+    return new TimedDeserializer<>(new DebeziumEventDeserializer(mapper, handlerFactory),
+                                   pipelineMetrics.getTimer(DESERIALIZE));
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "application.denormalizer.format", havingValue = "avro")
+  public Deserializer<DebeziumEvent> avroEventDeserializer(ObjectMapper mapper, EventHandlerFactory handlerFactory,
+                                                           SchemaRegistry schemaRegistry,
+                                                           PipelineMetrics pipelineMetrics) {
+    return new TimedDeserializer<>(new AvroDebeziumEventDeserializer(mapper, handlerFactory, schemaRegistry),
+                                   pipelineMetrics.getTimer(DESERIALIZE));
+  }
+
+  /**
+   * The reactive receiver reads the raw records, they are decoded in the pipeline
+   */
+  @Bean
+  @ConditionalOnProperty(name = "application.denormalizer.consumer", havingValue = "reactive")
+  public ReceiverOptions<String, byte[]> receiverOptions(ParkingBuffer parkingBuffer) {
+    Map<String, Object> configs = ImmutableMap.<String, Object>builder()
+        .putAll(consumerConfigs())
+        .put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class)
+        .build();
+
+    //@formatter:off
+    return ReceiverOptions.<String, byte[]>create(configs)
+                          .subscription(Arrays.asList(topics))
+                          .addRevokeListener(partitions -> parkingBuffer.onPartitionsRevoked(
+                              partitions.stream().map(ReceiverPartition::topicPartition).collect(Collectors.toList())));
+    //@formatter:on
+  }
+
+  /**
+   * The records of the retry topics are always written as json whatever the format of the debezium topics
+   */
+  @Bean
+  public ConsumerFactory<String, DebeziumEvent> retryConsumerFactory(ObjectMapper mapper,
+                                                                     EventHandlerFactory handlerFactory,
+                                                                     PipelineMetrics pipelineMetrics) {
+    Map<String, Object> configs = ImmutableMap.<String, Object>builder()
+        .putAll(Maps.filterKeys(consumerConfigs(), key -> !ConsumerConfig.GROUP_ID_CONFIG.equals(key)))
+        .put(ConsumerConfig.GROUP_ID_CONFIG, groupId + "-retry")
+        // the consumer of a tier waits for the delay of the tier between two polls
+        .put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG,
+             String.valueOf(retryTopics().getMaxDelay().plusMinutes(5).toMillis()))
+        .build();
+
+    return new DefaultKafkaConsumerFactory<>(configs,
                                              new StringDeserializer(),
-                                             new JsonDeserializer<>(DebeziumEvent.class));
+                                             new TimedDeserializer<>(new DebeziumEventDeserializer(mapper, handlerFactory),
+                                                                     pipelineMetrics.getTimer(DESERIALIZE)));
+  }
+
+  /**
+   * The replay reads the debezium topics from the beginning under its own group without committing offsets.
+   * It has its own deserializer so the timer of the live deserialization only measures the live records.
+   */
+  @Bean
+  @ConditionalOnProperty(name = "application.denormalizer.replay.enabled", havingValue = "true")
+  public ConsumerFactory<String, DebeziumEvent> replayConsumerFactory(ObjectMapper mapper,
+                                                                      EventHandlerFactory handlerFactory,
+                                                                      ObjectProvider<SchemaRegistry> schemaRegistry) {
+    Deserializer<DebeziumEvent> eventDeserializer = AVRO_FORMAT.equals(format) ?
+        new AvroDebeziumEventDeserializer(mapper, handlerFactory, schemaRegistry.getObject()) :
+        new DebeziumEventDeserializer(mapper, handlerFactory);
+
+    Map<String, Object> configs = ImmutableMap.<String, Object>builder()
+        .putAll(Maps.filterKeys(consumerConfigs(), key -> !ConsumerConfig.GROUP_ID_CONFIG.equals(key) &&
+                                                          !ConsumerConfig.MAX_POLL_RECORDS_CONFIG.equals(key)))
+        .put(ConsumerConfig.GROUP_ID_CONFIG, groupId + "-replay")
+        .put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(replayMaxPollRecords))
+        .build();
+
+    return new DefaultKafkaConsumerFactory<>(configs, new StringDeserializer(), eventDeserializer);
+  }
+
+  @Bean
+  public ProducerFactory<String, DebeziumEvent> retryProducerFactory(ObjectMapper mapper) {
+    Map<String, Object> configs = ImmutableMap.<String, Object>builder()
+        .put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers)
+        .put(ProducerConfig.ACKS_CONFIG, "all")
+        .build();
+
+    // the dates are read back as timestamps
+    ObjectMapper retryMapper = mapper.copy().enable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    return new DefaultKafkaProducerFactory<>(configs, new StringSerializer(), new JsonSerializer<>(retryMapper));
+  }
+
+  /**
+   * The change feed is only a hint for the caches of the query services so it is not acknowledged by all the replicas
+   */
+  @Bean
+  public ProducerFactory<String, String> changesProducerFactory() {
+    Map<String, Object> configs = ImmutableMap.<String, Object>builder()
+        .put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers)
+        .put(ProducerConfig.ACKS_CONFIG, "1")
+        .put(ProducerConfig.LINGER_MS_CONFIG, "5")
+        .build();
+
+    return new DefaultKafkaProducerFactory<>(configs, new StringSerializer(), new StringSerializer());
+  }
+
+  @Bean
+  public KafkaTemplate<String, String> changesKafkaTemplate(ProducerFactory<String, String> changesProducerFactory) {
+    return new KafkaTemplate<>(changesProducerFactory);
+  }
+
+  @Bean
+  public KafkaTemplate<String, DebeziumEvent> retryKafkaTemplate(
+      ProducerFactory<String, DebeziumEvent> retryProducerFactory) {
+    return new KafkaTemplate<>(retryProducerFactory);
+  }
+
+  @Bean
+  public RetryTopics retryTopics() {
+    return new RetryTopics(retryPrefix, Arrays.stream(retryDelaysSeconds)
+                                              .mapToObj(Duration::ofSeconds)
+                                              .toArray(Duration[]::new));
   }
 
   @Bean
@@ -72,10 +265,9 @@ public class KafkaConfiguration {
         .put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers)
         .put(ConsumerConfig.GROUP_ID_CONFIG, groupId)
         .put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class)
-        .put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class)
         .put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest")
         .put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false")
-        .put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "10")
+        .put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(maxPollRecords))
         .build();
   }
 
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.config;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.StripedExecutor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Configuration of the processing of the events
+ *
+ * @author Joumen Harzli
+ */
+@Configuration
+@EnableScheduling
+public class ListenerConfiguration {
+
+  @Value("${application.denormalizer.lanes}")
+  private int lanes;
+
+  @Bean(destroyMethod = "shutdown")
+  public StripedExecutor stripedExecutor() {
+    return new StripedExecutor(lanes);
+  }
+
+}
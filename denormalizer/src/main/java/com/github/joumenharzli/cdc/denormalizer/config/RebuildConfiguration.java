@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Configuration of the datasource of the rebuild
+ * <p>
+ * The database is only read by the rebuild of the index, so the datasource and its health check are only
+ * configured when the rebuild is enabled.
+ *
+ * @author Joumen Harzli
+ */
+@Configuration
+@ConditionalOnProperty(name = "application.denormalizer.rebuild.enabled", havingValue = "true")
+@Import(DataSourceAutoConfiguration.class)
+public class RebuildConfiguration {
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.config;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.FileSchemaRegistry;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.InMemorySchemaRegistry;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.SchemaRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+
+/**
+ * Configuration of the registry of the schemas of the avro events
+ * <p>
+ * The registry is a stand-in of a schema registry: the schema with the id {@code n} is read from the file
+ * {@code n.avsc} of a directory or of the classpath.
+ *
+ * @author Joumen Harzli
+ */
+@Configuration
+@Slf4j
+public class SchemaRegistryConfiguration {
+
+  private static final String SCHEMA_EXTENSION = "avsc";
+
+  @Bean
+  @ConditionalOnProperty(name = "application.denormalizer.avro.registry", havingValue = "file", matchIfMissing = true)
+  public SchemaRegistry fileSchemaRegistry(@Value("${application.denormalizer.avro.directory}") String directory) {
+    return new FileSchemaRegistry(Paths.get(directory));
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "application.denormalizer.avro.registry", havingValue = "memory")
+  public SchemaRegistry inMemorySchemaRegistry(@Value("${application.denormalizer.avro.location}") String location)
+      throws IOException {
+
+    InMemorySchemaRegistry registry = new InMemorySchemaRegistry();
+
+    for (Resource resource : new PathMatchingResourcePatternResolver().getResources(location + "/*." + SCHEMA_EXTENSION)) {
+      String id = StringUtils.substringBeforeLast(resource.getFilename(), ".");
+
+      if (!StringUtils.isNumeric(id)) {
+        LOGGER.warn("Ignoring the schema {} that is not named with its id", resource.getFilename());
+        continue;
+      }
+
+      try (InputStream inputStream = resource.getInputStream()) {
+        registry.register(Integer.parseInt(id), new Schema.Parser().parse(inputStream));
+      }
+    }
+
+    return registry;
+  }
+
+}
@@ -19,10 +19,13 @@ import java.io.Serializable;
 import java.util.Set;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.Mapping;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.collect.Sets;
 
 import lombok.Data;
@@ -33,14 +36,27 @@ import lombok.EqualsAndHashCode;
  *
  * @author Joumen Harzli
  */
-@Document(indexName = "users", type = "users")
+@Document(indexName = "users", type = "users", createIndex = false)
+@Mapping(mappingPath = User.MAPPING_PATH)
 @Data
 @EqualsAndHashCode(of = {"id"})
 public class User implements Serializable {
 
+  /**
+   * Mapping of the index, it is also used to create the indices of the rebuilds
+   */
+  public static final String MAPPING_PATH = "mappings/users.json";
+
   @Id
   private String id;
 
+  /**
+   * External version of the document, it is not a part of the source
+   */
+  @Version
+  @JsonIgnore
+  private Long version;
+
   private String name;
 
   private Integer age;
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.exception;
+
+import org.springframework.data.elasticsearch.ElasticsearchException;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exception thrown when some writes of a bulk have failed once all the requests of the bulk were sent
+ * <p>
+ * The ids of the documents rejected because they are stale are kept so their changes can be applied again.
+ *
+ * @author Joumen Harzli
+ */
+public class BulkWriteException extends ElasticsearchException {
+
+  private final Set<String> staleIds;
+
+  public BulkWriteException(Map<String, String> failedDocuments, Set<String> staleIds) {
+    super("Bulk request has failures. Use ElasticsearchException.getFailedDocuments() for detailed messages ["
+          + failedDocuments + "]", failedDocuments);
+    this.staleIds = Collections.unmodifiableSet(staleIds);
+  }
+
+  public Set<String> getStaleIds() {
+    return staleIds;
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.exception;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Exception thrown when the index has rejected documents because it has newer versions of them
+ *
+ * @author Joumen Harzli
+ */
+public class StaleDocumentException extends RuntimeException {
+
+  private final Set<String> ids;
+
+  public StaleDocumentException(Set<String> ids) {
+    super("Documents with ids " + ids + " are stale");
+    this.ids = Collections.unmodifiableSet(ids);
+  }
+
+  public Set<String> getIds() {
+    return ids;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.PollSettings;
+import com.github.joumenharzli.cdc.denormalizer.repository.BulkSettings;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+
+/**
+ * Controller that adapts the consumption to the lag of the consumers
+ * <p>
+ * When the lag exceeds a threshold, the catch-up mode polls more records, relaxes the refresh of the index and
+ * grows the bulk requests while their latency stays below a target. The low latency mode comes back with small
+ * polls and the normal refresh once the lag is under a lower threshold.
+ * <p>
+ * The lag is read from the metrics of the listener containers so the reactive consumer is not adapted. Nothing is
+ * adapted while the containers are stopped, by a rebuild for instance, and the containers are only restarted when
+ * the size of the polls changes since the restart rebalances the consumer group.
+ * <p>
+ * The refresh interval of the low latency mode is restored at startup and at shutdown, so the relaxed refresh
+ * of the catch-up mode never outlives a crash or a shutdown during a catch-up.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class CatchUpController {
+
+  private static final String LAG_METRIC = "records-lag-max";
+  private static final String FETCH_METRICS_GROUP = "consumer-fetch-manager-metrics";
+
+  private final KafkaListenerEndpointRegistry registry;
+  private final ConsumerLifecycle consumerLifecycle;
+  private final PollSettings pollSettings;
+  private final BulkSettings bulkSettings;
+  private final UserRepository userRepository;
+  private final SnapshotLoader snapshotLoader;
+
+  @Value("${application.denormalizer.adaptive.catchUpLag}")
+  private long catchUpLag;
+
+  @Value("${application.denormalizer.adaptive.lowLatencyLag}")
+  private long lowLatencyLag;
+
+  @Value("${application.denormalizer.adaptive.lowLatency.maxPollRecords}")
+  private int lowLatencyPollRecords;
+
+  @Value("${application.denormalizer.adaptive.lowLatency.refreshInterval}")
+  private String lowLatencyRefreshInterval;
+
+  @Value("${application.denormalizer.adaptive.catchUp.maxPollRecords}")
+  private int catchUpPollRecords;
+
+  @Value("${application.denormalizer.adaptive.catchUp.refreshInterval}")
+  private String catchUpRefreshInterval;
+
+  @Value("${application.denormalizer.adaptive.catchUp.targetBulkLatencyMillis}")
+  private long targetBulkLatencyMillis;
+
+  @Value("${application.denormalizer.adaptive.catchUp.minBulkActions}")
+  private int minBulkActions;
+
+  private volatile boolean catchingUp;
+  private boolean stopped;
+
+  public CatchUpController(KafkaListenerEndpointRegistry registry, ConsumerLifecycle consumerLifecycle,
+                           PollSettings pollSettings, BulkSettings bulkSettings, UserRepository userRepository,
+                           SnapshotLoader snapshotLoader, MeterRegistry meterRegistry) {
+    this.registry = registry;
+    this.consumerLifecycle = consumerLifecycle;
+    this.pollSettings = pollSettings;
+    this.bulkSettings = bulkSettings;
+    this.userRepository = userRepository;
+    this.snapshotLoader = snapshotLoader;
+
+    meterRegistry.gauge("denormalizer.catch.up", this, controller -> controller.catchingUp ? 1 : 0);
+    meterRegistry.gauge("denormalizer.bulk.max.actions", bulkSettings, BulkSettings::getMaxActions);
+  }
+
+  @PostConstruct
+  public void init() {
+    restoreRefreshInterval();
+  }
+
+  @PreDestroy
+  public synchronized void shutdown() {
+    stopped = true;
+
+    if (catchingUp) {
+      catchingUp = false;
+      restoreRefreshInterval();
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${application.denormalizer.adaptive.checkIntervalMillis}")
+  public synchronized void adapt() {
+    if (stopped) {
+      return;
+    }
+
+    // the lag of stopped containers is unknown
+    if (!consumerLifecycle.isListening()) {
+      LOGGER.debug("The listener containers are not running, the consumption is not adapted");
+      return;
+    }
+
+    long lag = getLag();
+
+    LOGGER.debug("Consumer lag is {} and bulk latency is {} ms", lag, bulkSettings.getLatencyMillis());
+
+    if (!catchingUp && lag >= catchUpLag) {
+      LOGGER.info("Consumer lag {} exceeds {}, switching to the catch-up mode", lag, catchUpLag);
+      switchMode(true, catchUpPollRecords, catchUpRefreshInterval);
+    } else if (catchingUp && lag <= lowLatencyLag) {
+      LOGGER.info("Consumer lag {} is under {}, switching to the low latency mode", lag, lowLatencyLag);
+      switchMode(false, lowLatencyPollRecords, lowLatencyRefreshInterval);
+      bulkSettings.setMaxActions(bulkSettings.getConfiguredMaxActions());
+    }
+
+    if (catchingUp) {
+      tuneBulkSize();
+    }
+  }
+
+  /**
+   * Grow the bulk requests additively while they are fast enough and halve them when they are too slow
+   */
+  private void tuneBulkSize() {
+    int maxActions = bulkSettings.getMaxActions();
+    int maxBound = bulkSettings.getConfiguredMaxActions();
+
+    int tuned = bulkSettings.getLatencyMillis() <= targetBulkLatencyMillis ?
+                Math.min(maxBound, maxActions + minBulkActions) :
+                Math.max(minBulkActions, maxActions / 2);
+
+    if (tuned != maxActions) {
+      LOGGER.debug("Changing the max actions of the bulk requests from {} to {}", maxActions, tuned);
+      bulkSettings.setMaxActions(tuned);
+    }
+  }
+
+  private void switchMode(boolean catchUp, int maxPollRecords, String refreshInterval) {
+    catchingUp = catchUp;
+
+    // the refresh stays disabled while the snapshot is loading
+    if (!snapshotLoader.isLoading()) {
+      userRepository.updateRefreshInterval(refreshInterval);
+    }
+
+    if (pollSettings.getMaxPollRecords() == maxPollRecords) {
+      return;
+    }
+
+    pollSettings.setMaxPollRecords(maxPollRecords);
+
+    // the consumers are created again with the new size of the polls
+    if (!consumerLifecycle.restartListenerContainers()) {
+      LOGGER.debug("The consumers are suspended, they will use the new size of the polls when they start");
+    }
+  }
+
+  /**
+   * Set the refresh interval of the low latency mode unless the snapshot is loading
+   */
+  private void restoreRefreshInterval() {
+    if (snapshotLoader.isLoading()) {
+      return;
+    }
+
+    try {
+      userRepository.updateRefreshInterval(lowLatencyRefreshInterval);
+    } catch (IndexNotFoundException e) {
+      LOGGER.debug("The index does not exist yet, its refresh interval is not restored");
+    } catch (RuntimeException e) {
+      LOGGER.warn("Failed to restore the refresh interval {} of the index", lowLatencyRefreshInterval, e);
+    }
+  }
+
+  /**
+   * @return the highest lag of the partitions assigned to the listener containers
+   */
+  private long getLag() {
+    double lag = 0;
+
+    for (MessageListenerContainer container : registry.getListenerContainers()) {
+      for (Map<MetricName, ? extends Metric> metrics : container.metrics().values()) {
+        for (Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+          MetricName name = metric.getKey();
+          Object value = metric.getValue().metricValue();
+
+          if (LAG_METRIC.equals(name.name()) && FETCH_METRICS_GROUP.equals(name.group()) &&
+              value instanceof Number && !Double.isNaN(((Number) value).doubleValue())) {
+            lag = Math.max(lag, ((Number) value).doubleValue());
+          }
+        }
+      }
+    }
+
+    return (long) lag;
+  }
+
+}
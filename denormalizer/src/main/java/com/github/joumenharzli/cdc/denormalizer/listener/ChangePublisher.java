@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.UserChanges;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Publishes the ids of the written users to the change feed
+ * <p>
+ * The changes are sent without waiting for the brokers, a lost change is only a stale search result until
+ * the cached result expires.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class ChangePublisher {
+
+  private final KafkaTemplate<String, String> changesKafkaTemplate;
+  private final ObjectMapper mapper;
+  private final boolean enabled;
+  private final String topic;
+
+  public ChangePublisher(KafkaTemplate<String, String> changesKafkaTemplate, ObjectMapper mapper,
+                         @Value("${application.kafka.changes.enabled}") boolean enabled,
+                         @Value("${application.kafka.changes.topic}") String topic) {
+    this.changesKafkaTemplate = changesKafkaTemplate;
+    this.mapper = mapper;
+    this.enabled = enabled;
+    this.topic = topic;
+  }
+
+  /**
+   * @param ids ids of the written users
+   */
+  public void publish(Collection<String> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    send(UserChanges.builder().ids(ids).timestamp(System.currentTimeMillis()).build());
+  }
+
+  /**
+   * Publish a change of all the users
+   */
+  public void publishAll() {
+    send(UserChanges.builder().ids(Collections.emptyList()).all(true).timestamp(System.currentTimeMillis()).build());
+  }
+
+  private void send(UserChanges changes) {
+    if (!enabled) {
+      return;
+    }
+
+    LOGGER.debug("Request to publish the changes of {} users", changes.getIds().size());
+
+    try {
+      changesKafkaTemplate.send(topic, mapper.writeValueAsString(changes))
+                          .addCallback(result -> { }, e -> LOGGER.warn("Failed to publish the changes", e));
+    } catch (JsonProcessingException e) {
+      LOGGER.warn("Failed to serialize the changes", e);
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.google.common.collect.Maps;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Monitor of the lag of the consumer group by partition
+ * <p>
+ * The lag is the difference between the end offset of a partition and the offset committed by the group,
+ * so it is measured the same way whatever the consumer that is used.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class ConsumerLagMonitor {
+
+  private static final String LAG_METRIC = "denormalizer.consumer.lag";
+
+  private final MeterRegistry registry;
+  private final Consumer<String, DebeziumEvent> consumer;
+  private final String[] topics;
+
+  private final Map<TopicPartition, AtomicLong> lags = Maps.newConcurrentMap();
+
+  public ConsumerLagMonitor(MeterRegistry registry,
+                            ConsumerFactory<String, DebeziumEvent> consumerFactory,
+                            @Value("${application.kafka.topics}") String[] topics) {
+    this.registry = registry;
+    // the consumer never subscribes so it does not join the group
+    this.consumer = consumerFactory.createConsumer();
+    this.topics = topics;
+  }
+
+  @Scheduled(fixedDelayString = "${application.denormalizer.metrics.lagIntervalMillis}")
+  public synchronized void update() {
+    try {
+      //@formatter:off
+      List<TopicPartition> partitions = Arrays.stream(topics)
+          .flatMap(topic -> consumer.partitionsFor(topic).stream())
+          .map(partition -> new TopicPartition(partition.topic(), partition.partition()))
+          .collect(Collectors.toList());
+      //@formatter:on
+
+      Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+
+      endOffsets.forEach((partition, endOffset) -> {
+        OffsetAndMetadata committed = consumer.committed(partition);
+        long lag = Objects.isNull(committed) ? endOffset : Math.max(0, endOffset - committed.offset());
+        getLag(partition).set(lag);
+      });
+    } catch (RuntimeException e) {
+      LOGGER.warn("Failed to update the lag of the consumer group", e);
+    }
+  }
+
+  @PreDestroy
+  public synchronized void shutdown() {
+    consumer.close();
+  }
+
+  private AtomicLong getLag(TopicPartition partition) {
+    return lags.computeIfAbsent(partition, key -> {
+      //@formatter:off
+      Tags tags = Tags.of("table", StringUtils.substringAfterLast(key.topic(), ".").toLowerCase(),
+                          "partition", String.valueOf(key.partition()));
+      //@formatter:on
+      return registry.gauge(LAG_METRIC, tags, new AtomicLong());
+    });
+  }
+
+}
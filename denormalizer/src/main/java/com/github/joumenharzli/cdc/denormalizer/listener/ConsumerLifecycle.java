@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+
+/**
+ * Lifecycle of all the consumers that write into the index
+ * <p>
+ * The listener containers, the reactive consumer and the consumers of the retry tiers are stopped together so no
+ * record is handled while the offsets of the group are moved or the index is replaced.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class ConsumerLifecycle {
+
+  private final KafkaListenerEndpointRegistry registry;
+  private final ObjectProvider<ReactiveEventDispatcher> reactiveEventDispatcher;
+  private final RetryEventDispatcher retryEventDispatcher;
+
+  private volatile boolean suspended;
+
+  public ConsumerLifecycle(KafkaListenerEndpointRegistry registry,
+                           ObjectProvider<ReactiveEventDispatcher> reactiveEventDispatcher,
+                           RetryEventDispatcher retryEventDispatcher) {
+    this.registry = registry;
+    this.reactiveEventDispatcher = reactiveEventDispatcher;
+    this.retryEventDispatcher = retryEventDispatcher;
+  }
+
+  /**
+   * Stop every consumer until {@link #resume()} is called
+   */
+  public synchronized void suspend() {
+    LOGGER.info("Stopping all the consumers");
+
+    suspended = true;
+
+    registry.getListenerContainers().forEach(MessageListenerContainer::stop);
+
+    ReactiveEventDispatcher reactive = reactiveEventDispatcher.getIfAvailable();
+    if (Objects.nonNull(reactive)) {
+      reactive.stop();
+    }
+
+    retryEventDispatcher.stop();
+  }
+
+  /**
+   * Start again the consumers stopped by {@link #suspend()}
+   */
+  public synchronized void resume() {
+    LOGGER.info("Starting all the consumers");
+
+    registry.getListenerContainers().forEach(MessageListenerContainer::start);
+
+    ReactiveEventDispatcher reactive = reactiveEventDispatcher.getIfAvailable();
+    if (Objects.nonNull(reactive)) {
+      reactive.start();
+    }
+
+    retryEventDispatcher.start();
+
+    suspended = false;
+  }
+
+  /**
+   * Restart the running listener containers so their consumers are created again
+   *
+   * @return false if the consumers are suspended and nothing was restarted
+   */
+  public synchronized boolean restartListenerContainers() {
+    if (suspended) {
+      return false;
+    }
+
+    registry.getListenerContainers().stream().filter(MessageListenerContainer::isRunning).forEach(container -> {
+      container.stop();
+      container.start();
+    });
+
+    return true;
+  }
+
+  /**
+   * @return true if at least one listener container is running
+   */
+  public boolean isListening() {
+    return !suspended && registry.getListenerContainers().stream().anyMatch(MessageListenerContainer::isRunning);
+  }
+
+  /**
+   * @return true while the consumers are stopped by {@link #suspend()}
+   */
+  public boolean isSuspended() {
+    return suspended;
+  }
+
+}
@@ -19,50 +19,53 @@ import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
 import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
+
+import static com.github.joumenharzli.cdc.denormalizer.listener.PipelineMetrics.Stage.COMMIT;
 
 /**
  * Event Dispatcher
+ * <p>
+ * The records of the debezium topics are handled by the {@link EventProcessor}. The records of the users that
+ * have failed are sent to the retry topics so they never block the partitions, then the offsets of the batch are
+ * committed below the records that are still parked in the {@link ParkingBuffer}.
  *
  * @author Joumen Harzli
  */
 @Component
+@ConditionalOnProperty(name = "application.denormalizer.consumer", havingValue = "listener", matchIfMissing = true)
 @RequiredArgsConstructor
 @Slf4j
 public class EventDispatcher {
 
-  private final EventHandlerFactory handlerFactory;
+  private final EventProcessor eventProcessor;
+  private final ParkingBuffer parkingBuffer;
+  private final PipelineMetrics pipelineMetrics;
 
-  @KafkaListener(topics = {
-      "mysqlcdc.cdc.USERS",
-      "mysqlcdc.cdc.JOBS",
-      "mysqlcdc.cdc.ADDRESSES"})
+  @KafkaListener(topics = "#{'${application.kafka.topics}'.split(',')}")
   @Timed
   public void handleEvents(List<ConsumerRecord<String, DebeziumEvent>> records,
-                              Acknowledgment acknowledgment) {
-
-    LOGGER.debug("Request to process {} records", records.size());
-
-    List<ConsumerRecord<String, DebeziumEvent>> sortedRecords = records.stream()
-        .sorted(Comparator.comparing(r -> r.value().getPayload().getDate()))
-        .collect(Collectors.toList());
-
-    sortedRecords.forEach(record -> {
+                              Consumer<?, ?> consumer) {
 
-      LOGGER.debug("Request to handle {} event in the topic {}", record.value().getPayload().getOperation(), record.topic());
+    LOGGER.debug("Request to handle {} records", records.size());
 
-      handlerFactory.getHandler(record.topic()).process(record.value());
+    pipelineMetrics.batchStarted(records);
 
-    });
+    try {
+      eventProcessor.process(records);
 
-    acknowledgment.acknowledge();
+      long commitStart = System.nanoTime();
+      consumer.commitSync(parkingBuffer.getCommittableOffsets(records));
+      pipelineMetrics.record(COMMIT, commitStart);
+    } finally {
+      pipelineMetrics.batchFinished();
+    }
   }
 
 }
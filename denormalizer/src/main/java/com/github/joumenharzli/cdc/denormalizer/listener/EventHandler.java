@@ -16,6 +16,10 @@
 package com.github.joumenharzli.cdc.denormalizer.listener;
 
 import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserSnapshotBatch;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserWriteBatch;
+
+import java.util.List;
 
 /**
  * Event Handler
@@ -24,6 +28,43 @@ import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
  */
 public interface EventHandler {
 
-  void process(DebeziumEvent event);
+  /**
+   * @return type of the states of the entity in the events of the handler
+   */
+  Class<?> getEntityClass();
+
+  /**
+   * @return true if the events change an element of the document of a user so they need the user to be indexed
+   */
+  default boolean isChildHandler() {
+    return true;
+  }
+
+  /**
+   * @param event the event to inspect
+   * @return id of the user whose document is changed by the event
+   */
+  String getUserId(DebeziumEvent event);
+
+  void process(DebeziumEvent event, UserWriteBatch batch);
+
+  /**
+   * Add the row read by a snapshot event to the aggregate of its user
+   *
+   * @param event the snapshot event
+   * @param batch the aggregates of the users
+   */
+  void load(DebeziumEvent event, UserSnapshotBatch batch);
+
+  /**
+   * Process consecutive events of the same table.
+   * The users that they change are already fetched in the lookup of the batch.
+   *
+   * @param events the events to process in order
+   * @param batch  the batch where the changes are collected
+   */
+  default void process(List<DebeziumEvent> events, UserWriteBatch batch) {
+    events.forEach(event -> process(event, batch));
+  }
 
 }
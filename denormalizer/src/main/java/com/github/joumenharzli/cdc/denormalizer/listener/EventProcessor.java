@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.exception.BulkWriteException;
+import com.github.joumenharzli.cdc.denormalizer.exception.EntityNotFoundException;
+import com.github.joumenharzli.cdc.denormalizer.exception.StaleDocumentException;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.BinlogPosition;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.FailedRecord;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.StripedExecutor;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserLookup;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserWriteBatch;
+import com.github.joumenharzli.cdc.denormalizer.service.UserService;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+import static com.github.joumenharzli.cdc.denormalizer.listener.PipelineMetrics.Stage.ES_READ;
+import static com.github.joumenharzli.cdc.denormalizer.listener.PipelineMetrics.Stage.ES_WRITE;
+import static com.github.joumenharzli.cdc.denormalizer.listener.PipelineMetrics.Stage.HANDLE;
+import static com.github.joumenharzli.cdc.denormalizer.listener.PipelineMetrics.Stage.SORT_GROUP;
+
+/**
+ * Event Processor
+ * <p>
+ * The records of a batch are sorted by their position in the binlog and grouped by the user that owns them
+ * so all the changes of a user are applied in order on the same document which is written once.
+ * <p>
+ * Before handling the events, all the users of the batch are fetched using a single multi get request.
+ * <p>
+ * The users are dispatched between parallel lanes: each lane applies the changes of its users in order and writes
+ * them using a bulk request.
+ * <p>
+ * When the index rejects stale documents of a lane, the changes of these users are applied again
+ * on the documents read from the index.
+ * <p>
+ * The failures are isolated by user: when the changes of a user cannot be applied or written, his records are
+ * returned as failed while the changes of the other users are written. When the whole write of a lane fails,
+ * all the records of the lane are returned as failed so they are retried instead of being acknowledged.
+ * <p>
+ * The records of the elements of a user that is not indexed yet are parked in the {@link ParkingBuffer}
+ * and applied with the next records of the user, or once the user is found in the index when the parked users
+ * are rechecked.
+ * <p>
+ * The failed records are sent to the retry topics, then the parked records that were drained are released
+ * so the consumers can commit their offsets.
+ * <p>
+ * The rows read during the initial snapshot of the connector are loaded by the {@link SnapshotLoader}.
+ * The changes that are already in the rebuilt index are skipped using the {@link RebuildCheckpoint}.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EventProcessor {
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  static final Comparator<ConsumerRecord<String, DebeziumEvent>> BINLOG_ORDER = Comparator
+      .comparing((ConsumerRecord<String, DebeziumEvent> r) -> BinlogPosition.fromSource(r.value().getPayload().getSource())
+                                                                            .orElse(null),
+                 Comparator.nullsFirst(Comparator.naturalOrder()))
+      .thenComparing(r -> r.value().getPayload().getDate(), Comparator.nullsFirst(Comparator.naturalOrder()));
+
+  private final EventHandlerFactory handlerFactory;
+  private final UserService userService;
+  private final StripedExecutor stripedExecutor;
+  private final ParkingBuffer parkingBuffer;
+  private final SnapshotLoader snapshotLoader;
+  private final RebuildCheckpoint rebuildCheckpoint;
+  private final FreshnessRecorder freshnessRecorder;
+  private final PipelineMetrics pipelineMetrics;
+  private final ChangePublisher changePublisher;
+  private final RetryPublisher retryPublisher;
+
+  /**
+   * Apply the changes of the records and write them, the records of the users whose changes could not be applied
+   * or written are sent to the retry topics
+   *
+   * @param records consumed records
+   * @throws org.springframework.kafka.KafkaException if the failed records could not be sent
+   */
+  public void process(List<ConsumerRecord<String, DebeziumEvent>> records) {
+    LOGGER.debug("Request to process {} records", records.size());
+
+    long sortStart = System.nanoTime();
+
+    List<ConsumerRecord<String, DebeziumEvent>> sortedRecords = records.stream()
+        .filter(this::isNotTombstone)
+        .filter(rebuildCheckpoint::isAfter)
+        .sorted(BINLOG_ORDER)
+        .collect(Collectors.toList());
+
+    Map<Boolean, List<ConsumerRecord<String, DebeziumEvent>>> recordsBySnapshot = sortedRecords.stream()
+        .collect(Collectors.partitioningBy(snapshotLoader::isSnapshot));
+
+    // the snapshot rows are older than any live change so they are loaded first
+    List<FailedRecord> snapshotFailures = snapshotLoader.load(recordsBySnapshot.get(true));
+
+    List<ConsumerRecord<String, DebeziumEvent>> liveRecords = recordsBySnapshot.get(false);
+
+    // the settings of the index are restored once all the partitions have passed the end of the snapshot
+    snapshotLoader.track(sortedRecords);
+
+    Map<String, List<ConsumerRecord<String, DebeziumEvent>>> recordsByUser = groupByUser(liveRecords);
+
+    pipelineMetrics.record(SORT_GROUP, sortStart);
+
+    // the parked users may have been indexed by another instance that consumed their records
+    Set<String> recheckedIds = Sets.difference(parkingBuffer.getUsersToRecheck(), recordsByUser.keySet())
+                                   .immutableCopy();
+
+    long readStart = System.nanoTime();
+    UserLookup lookup = userService.prefetch(Sets.union(getUserIds(recordsByUser), recheckedIds));
+    pipelineMetrics.record(ES_READ, readStart);
+
+    Collection<FailedRecord> failures = new ConcurrentLinkedQueue<>(snapshotFailures);
+    Collection<ConsumerRecord<String, DebeziumEvent>> drainedRecords = new ConcurrentLinkedQueue<>();
+
+    releaseIndexedUsers(recheckedIds, lookup, recordsByUser, drainedRecords);
+
+    //@formatter:off
+    stripedExecutor.invokeAll(recordsByUser, recordsOfUsers -> handleLane(recordsOfUsers, lookup, failures,
+                                                                          drainedRecords));
+    //@formatter:on
+
+    List<FailedRecord> evictedFailures = parkingBuffer.drainEvicted();
+    failures.addAll(evictedFailures);
+
+    retryPublisher.publish(Lists.newArrayList(failures));
+
+    // the drained records are written or sent to the retry topics, their offsets can be committed
+    parkingBuffer.release(drainedRecords);
+    parkingBuffer.release(evictedFailures.stream().map(FailedRecord::getRecord).collect(Collectors.toList()));
+  }
+
+  /**
+   * Drain the records parked for the rechecked users that were found in the index
+   *
+   * @param recheckedIds   ids of the parked users that have no records in the batch
+   * @param lookup         the prefetched users
+   * @param recordsByUser  receives the drained records of the users
+   * @param drainedRecords receives the drained records
+   */
+  private void releaseIndexedUsers(Set<String> recheckedIds, UserLookup lookup,
+                                   Map<String, List<ConsumerRecord<String, DebeziumEvent>>> recordsByUser,
+                                   Collection<ConsumerRecord<String, DebeziumEvent>> drainedRecords) {
+    recheckedIds.stream().filter(userId -> lookup.get(userId).isPresent()).forEach(userId -> {
+      List<ConsumerRecord<String, DebeziumEvent>> parkedRecords = parkingBuffer.drain(userId);
+
+      if (!parkedRecords.isEmpty()) {
+        LOGGER.debug("User {} was indexed meanwhile, applying his parked records", userId);
+
+        drainedRecords.addAll(parkedRecords);
+        parkedRecords.sort(BINLOG_ORDER);
+        recordsByUser.put(userId, parkedRecords);
+      }
+    });
+  }
+
+  /**
+   * Park the records of the elements of a user that the lookup did not find in the index
+   *
+   * @return true if the records were parked
+   */
+  private boolean parkIfUserMissing(List<ConsumerRecord<String, DebeziumEvent>> userRecords, UserLookup lookup) {
+    String userId = getUserId(userRecords.get(0));
+
+    if (StringUtils.isNotEmpty(userId) && lookup.contains(userId) && !lookup.get(userId).isPresent() &&
+        areChildRecords(userRecords)) {
+      LOGGER.debug("User {} is not indexed yet, parking his records", userId);
+
+      parkingBuffer.park(userId, userRecords);
+      return true;
+    }
+    return false;
+  }
+
+  private boolean areChildRecords(List<ConsumerRecord<String, DebeziumEvent>> records) {
+    return records.stream().allMatch(record -> handlerFactory.getHandler(record.topic()).isChildHandler());
+  }
+
+  /**
+   * @param userRecords    records of a user
+   * @param drainedRecords receives the parked records of the user
+   * @return the records of the user with his parked records in the binlog order
+   */
+  private List<ConsumerRecord<String, DebeziumEvent>> withParkedRecords(
+      List<ConsumerRecord<String, DebeziumEvent>> userRecords,
+      Collection<ConsumerRecord<String, DebeziumEvent>> drainedRecords) {
+
+    String userId = getUserId(userRecords.get(0));
+
+    if (StringUtils.isEmpty(userId)) {
+      return userRecords;
+    }
+
+    List<ConsumerRecord<String, DebeziumEvent>> parkedRecords = parkingBuffer.drain(userId);
+
+    if (parkedRecords.isEmpty()) {
+      return userRecords;
+    }
+
+    drainedRecords.addAll(parkedRecords);
+
+    List<ConsumerRecord<String, DebeziumEvent>> records = Lists.newArrayList(parkedRecords);
+    records.addAll(userRecords);
+    records.sort(BINLOG_ORDER);
+    return records;
+  }
+
+  /**
+   * @param record consumed record
+   * @return false if the record is a tombstone that follows a delete
+   */
+  private boolean isNotTombstone(ConsumerRecord<String, DebeziumEvent> record) {
+    if (Objects.isNull(record.value()) || Objects.isNull(record.value().getPayload())) {
+      LOGGER.debug("Skipping the tombstone at offset {} of the topic {}", record.offset(), record.topic());
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Apply the changes of the users of a lane and write them
+   *
+   * @param recordsOfUsers the records of each user of the lane
+   * @param lookup         the prefetched users
+   * @param failures       receives the records of the users that have failed
+   * @param drainedRecords receives the parked records that were drained
+   */
+  private void handleLane(List<List<ConsumerRecord<String, DebeziumEvent>>> recordsOfUsers, UserLookup lookup,
+                          Collection<FailedRecord> failures,
+                          Collection<ConsumerRecord<String, DebeziumEvent>> drainedRecords) {
+    //@formatter:off
+    List<List<ConsumerRecord<String, DebeziumEvent>>> pendingRecords = recordsOfUsers.stream()
+                                                                                     .filter(userRecords -> !parkIfUserMissing(userRecords, lookup))
+                                                                                     .map(userRecords -> withParkedRecords(userRecords, drainedRecords))
+                                                                                     .collect(Collectors.toList());
+    //@formatter:on
+    UserLookup pendingLookup = lookup;
+
+    for (int attempt = 1; ; attempt++) {
+      Set<String> staleIds = applyAndFlush(pendingRecords, pendingLookup, failures);
+
+      if (staleIds.isEmpty()) {
+        return;
+      }
+
+      //@formatter:off
+      pendingRecords = pendingRecords.stream()
+                                     .filter(userRecords -> staleIds.contains(getUserId(userRecords.get(0))))
+                                     .collect(Collectors.toList());
+      //@formatter:on
+
+      if (attempt >= MAX_ATTEMPTS) {
+        StaleDocumentException cause = new StaleDocumentException(staleIds);
+        pendingRecords.forEach(userRecords -> fail(userRecords, cause, failures));
+        return;
+      }
+
+      LOGGER.debug("Applying again the changes of the users {} after attempt {}", staleIds, attempt);
+
+      pendingLookup = UserLookup.empty();
+    }
+  }
+
+  /**
+   * Apply the changes of the users and write them
+   *
+   * @return the ids of the users whose documents were rejected because they are stale
+   */
+  private Set<String> applyAndFlush(List<List<ConsumerRecord<String, DebeziumEvent>>> recordsOfUsers,
+                                    UserLookup lookup, Collection<FailedRecord> failures) {
+    UserWriteBatch batch = new UserWriteBatch(lookup);
+    Map<String, List<ConsumerRecord<String, DebeziumEvent>>> appliedRecords = Maps.newHashMap();
+
+    long handleStart = System.nanoTime();
+
+    recordsOfUsers.forEach(userRecords -> {
+
+      LOGGER.debug("Request to handle {} events of a user", userRecords.size());
+
+      String userId = getUserId(userRecords.get(0));
+
+      try {
+        apply(userRecords, batch);
+        appliedRecords.put(userId, userRecords);
+      } catch (EntityNotFoundException e) {
+        if (StringUtils.isNotEmpty(userId) && areChildRecords(userRecords)) {
+          LOGGER.debug("User {} is not indexed yet, parking his records", userId);
+
+          batch.discard(userId);
+          parkingBuffer.park(userId, userRecords);
+        } else {
+          discardAndFail(batch, userId, userRecords, e, failures);
+        }
+      } catch (RuntimeException e) {
+        discardAndFail(batch, userId, userRecords, e, failures);
+      }
+
+    });
+
+    pipelineMetrics.record(HANDLE, handleStart);
+
+    try {
+      flush(batch);
+      recordApplied(appliedRecords, Collections.emptySet());
+      return Collections.emptySet();
+    } catch (StaleDocumentException e) {
+      recordApplied(appliedRecords, e.getIds());
+      return e.getIds();
+    } catch (BulkWriteException e) {
+      LOGGER.warn("Failed to write the documents {}", e.getFailedDocuments().keySet(), e);
+
+      e.getFailedDocuments().keySet().stream()
+       .map(appliedRecords::get)
+       .filter(Objects::nonNull)
+       .forEach(userRecords -> fail(userRecords, e, failures));
+
+      recordApplied(appliedRecords, Sets.union(e.getFailedDocuments().keySet(), e.getStaleIds()));
+      return e.getStaleIds();
+    } catch (RuntimeException e) {
+      // the whole write has failed, the records are retried with the parked records drained for the lane
+      LOGGER.warn("Failed to write the documents of {} users", appliedRecords.size(), e);
+
+      appliedRecords.values().forEach(userRecords -> fail(userRecords, e, failures));
+      return Collections.emptySet();
+    }
+  }
+
+  private void flush(UserWriteBatch batch) {
+    long writeStart = System.nanoTime();
+    try {
+      userService.flush(batch);
+    } finally {
+      pipelineMetrics.record(ES_WRITE, writeStart);
+    }
+  }
+
+  /**
+   * Record the freshness of the records of the users whose writes were acknowledged and publish their ids
+   */
+  private void recordApplied(Map<String, List<ConsumerRecord<String, DebeziumEvent>>> appliedRecords,
+                             Set<String> notWrittenIds) {
+    //@formatter:off
+    Set<String> writtenIds = appliedRecords.keySet()
+                                           .stream()
+                                           .filter(id -> !notWrittenIds.contains(id))
+                                           .collect(Collectors.toSet());
+
+    freshnessRecorder.recordApplied(writtenIds.stream()
+                                              .flatMap(id -> appliedRecords.get(id).stream())
+                                              .collect(Collectors.toList()));
+    //@formatter:on
+
+    changePublisher.publish(writtenIds);
+  }
+
+  private void apply(List<ConsumerRecord<String, DebeziumEvent>> userRecords, UserWriteBatch batch) {
+    splitByTopic(userRecords).forEach(topicRecords -> {
+
+      String topic = topicRecords.get(0).topic();
+
+      LOGGER.debug("Request to handle {} events in the topic {}", topicRecords.size(), topic);
+
+      handlerFactory.getHandler(topic).process(
+          topicRecords.stream().map(ConsumerRecord::value).collect(Collectors.toList()), batch);
+
+    });
+  }
+
+  private void discardAndFail(UserWriteBatch batch, String userId,
+                              List<ConsumerRecord<String, DebeziumEvent>> userRecords, Exception cause,
+                              Collection<FailedRecord> failures) {
+    LOGGER.warn("Failed to apply the changes of the user {}", userId, cause);
+
+    if (StringUtils.isNotEmpty(userId)) {
+      batch.discard(userId);
+    }
+    fail(userRecords, cause, failures);
+  }
+
+  private void fail(List<ConsumerRecord<String, DebeziumEvent>> records, Exception cause,
+                    Collection<FailedRecord> failures) {
+    records.forEach(record -> failures.add(new FailedRecord(record, cause)));
+  }
+
+  /**
+   * Split the records into runs of consecutive records of the same topic
+   *
+   * @param records sorted records
+   * @return the runs in the order of the records
+   */
+  private List<List<ConsumerRecord<String, DebeziumEvent>>> splitByTopic(
+      List<ConsumerRecord<String, DebeziumEvent>> records) {
+
+    List<List<ConsumerRecord<String, DebeziumEvent>>> runs = Lists.newArrayList();
+    List<ConsumerRecord<String, DebeziumEvent>> run = Lists.newArrayList();
+
+    for (ConsumerRecord<String, DebeziumEvent> record : records) {
+      if (!run.isEmpty() && !run.get(0).topic().equals(record.topic())) {
+        runs.add(run);
+        run = Lists.newArrayList();
+      }
+      run.add(record);
+    }
+
+    if (!run.isEmpty()) {
+      runs.add(run);
+    }
+
+    return runs;
+  }
+
+  /**
+   * @param recordsByUser the records grouped by user
+   * @return the ids of the users without the records that have no user
+   */
+  private Set<String> getUserIds(Map<String, List<ConsumerRecord<String, DebeziumEvent>>> recordsByUser) {
+    //@formatter:off
+    return recordsByUser.keySet()
+                        .stream()
+                        .filter(StringUtils::isNotEmpty)
+                        .collect(Collectors.toSet());
+    //@formatter:on
+  }
+
+  private String getUserId(ConsumerRecord<String, DebeziumEvent> record) {
+    return StringUtils.defaultString(handlerFactory.getHandler(record.topic()).getUserId(record.value()));
+  }
+
+  /**
+   * Group the records by the id of the user that owns them while keeping their order
+   *
+   * @param records sorted records
+   * @return the records of each user
+   */
+  private Map<String, List<ConsumerRecord<String, DebeziumEvent>>> groupByUser(
+      List<ConsumerRecord<String, DebeziumEvent>> records) {
+
+    //@formatter:off
+    return records.stream()
+                  .collect(Collectors.groupingBy(
+                      this::getUserId,
+                      LinkedHashMap::new,
+                      Collectors.toList()));
+    //@formatter:on
+  }
+
+}
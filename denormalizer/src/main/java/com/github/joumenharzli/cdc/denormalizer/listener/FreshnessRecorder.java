@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.BinlogPosition;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.google.common.collect.Maps;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recorder of the freshness of the index
+ * <p>
+ * Once the writes of the records are acknowledged by the index, the time elapsed since the commit of their
+ * changes in the database is recorded in a histogram by table and partition. The last binlog position applied
+ * from each partition is published as gauges.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class FreshnessRecorder {
+
+  private static final String FRESHNESS_METRIC = "denormalizer.freshness";
+  private static final String BINLOG_FILE_METRIC = "denormalizer.binlog.file";
+  private static final String BINLOG_POSITION_METRIC = "denormalizer.binlog.position";
+
+  private final MeterRegistry registry;
+  private final Duration[] slas;
+
+  private final Map<TopicPartition, Timer> timers = Maps.newConcurrentMap();
+  private final Map<TopicPartition, AppliedPosition> positions = Maps.newConcurrentMap();
+
+  public FreshnessRecorder(MeterRegistry registry,
+                           @Value("${application.denormalizer.metrics.freshnessSlaMillis}") long[] slaMillis) {
+    this.registry = registry;
+    this.slas = Arrays.stream(slaMillis).mapToObj(Duration::ofMillis).toArray(Duration[]::new);
+  }
+
+  /**
+   * Record the freshness of records whose writes were acknowledged
+   *
+   * @param records the applied records
+   */
+  public void recordApplied(Collection<ConsumerRecord<String, DebeziumEvent>> records) {
+    long now = System.currentTimeMillis();
+
+    records.forEach(record -> {
+      TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+      Map<String, Object> source = record.value().getPayload().getSource();
+
+      getCommitTime(source).ifPresent(commitTime -> getTimer(partition).record(Math.max(0, now - commitTime),
+                                                                               TimeUnit.MILLISECONDS));
+
+      BinlogPosition.fromSource(source).ifPresent(position -> getPosition(partition).update(position));
+    });
+  }
+
+  /**
+   * The connectors write the commit time in milliseconds or in seconds in older versions
+   */
+  private Optional<Long> getCommitTime(Map<String, Object> source) {
+    if (Objects.isNull(source)) {
+      return Optional.empty();
+    }
+    if (source.get("ts_ms") instanceof Number) {
+      return Optional.of(((Number) source.get("ts_ms")).longValue());
+    }
+    if (source.get("ts_sec") instanceof Number) {
+      return Optional.of(TimeUnit.SECONDS.toMillis(((Number) source.get("ts_sec")).longValue()));
+    }
+    return Optional.empty();
+  }
+
+  private Timer getTimer(TopicPartition partition) {
+    //@formatter:off
+    return timers.computeIfAbsent(partition, key -> Timer.builder(FRESHNESS_METRIC)
+                                                         .description("Delay between the commit and the indexing of a change")
+                                                         .tags(getTags(key))
+                                                         .sla(slas)
+                                                         .register(registry));
+    //@formatter:on
+  }
+
+  private AppliedPosition getPosition(TopicPartition partition) {
+    return positions.computeIfAbsent(partition, key -> {
+      AppliedPosition position = new AppliedPosition();
+      registry.gauge(BINLOG_FILE_METRIC, getTags(key), position.file);
+      registry.gauge(BINLOG_POSITION_METRIC, getTags(key), position.position);
+      return position;
+    });
+  }
+
+  private Tags getTags(TopicPartition partition) {
+    //@formatter:off
+    return Tags.of("table", StringUtils.substringAfterLast(partition.topic(), ".").toLowerCase(),
+                   "partition", String.valueOf(partition.partition()));
+    //@formatter:on
+  }
+
+  /**
+   * Last binlog position applied from a partition
+   */
+  private static class AppliedPosition {
+
+    private final AtomicLong file = new AtomicLong();
+    private final AtomicLong position = new AtomicLong();
+    private BinlogPosition last;
+
+    synchronized void update(BinlogPosition applied) {
+      if (Objects.isNull(last) || applied.compareTo(last) > 0) {
+        last = applied;
+        file.set(applied.getFile());
+        position.set(applied.getPosition());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.joumenharzli.cdc.denormalizer.exception.EntityNotFoundException;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEventDeserializer;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.FailedRecord;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.TreeMultiset;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Buffer of the records of the elements of users that are not indexed yet
+ * <p>
+ * The records are parked by user and applied with the next records of the user. The buffer is bounded by
+ * the number of records and the records of a user are released at the latest when the time to live has elapsed
+ * since the first of them was parked, even if more records of the user are parked meanwhile. The users that exceed
+ * the size are spilled to the files {@code <directory>/<user id>.jsonl} when a directory is configured.
+ * <p>
+ * The records that expire, or that are evicted without a spill directory, are returned to be retried.
+ * <p>
+ * The user of parked records may be indexed by another instance that consumes his partition, so the parked users
+ * are looked up again in the index at each recheck interval and their records are released once they are found.
+ * <p>
+ * The parked records only live in this process so the consumers never commit the offset of a parked record:
+ * the commits stay below the lowest parked offset of each partition until the records are released, and the records
+ * are consumed again after a restart. The records of the partitions that are revoked from this instance are
+ * forgotten as they are consumed again by the instance that is assigned the partitions.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class ParkingBuffer implements ConsumerRebalanceListener {
+
+  private static final String CACHE_NAME = "parked-users";
+  private static final String SPILL_EXTENSION = ".jsonl";
+
+  private final Cache<String, ParkedRecords> cache;
+  private final Queue<ConsumerRecord<String, DebeziumEvent>> evictedRecords = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Offsets of the records that are parked or not released yet by partition where they were consumed
+   */
+  private final Map<TopicPartition, TreeMultiset<Long>> heldOffsets = Maps.newHashMap();
+
+  private final ObjectMapper spillMapper;
+  private final DebeziumEventDeserializer spillDeserializer;
+  private final Path spillDirectory;
+  private final long ttlMillis;
+  private final long recheckMillis;
+  private final AtomicLong lastRecheck = new AtomicLong(System.currentTimeMillis());
+
+  public ParkingBuffer(MeterRegistry registry,
+                       ObjectMapper mapper,
+                       EventHandlerFactory handlerFactory,
+                       @Value("${application.denormalizer.parking.maximumSize}") long maximumSize,
+                       @Value("${application.denormalizer.parking.ttlSeconds}") long ttlSeconds,
+                       @Value("${application.denormalizer.parking.recheckMillis}") long recheckMillis,
+                       @Value("${application.denormalizer.parking.spillDirectory:}") String spillDirectory)
+      throws IOException {
+
+    this.spillMapper = mapper.copy().enable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    this.spillDeserializer = new DebeziumEventDeserializer(mapper, handlerFactory);
+    this.spillDirectory = StringUtils.isEmpty(spillDirectory) ? null : Paths.get(spillDirectory);
+    this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+    this.recheckMillis = recheckMillis;
+
+    if (Objects.nonNull(this.spillDirectory)) {
+      Files.createDirectories(this.spillDirectory);
+      deletePreviousSpills();
+    }
+
+    //@formatter:off
+    this.cache = CacheBuilder.newBuilder()
+                             .maximumWeight(maximumSize)
+                             .weigher((String id, ParkedRecords parked) -> parked.getRecords().size())
+                             .removalListener(this::onRemoval)
+                             .recordStats()
+                             .build();
+    //@formatter:on
+
+    GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME);
+  }
+
+  /**
+   * Park the records of a user that is not indexed, their offsets are held until they are released
+   *
+   * @param userId  id of the user
+   * @param records the records that need the user
+   */
+  public void park(String userId, List<ConsumerRecord<String, DebeziumEvent>> records) {
+    LOGGER.debug("Parking {} records of the user {}", records.size(), userId);
+
+    hold(records);
+
+    // the deadline of the first records is kept so a user that never arrives does not keep his records forever
+    ParkedRecords added = new ParkedRecords(System.currentTimeMillis() + ttlMillis, Lists.newArrayList(records));
+    cache.asMap().merge(userId, added, (parked, ignored) -> {
+      List<ConsumerRecord<String, DebeziumEvent>> merged = Lists.newArrayList(parked.getRecords());
+      merged.addAll(records);
+      return new ParkedRecords(parked.getDeadline(), merged);
+    });
+  }
+
+  /**
+   * @return the ids of the parked users when the recheck interval has elapsed since the previous recheck
+   */
+  public Set<String> getUsersToRecheck() {
+    long now = System.currentTimeMillis();
+    long previous = lastRecheck.get();
+
+    if (now - previous < recheckMillis || !lastRecheck.compareAndSet(previous, now)) {
+      return Collections.emptySet();
+    }
+
+    Set<String> userIds = Sets.newHashSet(cache.asMap().keySet());
+
+    if (Objects.nonNull(spillDirectory)) {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDirectory, "*" + SPILL_EXTENSION)) {
+        for (Path file : files) {
+          userIds.add(getUserId(file));
+        }
+      } catch (IOException e) {
+        LOGGER.warn("Failed to list the spilled users in {}", spillDirectory, e);
+      }
+    }
+
+    return userIds;
+  }
+
+  /**
+   * Remove the records parked for a user, their offsets stay held until they are released
+   *
+   * @param userId id of the user
+   * @return the parked records in the order they were parked
+   */
+  public List<ConsumerRecord<String, DebeziumEvent>> drain(String userId) {
+    List<ConsumerRecord<String, DebeziumEvent>> records = Lists.newArrayList(readSpilled(userId));
+
+    ParkedRecords parked = cache.asMap().remove(userId);
+    if (Objects.nonNull(parked)) {
+      records.addAll(parked.getRecords());
+    }
+
+    if (!records.isEmpty()) {
+      LOGGER.debug("Releasing {} parked records of the user {}", records.size(), userId);
+    }
+
+    return records;
+  }
+
+  /**
+   * Remove the records that have expired or were evicted, their offsets stay held until they are released
+   *
+   * @return the records with the cause of their failure
+   */
+  public List<FailedRecord> drainEvicted() {
+    cache.cleanUp();
+    drainExpired();
+    drainExpiredSpills();
+
+    List<FailedRecord> failures = Lists.newArrayList();
+    ConsumerRecord<String, DebeziumEvent> record;
+    while (Objects.nonNull(record = evictedRecords.poll())) {
+      failures.add(new FailedRecord(record, new EntityNotFoundException(
+          "User of the record at offset " + record.offset() + " of the topic " + record.topic() +
+          " was not indexed while it was parked")));
+    }
+    return failures;
+  }
+
+  /**
+   * Release the offsets of drained records once they are written or sent to the retry topics
+   *
+   * @param records the drained records
+   */
+  public void release(Collection<ConsumerRecord<String, DebeziumEvent>> records) {
+    synchronized (heldOffsets) {
+      records.forEach(record -> {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        TreeMultiset<Long> offsets = heldOffsets.get(partition);
+
+        if (Objects.nonNull(offsets)) {
+          offsets.remove(record.offset());
+          if (offsets.isEmpty()) {
+            heldOffsets.remove(partition);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * @param partition partition of a consumed topic
+   * @param offset    the offset to commit
+   * @return the offset or the lowest offset held in the partition if it is lower
+   */
+  public long getCommittableOffset(TopicPartition partition, long offset) {
+    synchronized (heldOffsets) {
+      TreeMultiset<Long> offsets = heldOffsets.get(partition);
+      return Objects.isNull(offsets) ? offset : Math.min(offset, offsets.firstEntry().getElement());
+    }
+  }
+
+  /**
+   * @param records the records of a batch that was handled
+   * @return the offsets to commit for the partitions of the records
+   */
+  public Map<TopicPartition, OffsetAndMetadata> getCommittableOffsets(
+      Collection<? extends ConsumerRecord<?, ?>> records) {
+
+    Map<TopicPartition, OffsetAndMetadata> offsets = Maps.newHashMap();
+    records.forEach(record -> {
+      TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+      offsets.merge(partition, new OffsetAndMetadata(getCommittableOffset(partition, record.offset() + 1)),
+                    (previous, next) -> next.offset() > previous.offset() ? next : previous);
+    });
+    return offsets;
+  }
+
+  /**
+   * Forget the records of the revoked partitions and their held offsets, the records are consumed again from the
+   * committed offsets by the instance that is assigned the partitions
+   *
+   * @param partitions the revoked partitions
+   */
+  @Override
+  public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+    if (partitions.isEmpty()) {
+      return;
+    }
+
+    LOGGER.debug("Forgetting the parked records of the revoked partitions {}", partitions);
+
+    synchronized (heldOffsets) {
+      partitions.forEach(heldOffsets::remove);
+    }
+
+    //@formatter:off
+    cache.asMap().keySet().forEach(userId -> cache.asMap().computeIfPresent(userId, (id, parked) ->
+        withoutPartitions(parked.getDeadline(), parked.getRecords(), partitions)));
+    //@formatter:on
+
+    if (Objects.nonNull(spillDirectory)) {
+      forgetSpilledPartitions(partitions);
+    }
+  }
+
+  @Override
+  public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+    // the records of the assigned partitions are parked when they are consumed
+  }
+
+  private void hold(Collection<ConsumerRecord<String, DebeziumEvent>> records) {
+    synchronized (heldOffsets) {
+      //@formatter:off
+      records.forEach(record -> heldOffsets.computeIfAbsent(new TopicPartition(record.topic(), record.partition()),
+                                                            partition -> TreeMultiset.create())
+                                           .add(record.offset()));
+      //@formatter:on
+    }
+  }
+
+  private void drainExpired() {
+    long now = System.currentTimeMillis();
+
+    cache.asMap().forEach((userId, parked) -> {
+      if (parked.getDeadline() <= now && cache.asMap().remove(userId, parked)) {
+        LOGGER.debug("Parked records of the user {} have expired", userId);
+        evictedRecords.addAll(parked.getRecords());
+      }
+    });
+  }
+
+  private void onRemoval(RemovalNotification<String, ParkedRecords> notification) {
+    if (!notification.wasEvicted()) {
+      return;
+    }
+
+    LOGGER.debug("Parked records of the user {} were evicted because of {}", notification.getKey(),
+                 notification.getCause());
+
+    if (notification.getCause() == RemovalCause.SIZE && Objects.nonNull(spillDirectory)) {
+      spill(notification.getKey(), notification.getValue());
+    } else {
+      evictedRecords.addAll(notification.getValue().getRecords());
+    }
+  }
+
+  private void spill(String userId, ParkedRecords parked) {
+    try (BufferedWriter writer = Files.newBufferedWriter(getSpillFile(userId), StandardCharsets.UTF_8,
+                                                         StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      for (ConsumerRecord<String, DebeziumEvent> record : parked.getRecords()) {
+        ObjectNode headers = spillMapper.createObjectNode();
+        for (Header header : record.headers()) {
+          headers.put(header.key(), new String(header.value(), StandardCharsets.UTF_8));
+        }
+
+        ObjectNode line = spillMapper.createObjectNode();
+        line.put("deadline", parked.getDeadline());
+        line.put("topic", record.topic());
+        line.put("partition", record.partition());
+        line.put("offset", record.offset());
+        line.put("timestamp", record.timestamp());
+        line.put("key", record.key());
+        line.set("headers", headers);
+        line.set("event", spillMapper.valueToTree(record.value()));
+
+        writer.write(spillMapper.writeValueAsString(line));
+        writer.newLine();
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Failed to spill the records of the user {}, they will be retried", userId, e);
+      evictedRecords.addAll(parked.getRecords());
+    }
+  }
+
+  /**
+   * Rewrite the spilled files without the records of the revoked partitions
+   */
+  private void forgetSpilledPartitions(Collection<TopicPartition> partitions) {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDirectory, "*" + SPILL_EXTENSION)) {
+      for (Path file : files) {
+        long deadline = getSpillDeadline(file);
+        ParkedRecords parked = withoutPartitions(deadline, readSpilledFile(file), partitions);
+        if (Objects.nonNull(parked)) {
+          spill(getUserId(file), parked);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Failed to forget the spilled records of the partitions {}", partitions, e);
+    }
+  }
+
+  /**
+   * @return the records that were not consumed from the partitions or null if none is left
+   */
+  private ParkedRecords withoutPartitions(long deadline, List<ConsumerRecord<String, DebeziumEvent>> records,
+                                          Collection<TopicPartition> partitions) {
+    //@formatter:off
+    List<ConsumerRecord<String, DebeziumEvent>> kept = records.stream()
+        .filter(record -> !partitions.contains(new TopicPartition(record.topic(), record.partition())))
+        .collect(Collectors.toList());
+    //@formatter:on
+    return kept.isEmpty() ? null : new ParkedRecords(deadline, kept);
+  }
+
+  private List<ConsumerRecord<String, DebeziumEvent>> readSpilled(String userId) {
+    if (Objects.isNull(spillDirectory)) {
+      return Collections.emptyList();
+    }
+    return readSpilledFile(getSpillFile(userId));
+  }
+
+  private List<ConsumerRecord<String, DebeziumEvent>> readSpilledFile(Path file) {
+    if (!Files.exists(file)) {
+      return Collections.emptyList();
+    }
+
+    try {
+      List<ConsumerRecord<String, DebeziumEvent>> records = Files.readAllLines(file, StandardCharsets.UTF_8)
+          .stream()
+          .filter(StringUtils::isNotBlank)
+          .map(this::toRecord)
+          .collect(Collectors.toList());
+      Files.delete(file);
+      return records;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read the spilled records from " + file, e);
+    }
+  }
+
+  private void drainExpiredSpills() {
+    if (Objects.isNull(spillDirectory)) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDirectory, "*" + SPILL_EXTENSION)) {
+      for (Path file : files) {
+        if (getSpillDeadline(file) <= now) {
+          LOGGER.debug("Spilled records of the user {} have expired", getUserId(file));
+          evictedRecords.addAll(readSpilledFile(file));
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Failed to look for expired records in {}", spillDirectory, e);
+    }
+  }
+
+  /**
+   * The records are appended to the file so its first line has the earliest deadline
+   */
+  private long getSpillDeadline(Path file) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      return StringUtils.isBlank(line) ? Long.MAX_VALUE : spillMapper.readTree(line).get("deadline").asLong();
+    }
+  }
+
+  /**
+   * The records spilled by a previous run were never committed so they are consumed again
+   */
+  private void deletePreviousSpills() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDirectory, "*" + SPILL_EXTENSION)) {
+      for (Path file : files) {
+        LOGGER.info("Deleting the records of the user {} spilled by a previous run", getUserId(file));
+        Files.delete(file);
+      }
+    }
+  }
+
+  private ConsumerRecord<String, DebeziumEvent> toRecord(String line) {
+    try {
+      JsonNode node = spillMapper.readTree(line);
+
+      RecordHeaders headers = new RecordHeaders();
+      Iterator<Map.Entry<String, JsonNode>> fields = node.get("headers").fields();
+      while (fields.hasNext()) {
+        Map.Entry<String, JsonNode> field = fields.next();
+        headers.add(field.getKey(), field.getValue().asText().getBytes(StandardCharsets.UTF_8));
+      }
+
+      String topic = node.get("topic").asText();
+      JsonNode originalTopic = node.get("headers").get(RetryPublisher.ORIGINAL_TOPIC_HEADER);
+
+      // the events of the retry topics are decoded with the debezium topic where they were first consumed
+      DebeziumEvent event = spillDeserializer.deserialize(Objects.isNull(originalTopic) ? topic : originalTopic.asText(),
+                                                          spillMapper.writeValueAsBytes(node.get("event")));
+
+      return new ConsumerRecord<>(topic, node.get("partition").asInt(), node.get("offset").asLong(),
+                                  node.get("timestamp").asLong(), TimestampType.CREATE_TIME,
+                                  (long) ConsumerRecord.NULL_CHECKSUM, ConsumerRecord.NULL_SIZE,
+                                  ConsumerRecord.NULL_SIZE, node.get("key").isNull() ? null : node.get("key").asText(),
+                                  event, headers);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read the spilled record " + line, e);
+    }
+  }
+
+  private Path getSpillFile(String userId) {
+    try {
+      return spillDirectory.resolve(URLEncoder.encode(userId, StandardCharsets.UTF_8.name()) + SPILL_EXTENSION);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private String getUserId(Path file) throws IOException {
+    return URLDecoder.decode(StringUtils.removeEnd(file.getFileName().toString(), SPILL_EXTENSION),
+                             StandardCharsets.UTF_8.name());
+  }
+
+  /**
+   * Records parked for a user with the deadline of the first of them
+   */
+  @lombok.Value
+  private static class ParkedRecords {
+    private final long deadline;
+    private final List<ConsumerRecord<String, DebeziumEvent>> records;
+  }
+
+}
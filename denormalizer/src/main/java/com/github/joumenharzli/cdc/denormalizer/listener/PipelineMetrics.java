@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers of the stages of the pipeline and distributions of the size of the batches
+ * <p>
+ * All the meters are registered once so recording a stage only reads the clock and updates the timer.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+public class PipelineMetrics {
+
+  private static final String STAGE_METRIC = "denormalizer.stage";
+  private static final String BATCH_SIZE_METRIC = "denormalizer.batch.size";
+  private static final String BATCH_BYTES_METRIC = "denormalizer.batch.bytes";
+
+  /**
+   * Stages of the handling of a batch of records
+   */
+  public enum Stage {
+    /**
+     * time spent by the listener thread outside of the handling of the batches, mostly waiting for the poll
+     */
+    POLL_WAIT,
+    DESERIALIZE,
+    SORT_GROUP,
+    HANDLE,
+    ES_READ,
+    ES_WRITE,
+    COMMIT
+  }
+
+  private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+  private final DistributionSummary batchSize;
+  private final DistributionSummary batchBytes;
+
+  /**
+   * End of the last batch handled by each listener thread
+   */
+  private final ThreadLocal<Long> lastBatchEnd = new ThreadLocal<>();
+
+  public PipelineMetrics(MeterRegistry registry) {
+    //@formatter:off
+    for (Stage stage : Stage.values()) {
+      timers.put(stage, Timer.builder(STAGE_METRIC)
+                             .tag("stage", stage.name().toLowerCase())
+                             .publishPercentileHistogram()
+                             .register(registry));
+    }
+
+    batchSize = DistributionSummary.builder(BATCH_SIZE_METRIC)
+                                   .baseUnit("records")
+                                   .publishPercentileHistogram()
+                                   .register(registry);
+
+    batchBytes = DistributionSummary.builder(BATCH_BYTES_METRIC)
+                                    .baseUnit("bytes")
+                                    .publishPercentileHistogram()
+                                    .register(registry);
+    //@formatter:on
+  }
+
+  public Timer getTimer(Stage stage) {
+    return timers.get(stage);
+  }
+
+  /**
+   * @param stage      the stage that has ended
+   * @param startNanos the value of {@link System#nanoTime()} when the stage has started
+   */
+  public void record(Stage stage, long startNanos) {
+    timers.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Record the size of a batch and the time the current thread has waited for it
+   *
+   * @param records the records of the batch
+   */
+  public void batchStarted(Collection<? extends ConsumerRecord<?, ?>> records) {
+    Long lastEnd = lastBatchEnd.get();
+    if (Objects.nonNull(lastEnd)) {
+      record(Stage.POLL_WAIT, lastEnd);
+    }
+
+    recordBatch(records);
+  }
+
+  /**
+   * Record the number of records of a batch and their serialized size
+   *
+   * @param records the records of the batch
+   */
+  public void recordBatch(Collection<? extends ConsumerRecord<?, ?>> records) {
+    long bytes = 0;
+    for (ConsumerRecord<?, ?> record : records) {
+      bytes += Math.max(0, record.serializedKeySize()) + Math.max(0, record.serializedValueSize());
+    }
+
+    batchSize.record(records.size());
+    batchBytes.record(bytes);
+  }
+
+  /**
+   * Mark the end of the handling of a batch by the current thread
+   */
+  public void batchFinished() {
+    lastBatchEnd.set(System.nanoTime());
+  }
+
+}
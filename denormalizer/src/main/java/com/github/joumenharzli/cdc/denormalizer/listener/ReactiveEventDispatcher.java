@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.BatchingSubscriber;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverOffset;
+import reactor.kafka.receiver.ReceiverOptions;
+import reactor.kafka.receiver.ReceiverRecord;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.github.joumenharzli.cdc.denormalizer.listener.PipelineMetrics.Stage.COMMIT;
+
+/**
+ * Reactive Event Dispatcher
+ * <p>
+ * The records are received, decoded, handled by the {@link EventProcessor} and committed in a single pipeline.
+ * The records are batched by a {@link BatchingSubscriber} that never requests more than a batch of records
+ * from the receiver, so the receiver pauses its partitions while a batch is handled and a slow cluster slows
+ * down the consumption instead of buffering records or exceeding the poll interval of the consumer.
+ * <p>
+ * Only the consumption is reactive: the elasticsearch client is still blocking, so the batches are handled on
+ * a single thread of the dispatcher and never on the thread of the receiver.
+ * <p>
+ * The pipeline is restarted from the last committed offsets when a batch fails.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@ConditionalOnProperty(name = "application.denormalizer.consumer", havingValue = "reactive")
+@Slf4j
+public class ReactiveEventDispatcher implements SmartLifecycle {
+
+  private static final Duration RESTART_DELAY = Duration.ofSeconds(5);
+
+  private final EventProcessor eventProcessor;
+  private final ParkingBuffer parkingBuffer;
+  private final Deserializer<DebeziumEvent> eventDeserializer;
+  private final PipelineMetrics pipelineMetrics;
+  private final ReceiverOptions<String, byte[]> receiverOptions;
+  private final int batchSize;
+  private final Duration batchTimeout;
+  private final boolean autoStartup;
+
+  private ScheduledExecutorService executor;
+  private BatchingSubscriber<ReceiverRecord<String, byte[]>> subscriber;
+
+  public ReactiveEventDispatcher(EventProcessor eventProcessor,
+                                 ParkingBuffer parkingBuffer,
+                                 Deserializer<DebeziumEvent> eventDeserializer,
+                                 PipelineMetrics pipelineMetrics,
+                                 ReceiverOptions<String, byte[]> receiverOptions,
+                                 @Value("${application.denormalizer.reactive.batchSize}") int batchSize,
+                                 @Value("${application.denormalizer.reactive.batchTimeoutMillis}") long batchTimeoutMillis,
+                                 @Value("${application.denormalizer.rebuild.enabled}") boolean rebuildEnabled) {
+    this.eventProcessor = eventProcessor;
+    this.parkingBuffer = parkingBuffer;
+    this.eventDeserializer = eventDeserializer;
+    this.pipelineMetrics = pipelineMetrics;
+    this.receiverOptions = receiverOptions;
+    this.batchSize = batchSize;
+    this.batchTimeout = Duration.ofMillis(batchTimeoutMillis);
+    // the rebuild starts the consumer once the index is rebuilt
+    this.autoStartup = !rebuildEnabled;
+  }
+
+  @Override
+  public synchronized void start() {
+    LOGGER.debug("Starting the reactive consumer");
+
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("reactive-events")
+                                                                                    .build());
+    subscribe();
+  }
+
+  @Override
+  public synchronized void stop() {
+    LOGGER.debug("Stopping the reactive consumer");
+
+    if (Objects.nonNull(subscriber)) {
+      subscriber.dispose();
+      executor.shutdown();
+      subscriber = null;
+    }
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return Objects.nonNull(subscriber) && !subscriber.isDisposed();
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return autoStartup;
+  }
+
+  @Override
+  public int getPhase() {
+    return Integer.MAX_VALUE;
+  }
+
+  private synchronized void subscribe() {
+    if (executor.isShutdown()) {
+      return;
+    }
+
+    subscriber = new BatchingSubscriber<>(batchSize, batchTimeout, executor, this::handleEvents, this::restart);
+    KafkaReceiver.create(receiverOptions).receive().subscribe(subscriber);
+  }
+
+  /**
+   * Restart the consumer from the last committed offsets once a batch has failed
+   */
+  private synchronized void restart(Throwable throwable) {
+    LOGGER.error("Failed to handle a batch, restarting the consumer", throwable);
+
+    if (!executor.isShutdown()) {
+      executor.schedule(this::subscribe, RESTART_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Decode and handle the records then commit their offsets
+   */
+  private void handleEvents(List<ReceiverRecord<String, byte[]>> records) {
+    LOGGER.debug("Request to handle {} records", records.size());
+
+    pipelineMetrics.recordBatch(records);
+    eventProcessor.process(decode(records));
+    commit(records);
+  }
+
+  private List<ConsumerRecord<String, DebeziumEvent>> decode(List<ReceiverRecord<String, byte[]>> records) {
+    //@formatter:off
+    return records.stream()
+                  .map(record -> new ConsumerRecord<>(record.topic(), record.partition(), record.offset(),
+                                                      record.timestamp(), record.timestampType(), null,
+                                                      record.serializedKeySize(), record.serializedValueSize(),
+                                                      record.key(),
+                                                      eventDeserializer.deserialize(record.topic(), record.value()),
+                                                      record.headers()))
+                  .collect(Collectors.toList());
+    //@formatter:on
+  }
+
+  /**
+   * Commit the offset of the last record of each partition that is below the records still parked
+   */
+  private void commit(List<ReceiverRecord<String, byte[]>> records) {
+    //@formatter:off
+    Collection<ReceiverOffset> lastOffsets = records.stream()
+                                                    .map(ReceiverRecord::receiverOffset)
+                                                    .filter(offset -> offset.offset() < parkingBuffer.getCommittableOffset(offset.topicPartition(), Long.MAX_VALUE))
+                                                    .collect(Collectors.toMap(ReceiverOffset::topicPartition,
+                                                                              Function.identity(),
+                                                                              (previous, next) -> next,
+                                                                              LinkedHashMap<TopicPartition, ReceiverOffset>::new))
+                                                    .values();
+    //@formatter:on
+
+    long commitStart = System.nanoTime();
+    //@formatter:off
+    Flux.fromIterable(lastOffsets)
+        .concatMap(ReceiverOffset::commit)
+        .then()
+        .block();
+    //@formatter:on
+    pipelineMetrics.record(COMMIT, commitStart);
+  }
+
+}
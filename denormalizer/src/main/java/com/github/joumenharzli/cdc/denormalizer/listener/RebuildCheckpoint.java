@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.BinlogPosition;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserRepository;
+import com.github.joumenharzli.cdc.denormalizer.service.UserRebuildService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Binlog position of the last rebuild of the index
+ * <p>
+ * The documents of a rebuilt index already contain the changes that were written before this position,
+ * their events are skipped when the consumers are moved back to the time of the rebuild.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class RebuildCheckpoint {
+
+  private final UserRepository userRepository;
+
+  private volatile long version = -1;
+
+  public RebuildCheckpoint(UserRepository userRepository) {
+    this.userRepository = userRepository;
+  }
+
+  /**
+   * Read the position of the index that is behind the alias of the users
+   */
+  @PostConstruct
+  @Scheduled(fixedDelayString = "${application.denormalizer.rebuild.checkpointRefreshMillis}")
+  public void refresh() {
+    try {
+      Object metaVersion = userRepository.getIndexMeta().get(UserRebuildService.BINLOG_VERSION_META);
+      version = metaVersion instanceof Number ? ((Number) metaVersion).longValue() : -1;
+    } catch (RuntimeException e) {
+      LOGGER.warn("Failed to read the checkpoint of the index, keeping the version {}", version, e);
+    }
+  }
+
+  /**
+   * @param position binlog position of the rebuilt index
+   */
+  public void update(BinlogPosition position) {
+    version = position.toVersion();
+  }
+
+  /**
+   * @param record consumed record
+   * @return false if the change of the record is already in the rebuilt index
+   */
+  public boolean isAfter(ConsumerRecord<String, DebeziumEvent> record) {
+    //@formatter:off
+    boolean after = BinlogPosition.fromSource(record.value().getPayload().getSource())
+                                  .map(position -> position.toVersion() >= version)
+                                  .orElse(true);
+    //@formatter:on
+
+    if (!after) {
+      LOGGER.debug("Skipping the record at offset {} of the topic {} that is before the rebuild", record.offset(),
+                   record.topic());
+    }
+    return after;
+  }
+
+}
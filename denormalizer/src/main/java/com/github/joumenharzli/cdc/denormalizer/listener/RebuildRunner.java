@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.BinlogPosition;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.service.UserRebuildService;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Rebuild of the index from the database when the application starts
+ * <p>
+ * The consumers are not started with the application when the rebuild is enabled, so no record is handled while the
+ * index is rebuilt. Then the consumer group is moved back to the records produced shortly before the snapshot of
+ * the tables and the consumers are started, the live consumption resumes from the binlog position of the rebuild
+ * and the older changes are skipped by the {@link RebuildCheckpoint}. The checkpoint is only updated once the
+ * rebuild has succeeded, a failed rebuild fails the startup without starting the consumers.
+ * <p>
+ * The other instances of the consumer group should be stopped during the rebuild, otherwise the offsets of the
+ * group cannot be changed.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@ConditionalOnProperty(name = "application.denormalizer.rebuild.enabled", havingValue = "true")
+@Slf4j
+public class RebuildRunner implements ApplicationRunner {
+
+  private final UserRebuildService userRebuildService;
+  private final RebuildCheckpoint rebuildCheckpoint;
+  private final ConsumerLifecycle consumerLifecycle;
+  private final ConsumerFactory<String, DebeziumEvent> consumerFactory;
+  private final ChangePublisher changePublisher;
+
+  @Value("${application.kafka.topics}")
+  private String[] topics;
+
+  @Value("${application.denormalizer.rebuild.rewindMarginSeconds}")
+  private long rewindMarginSeconds;
+
+  public RebuildRunner(UserRebuildService userRebuildService, RebuildCheckpoint rebuildCheckpoint,
+                       ConsumerLifecycle consumerLifecycle,
+                       ConsumerFactory<String, DebeziumEvent> consumerFactory,
+                       ChangePublisher changePublisher) {
+    this.userRebuildService = userRebuildService;
+    this.rebuildCheckpoint = rebuildCheckpoint;
+    this.consumerLifecycle = consumerLifecycle;
+    this.consumerFactory = consumerFactory;
+    this.changePublisher = changePublisher;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    LOGGER.info("Rebuilding the index before starting the consumers");
+
+    // the consumers are not started with the application, they are only marked as suspended
+    consumerLifecycle.suspend();
+
+    long snapshotTime = System.currentTimeMillis();
+
+    BinlogPosition position = userRebuildService.rebuild();
+
+    rewind(snapshotTime - TimeUnit.SECONDS.toMillis(rewindMarginSeconds));
+    rebuildCheckpoint.update(position);
+
+    // the alias points to a new index so every cached search result is stale
+    changePublisher.publishAll();
+
+    LOGGER.info("The index was rebuilt at the binlog position {}", position);
+
+    consumerLifecycle.resume();
+  }
+
+  /**
+   * Commit the offsets of the first records produced after a time for the consumer group
+   */
+  private void rewind(long timestamp) {
+    try (Consumer<String, DebeziumEvent> consumer = consumerFactory.createConsumer()) {
+
+      //@formatter:off
+      Map<TopicPartition, Long> timestamps = Arrays.stream(topics)
+          .flatMap(topic -> consumer.partitionsFor(topic).stream())
+          .map(partition -> new TopicPartition(partition.topic(), partition.partition()))
+          .collect(Collectors.toMap(partition -> partition, partition -> timestamp));
+      //@formatter:on
+
+      Map<TopicPartition, OffsetAndTimestamp> offsetsForTimes = consumer.offsetsForTimes(timestamps);
+      Map<TopicPartition, Long> endOffsets = consumer.endOffsets(timestamps.keySet());
+
+      Map<TopicPartition, OffsetAndMetadata> offsets = Maps.newHashMap();
+      timestamps.keySet().forEach(partition -> {
+        OffsetAndTimestamp offset = offsetsForTimes.get(partition);
+        // the end of the partition when no record was produced after the time
+        long position = Objects.nonNull(offset) ? offset.offset() : endOffsets.get(partition);
+        offsets.put(partition, new OffsetAndMetadata(position));
+      });
+
+      LOGGER.info("Moving the consumer group to the offsets {}", offsets);
+
+      consumer.assign(timestamps.keySet());
+      consumer.commitSync(offsets);
+    }
+  }
+
+}
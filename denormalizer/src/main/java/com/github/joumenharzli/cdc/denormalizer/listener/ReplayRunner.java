@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserLookup;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserRepository;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserWriteBatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Replay of the debezium topics into a shadow index when the application starts
+ * <p>
+ * The partitions of the topics are split between parallel consumers that read them from the beginning up to
+ * their end at the start of the replay. The consumers belong to their own group and never commit, so the live
+ * consumption is not changed.
+ * <p>
+ * The changes are applied by the event handlers of the application, which must use partial updates executed on
+ * the server side so the documents are never read, and they are written with the largest bulk requests into a new
+ * index with the replicas and the refresh disabled.
+ * The throughput is reported when the replay is done.
+ * <p>
+ * The records of a user and of his elements are in different topics read by different consumers, so an element
+ * can be upserted after its user was deleted. The users whose last change is a delete are deleted again once all
+ * the partitions are read.
+ * <p>
+ * The refresh is enabled again once the replay is done but the shadow index keeps no replicas, they must be added
+ * before it serves searches.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@ConditionalOnProperty(name = "application.denormalizer.replay.enabled", havingValue = "true")
+@Slf4j
+public class ReplayRunner implements ApplicationRunner {
+
+  private static final DateTimeFormatter INDEX_SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+  private static final long POLL_TIMEOUT_MILLIS = 1000;
+
+  private static final int LOADING_REPLICAS = 0;
+  private static final String LOADING_REFRESH_INTERVAL = "-1";
+  private static final String LOADED_REFRESH_INTERVAL = "1s";
+
+  private static final String SCRIPT_UPDATE_MODE = "script";
+
+  private final ConsumerFactory<String, DebeziumEvent> replayConsumerFactory;
+  private final UserRepository userRepository;
+  private final ElasticsearchTemplate elasticsearchTemplate;
+  private final EventHandlerFactory handlerFactory;
+
+  private final AtomicLong events = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  /**
+   * Ids of the users whose last change read is a delete, the changes of a user are in a single partition
+   */
+  private final Set<String> deletedUserIds = Sets.newConcurrentHashSet();
+
+  @Value("${application.kafka.topics}")
+  private String[] topics;
+
+  @Value("${application.denormalizer.replay.consumers}")
+  private int consumers;
+
+  public ReplayRunner(ConsumerFactory<String, DebeziumEvent> replayConsumerFactory,
+                      UserRepository userRepository,
+                      ElasticsearchTemplate elasticsearchTemplate,
+                      EventHandlerFactory handlerFactory,
+                      @Value("${application.denormalizer.updateMode}") String updateMode) {
+    // the shadow index is empty so the handlers cannot read the documents they change
+    Assert.isTrue(SCRIPT_UPDATE_MODE.equals(updateMode), "The replay needs the update mode " + SCRIPT_UPDATE_MODE);
+
+    this.replayConsumerFactory = replayConsumerFactory;
+    this.userRepository = userRepository;
+    this.elasticsearchTemplate = elasticsearchTemplate;
+    this.handlerFactory = handlerFactory;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("replay")
+                                                                                           .build());
+    executor.execute(this::replay);
+    executor.shutdown();
+  }
+
+  private void replay() {
+    String alias = elasticsearchTemplate.getPersistentEntityFor(User.class).getIndexName();
+    String indexName = alias + "-shadow-" + INDEX_SUFFIX_FORMAT.format(LocalDateTime.now());
+
+    LOGGER.info("Request to replay the topics {} into the index {}", Arrays.toString(topics), indexName);
+
+    try {
+      userRepository.createIndex(indexName, LOADING_REPLICAS, LOADING_REFRESH_INTERVAL,
+                                 ImmutableMap.of("replayOf", String.join(",", topics)));
+
+      long start = System.nanoTime();
+
+      replayPartitions(indexName);
+      deleteRecreatedUsers(indexName);
+
+      long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+      userRepository.updateIndexSettings(indexName, LOADING_REPLICAS, LOADED_REFRESH_INTERVAL);
+
+      LOGGER.info("Replayed {} events and {} bytes into the index {} in {} ms with {} failures: " +
+                  "{} events/s and {} bytes/s", events.get(), bytes.get(), indexName, elapsedMillis, failures.get(),
+                  events.get() * 1000 / elapsedMillis, bytes.get() * 1000 / elapsedMillis);
+    } catch (RuntimeException e) {
+      LOGGER.error("Failed to replay the topics into the index {}", indexName, e);
+    }
+  }
+
+  /**
+   * Split the partitions between the consumers and wait until all of them have been read
+   */
+  private void replayPartitions(String indexName) {
+    Map<TopicPartition, Long> endOffsets;
+
+    try (Consumer<String, DebeziumEvent> consumer = replayConsumerFactory.createConsumer()) {
+      //@formatter:off
+      List<TopicPartition> partitions = Arrays.stream(topics)
+          .flatMap(topic -> consumer.partitionsFor(topic).stream())
+          .map(partition -> new TopicPartition(partition.topic(), partition.partition()))
+          .collect(Collectors.toList());
+      //@formatter:on
+
+      endOffsets = consumer.endOffsets(partitions);
+    }
+
+    int consumerCount = Math.max(1, Math.min(consumers, endOffsets.size()));
+
+    List<List<TopicPartition>> partitionsByConsumer = Lists.newArrayList();
+    for (int i = 0; i < consumerCount; i++) {
+      partitionsByConsumer.add(Lists.newArrayList());
+    }
+
+    int next = 0;
+    for (TopicPartition partition : endOffsets.keySet()) {
+      partitionsByConsumer.get(next++ % consumerCount).add(partition);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(consumerCount,
+                                                            new ThreadFactoryBuilder().setNameFormat("replay-%d").build());
+
+    try {
+      //@formatter:off
+      CompletableFuture.allOf(partitionsByConsumer.stream()
+                                                  .map(partitions -> CompletableFuture.runAsync(
+                                                      () -> replay(partitions, endOffsets, indexName), executor))
+                                                  .toArray(CompletableFuture[]::new))
+                       .join();
+      //@formatter:on
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Read partitions from the beginning up to their end offsets and write their changes
+   */
+  private void replay(List<TopicPartition> partitions, Map<TopicPartition, Long> endOffsets, String indexName) {
+    try (Consumer<String, DebeziumEvent> consumer = replayConsumerFactory.createConsumer()) {
+      consumer.assign(partitions);
+      consumer.seekToBeginning(partitions);
+
+      List<TopicPartition> pendingPartitions = Lists.newArrayList(partitions);
+
+      while (true) {
+        pendingPartitions.removeIf(partition -> consumer.position(partition) >= endOffsets.get(partition));
+
+        if (pendingPartitions.isEmpty()) {
+          return;
+        }
+
+        write(consumer.poll(POLL_TIMEOUT_MILLIS), indexName);
+      }
+    }
+  }
+
+  /**
+   * Delete the documents created by the elements of users that were deleted
+   */
+  private void deleteRecreatedUsers(String indexName) {
+    LOGGER.info("Deleting again {} deleted users from the index {}", deletedUserIds.size(), indexName);
+
+    UserWriteBatch batch = new UserWriteBatch(UserLookup.empty(), indexName);
+    deletedUserIds.forEach(batch::delete);
+
+    try {
+      userRepository.bulk(batch);
+    } catch (ElasticsearchException e) {
+      int failedDocuments = Objects.isNull(e.getFailedDocuments()) ? batch.size() : e.getFailedDocuments().size();
+
+      LOGGER.warn("Failed to delete {} replayed users", failedDocuments, e);
+      failures.addAndGet(failedDocuments);
+    }
+  }
+
+  private void write(ConsumerRecords<String, DebeziumEvent> records, String indexName) {
+    UserWriteBatch batch = new UserWriteBatch(UserLookup.empty(), indexName);
+
+    records.forEach(record -> bytes.addAndGet(Math.max(0, record.serializedKeySize()) +
+                                              Math.max(0, record.serializedValueSize())));
+
+    //@formatter:off
+    List<ConsumerRecord<String, DebeziumEvent>> sortedRecords = StreamSupport.stream(records.spliterator(), false)
+        .filter(record -> Objects.nonNull(record.value()) && Objects.nonNull(record.value().getPayload()))
+        .sorted(EventProcessor.BINLOG_ORDER)
+        .collect(Collectors.toList());
+    //@formatter:on
+
+    for (ConsumerRecord<String, DebeziumEvent> record : sortedRecords) {
+      try {
+        EventHandler handler = handlerFactory.getHandler(record.topic());
+        handler.process(record.value(), batch);
+
+        if (!handler.isChildHandler()) {
+          trackDelete(handler.getUserId(record.value()), record.value());
+        }
+      } catch (RuntimeException e) {
+        LOGGER.debug("Failed to replay the record at offset {} of the topic {}", record.offset(), record.topic(), e);
+        failures.incrementAndGet();
+      }
+    }
+
+    try {
+      userRepository.bulk(batch);
+    } catch (ElasticsearchException e) {
+      int failedDocuments = Objects.isNull(e.getFailedDocuments()) ? batch.size() : e.getFailedDocuments().size();
+
+      LOGGER.warn("Failed to write {} replayed documents", failedDocuments, e);
+      failures.addAndGet(failedDocuments);
+    }
+
+    events.addAndGet(records.count());
+  }
+
+  private void trackDelete(String userId, DebeziumEvent event) {
+    if (StringUtils.isEmpty(userId)) {
+      return;
+    }
+
+    if (event.getPayload().getOperation() == DebeziumEvent.DebeziumEventPayloadOperation.DELETE) {
+      deletedUserIds.add(userId);
+    } else {
+      deletedUserIds.remove(userId);
+    }
+  }
+
+}
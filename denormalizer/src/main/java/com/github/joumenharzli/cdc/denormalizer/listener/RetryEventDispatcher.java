@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.RetryTopics;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.BatchConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.SeekToCurrentBatchErrorHandler;
+import org.springframework.kafka.listener.config.ContainerProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static org.springframework.kafka.listener.AbstractMessageListenerContainer.AckMode.MANUAL;
+
+/**
+ * Dispatcher of the records of the retry topics
+ * <p>
+ * Each tier has its own consumer that waits until the delay of the tier has elapsed since the records were sent
+ * before handling them, so a long delay never holds the records of the other tiers. The records of all the tiers
+ * share a rate limit so the retries do not starve the debezium topics.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class RetryEventDispatcher implements SmartLifecycle {
+
+  private final ConsumerFactory<String, DebeziumEvent> retryConsumerFactory;
+  private final EventProcessor eventProcessor;
+  private final ParkingBuffer parkingBuffer;
+  private final RetryTopics retryTopics;
+  private final RateLimiter rateLimiter;
+
+  private final List<ConcurrentMessageListenerContainer<String, DebeziumEvent>> containers = Lists.newArrayList();
+
+  private final boolean autoStartup;
+
+  private volatile boolean running;
+
+  public RetryEventDispatcher(ConsumerFactory<String, DebeziumEvent> retryConsumerFactory,
+                              EventProcessor eventProcessor,
+                              ParkingBuffer parkingBuffer,
+                              RetryTopics retryTopics,
+                              @Value("${application.kafka.retry.permitsPerSecond}") double permitsPerSecond,
+                              @Value("${application.denormalizer.rebuild.enabled}") boolean rebuildEnabled) {
+    this.retryConsumerFactory = retryConsumerFactory;
+    this.eventProcessor = eventProcessor;
+    this.parkingBuffer = parkingBuffer;
+    this.retryTopics = retryTopics;
+    this.rateLimiter = RateLimiter.create(permitsPerSecond);
+    // the rebuild starts the consumers once the index is rebuilt
+    this.autoStartup = !rebuildEnabled;
+  }
+
+  @Override
+  public synchronized void start() {
+    LOGGER.debug("Starting the consumers of {} retry tiers", retryTopics.getTiers());
+
+    for (int tier = 1; tier <= retryTopics.getTiers(); tier++) {
+      int currentTier = tier;
+
+      ContainerProperties containerProperties = new ContainerProperties(retryTopics.getRetryPattern(tier));
+      containerProperties.setAckMode(MANUAL);
+      containerProperties.setBatchErrorHandler(new SeekToCurrentBatchErrorHandler());
+      containerProperties.setAckOnError(false);
+      containerProperties.setConsumerRebalanceListener(parkingBuffer);
+      containerProperties.setMessageListener((BatchConsumerAwareMessageListener<String, DebeziumEvent>)
+                                                 (records, consumer) -> handleEvents(records, consumer, currentTier));
+
+      ConcurrentMessageListenerContainer<String, DebeziumEvent> container =
+          new ConcurrentMessageListenerContainer<>(retryConsumerFactory, containerProperties);
+      container.setBeanName("retry-" + tier);
+      container.start();
+
+      containers.add(container);
+    }
+
+    running = true;
+  }
+
+  @Override
+  public synchronized void stop() {
+    LOGGER.debug("Stopping the consumers of the retry tiers");
+
+    containers.forEach(ConcurrentMessageListenerContainer::stop);
+    containers.clear();
+
+    running = false;
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return autoStartup;
+  }
+
+  @Override
+  public int getPhase() {
+    return Integer.MAX_VALUE;
+  }
+
+  private void handleEvents(List<ConsumerRecord<String, DebeziumEvent>> records, Consumer<?, ?> consumer,
+                            int tier) {
+
+    LOGGER.debug("Request to retry {} records of the tier {}", records.size(), tier);
+
+    if (records.isEmpty() || !awaitDelay(records, tier)) {
+      return;
+    }
+
+    rateLimiter.acquire(records.size());
+
+    eventProcessor.process(records);
+
+    consumer.commitSync(parkingBuffer.getCommittableOffsets(records));
+  }
+
+  /**
+   * Wait until the delay of the tier has elapsed for the most recent record
+   *
+   * @return false if the thread was interrupted while waiting
+   */
+  private boolean awaitDelay(List<ConsumerRecord<String, DebeziumEvent>> records, int tier) {
+    long lastTimestamp = records.stream().mapToLong(ConsumerRecord::timestamp).max().orElse(0L);
+    long waitMillis = lastTimestamp + retryTopics.getDelay(tier).toMillis() - System.currentTimeMillis();
+
+    if (waitMillis > 0) {
+      LOGGER.debug("Waiting {} ms before retrying the records of the tier {}", waitMillis, tier);
+
+      try {
+        Thread.sleep(waitMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.FailedRecord;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.RetryTopics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Sends the failed records to the retry topic of the next tier or to the dead letter topic after the last tier
+ * <p>
+ * The records keep the topic, the partition and the offset where they were first consumed and carry the cause
+ * of their last failure in their headers. The number of attempts in the headers gives the tier where a record has
+ * failed, so the records that were parked keep their place in the retries.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RetryPublisher {
+
+  public static final String ORIGINAL_TOPIC_HEADER = "x-original-topic";
+  public static final String ORIGINAL_PARTITION_HEADER = "x-original-partition";
+  public static final String ORIGINAL_OFFSET_HEADER = "x-original-offset";
+  public static final String ATTEMPTS_HEADER = "x-attempts";
+  public static final String EXCEPTION_CLASS_HEADER = "x-exception-class";
+  public static final String EXCEPTION_MESSAGE_HEADER = "x-exception-message";
+
+  private final KafkaTemplate<String, DebeziumEvent> retryKafkaTemplate;
+  private final RetryTopics retryTopics;
+
+  /**
+   * Send the failed records to the tier that follows the one where they were consumed and wait until they are
+   * acknowledged by the brokers
+   *
+   * @param failures the failed records
+   * @throws KafkaException if a record could not be sent
+   */
+  public void publish(List<FailedRecord> failures) {
+    if (failures.isEmpty()) {
+      return;
+    }
+
+    LOGGER.debug("Request to send {} failed records", failures.size());
+
+    //@formatter:off
+    List<ListenableFuture<SendResult<String, DebeziumEvent>>> futures = failures.stream()
+                                                                                .map(this::send)
+                                                                                .collect(Collectors.toList());
+    //@formatter:on
+
+    futures.forEach(this::await);
+  }
+
+  /**
+   * @param record consumed record
+   * @return the debezium topic of the record
+   */
+  public static String getOriginalTopic(ConsumerRecord<String, DebeziumEvent> record) {
+    return StringUtils.defaultIfEmpty(getHeader(record.headers(), ORIGINAL_TOPIC_HEADER), record.topic());
+  }
+
+  /**
+   * @param record consumed record
+   * @return the tier of the retry topic where the record was consumed, 0 for the debezium topics
+   */
+  public static int getTier(ConsumerRecord<String, DebeziumEvent> record) {
+    String attempts = getHeader(record.headers(), ATTEMPTS_HEADER);
+    return StringUtils.isNumeric(attempts) && StringUtils.isNotEmpty(attempts) ? Integer.parseInt(attempts) : 0;
+  }
+
+  private ListenableFuture<SendResult<String, DebeziumEvent>> send(FailedRecord failure) {
+    ConsumerRecord<String, DebeziumEvent> record = failure.getRecord();
+    String originalTopic = getOriginalTopic(record);
+    int tier = getTier(record);
+
+    String topic = tier < retryTopics.getTiers() ?
+                   retryTopics.getRetryTopic(tier + 1, originalTopic) :
+                   retryTopics.getDeadLetterTopic(originalTopic);
+
+    if (tier < retryTopics.getTiers()) {
+      LOGGER.info("Sending the record at offset {} of the topic {} to {}", record.offset(), record.topic(), topic);
+    } else {
+      LOGGER.error("Sending the record at offset {} of the topic {} to the dead letter topic {}", record.offset(),
+                   record.topic(), topic, failure.getCause());
+    }
+
+    Headers headers = new RecordHeaders();
+    addHeader(headers, ORIGINAL_TOPIC_HEADER, originalTopic);
+    addHeader(headers, ORIGINAL_PARTITION_HEADER,
+              StringUtils.defaultIfEmpty(getHeader(record.headers(), ORIGINAL_PARTITION_HEADER),
+                                         String.valueOf(record.partition())));
+    addHeader(headers, ORIGINAL_OFFSET_HEADER,
+              StringUtils.defaultIfEmpty(getHeader(record.headers(), ORIGINAL_OFFSET_HEADER),
+                                         String.valueOf(record.offset())));
+    addHeader(headers, ATTEMPTS_HEADER, String.valueOf(tier + 1));
+    addHeader(headers, EXCEPTION_CLASS_HEADER, failure.getCause().getClass().getName());
+    addHeader(headers, EXCEPTION_MESSAGE_HEADER, StringUtils.defaultString(failure.getCause().getMessage()));
+
+    return retryKafkaTemplate.send(new ProducerRecord<>(topic, null, record.key(), record.value(), headers));
+  }
+
+  private void await(ListenableFuture<SendResult<String, DebeziumEvent>> future) {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KafkaException("Interrupted while sending the failed records", e);
+    } catch (ExecutionException e) {
+      throw new KafkaException("Failed to send the failed records", e.getCause());
+    }
+  }
+
+  private static String getHeader(Headers headers, String key) {
+    Header header = headers.lastHeader(key);
+    return Objects.isNull(header) ? null : new String(header.value(), StandardCharsets.UTF_8);
+  }
+
+  private static void addHeader(Headers headers, String key, String value) {
+    headers.add(key, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.FailedRecord;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserRepository;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserSnapshotBatch;
+import com.github.joumenharzli.cdc.denormalizer.service.UserSnapshotService;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Snapshot Loader
+ * <p>
+ * The rows read by the connector during its initial snapshot are loaded apart from the live changes: the rows
+ * of each batch are merged into the aggregates of their users in memory and each aggregate is written once,
+ * without reading the documents nor versioning them.
+ * <p>
+ * When the application starts without an index, a fresh index is created behind the alias of the users with its
+ * replicas and its refresh disabled, and the snapshot is loaded into it. The configured settings are restored once
+ * every partition that has delivered snapshot rows has passed the end of the snapshot: a live change consumed after
+ * its rows, the last row of the snapshot, or no record for a while once the connector has ended the snapshot.
+ * <p>
+ * An index that already exists is serving searches, so the rows are loaded into it in place and its settings are
+ * never changed. Loading them into another index then moving the alias would lose the live changes written to the
+ * serving index while the other partitions are still loading.
+ * <p>
+ * The snapshot rows that come back from the retry topics are handled as live changes.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class SnapshotLoader {
+
+  private static final String SNAPSHOT_FIELD = "snapshot";
+  private static final String LAST_SNAPSHOT_RECORD = "last";
+
+  private static final int LOADING_REPLICAS = 0;
+  private static final String LOADING_REFRESH_INTERVAL = "-1";
+
+  private final EventHandlerFactory handlerFactory;
+  private final UserSnapshotService userSnapshotService;
+  private final UserRepository userRepository;
+  private final FreshnessRecorder freshnessRecorder;
+  private final ChangePublisher changePublisher;
+
+  private final boolean enabled;
+  private final int numberOfReplicas;
+  private final String refreshInterval;
+  private final long idleMillis;
+
+  // time of the last snapshot row of each partition that has not passed the end of the snapshot
+  private final Map<TopicPartition, Long> loadingPartitions = Maps.newHashMap();
+  private final Set<TopicPartition> loadedPartitions = Sets.newHashSet();
+  private boolean snapshotEnded;
+
+  private volatile boolean loading;
+
+  public SnapshotLoader(EventHandlerFactory handlerFactory,
+                        UserSnapshotService userSnapshotService,
+                        UserRepository userRepository,
+                        FreshnessRecorder freshnessRecorder,
+                        ChangePublisher changePublisher,
+                        @Value("${application.denormalizer.snapshot.enabled}") boolean enabled,
+                        @Value("${application.denormalizer.snapshot.numberOfReplicas}") int numberOfReplicas,
+                        @Value("${application.denormalizer.snapshot.refreshInterval}") String refreshInterval,
+                        @Value("${application.denormalizer.snapshot.idleMillis}") long idleMillis) {
+    this.handlerFactory = handlerFactory;
+    this.userSnapshotService = userSnapshotService;
+    this.userRepository = userRepository;
+    this.freshnessRecorder = freshnessRecorder;
+    this.changePublisher = changePublisher;
+    this.enabled = enabled;
+    this.numberOfReplicas = numberOfReplicas;
+    this.refreshInterval = refreshInterval;
+    this.idleMillis = idleMillis;
+  }
+
+  /**
+   * Create the index if it is missing, with the settings of the loading when the snapshot is enabled
+   */
+  @PostConstruct
+  public synchronized void init() {
+    if (!enabled) {
+      userRepository.createIndexIfMissing(numberOfReplicas, refreshInterval);
+      return;
+    }
+
+    if (userRepository.createIndexIfMissing(LOADING_REPLICAS, LOADING_REFRESH_INTERVAL)) {
+      LOGGER.info("Loading the snapshot of the connector in a new index");
+      loading = true;
+    } else {
+      LOGGER.info("Loading the snapshot of the connector in the existing index");
+    }
+  }
+
+  /**
+   * @param record consumed record
+   * @return true if the record is a row read during the snapshot, that was not retried, and the snapshot loading
+   * is enabled
+   */
+  public boolean isSnapshot(ConsumerRecord<String, DebeziumEvent> record) {
+    DebeziumEvent.DebeziumEventPayload payload = record.value().getPayload();
+
+    return enabled &&
+           RetryPublisher.getTier(record) == 0 &&
+           payload.getOperation() == DebeziumEvent.DebeziumEventPayloadOperation.READ &&
+           isSnapshotSource(payload.getSource());
+  }
+
+  /**
+   * @return true while the index has the settings of the snapshot loading
+   */
+  public boolean isLoading() {
+    return loading;
+  }
+
+  /**
+   * Load the rows read during the snapshot
+   *
+   * @param records the snapshot records
+   * @return the records of the users whose aggregates could not be built or written
+   */
+  public List<FailedRecord> load(List<ConsumerRecord<String, DebeziumEvent>> records) {
+    LOGGER.debug("Request to load {} snapshot records", records.size());
+
+    List<FailedRecord> failures = Lists.newArrayList();
+
+    if (records.isEmpty()) {
+      return failures;
+    }
+
+    UserSnapshotBatch batch = new UserSnapshotBatch();
+    Map<String, List<ConsumerRecord<String, DebeziumEvent>>> loadedRecords = Maps.newHashMap();
+
+    for (ConsumerRecord<String, DebeziumEvent> record : records) {
+      EventHandler handler = handlerFactory.getHandler(record.topic());
+
+      try {
+        handler.load(record.value(), batch);
+
+        String userId = handler.getUserId(record.value());
+        if (StringUtils.isNotEmpty(userId)) {
+          loadedRecords.computeIfAbsent(userId, id -> Lists.newArrayList()).add(record);
+        }
+      } catch (RuntimeException e) {
+        LOGGER.warn("Failed to load the snapshot record at offset {} of the topic {}", record.offset(),
+                    record.topic(), e);
+        failures.add(new FailedRecord(record, e));
+      }
+    }
+
+    try {
+      userSnapshotService.flush(batch);
+      loadedRecords.values().forEach(freshnessRecorder::recordApplied);
+      changePublisher.publish(loadedRecords.keySet());
+    } catch (ElasticsearchException e) {
+      if (Objects.isNull(e.getFailedDocuments()) || e.getFailedDocuments().isEmpty()) {
+        throw e;
+      }
+
+      LOGGER.warn("Failed to load the documents {}", e.getFailedDocuments().keySet(), e);
+
+      e.getFailedDocuments().keySet().stream()
+       .map(loadedRecords::get)
+       .filter(Objects::nonNull)
+       .forEach(userRecords -> userRecords.forEach(record -> failures.add(new FailedRecord(record, e))));
+
+      loadedRecords.entrySet().stream()
+                   .filter(entry -> !e.getFailedDocuments().containsKey(entry.getKey()))
+                   .forEach(entry -> freshnessRecorder.recordApplied(entry.getValue()));
+
+      changePublisher.publish(Sets.difference(loadedRecords.keySet(), e.getFailedDocuments().keySet()));
+    }
+
+    return failures;
+  }
+
+  /**
+   * Follow the progress of the partitions through the snapshot and restore the settings of the index once every
+   * partition has passed its end
+   *
+   * @param records consumed records, with the snapshot rows and the live changes
+   */
+  public synchronized void track(List<ConsumerRecord<String, DebeziumEvent>> records) {
+    if (!loading) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+
+    for (ConsumerRecord<String, DebeziumEvent> record : records) {
+      // the retried records are not in the order of their partition
+      if (RetryPublisher.getTier(record) > 0) {
+        continue;
+      }
+
+      TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+
+      if (isLastSnapshotRecord(record) || !isSnapshot(record)) {
+        // the connector only streams the live changes once the snapshot has ended
+        snapshotEnded = true;
+        loadingPartitions.remove(partition);
+        loadedPartitions.add(partition);
+      } else if (!loadedPartitions.contains(partition)) {
+        loadingPartitions.put(partition, now);
+      }
+    }
+
+    completeIfLoaded();
+  }
+
+  /**
+   * Consider that a partition without any record for a while has passed the end of the snapshot, once the
+   * connector has ended it
+   */
+  @Scheduled(fixedDelayString = "${application.denormalizer.snapshot.idleMillis}")
+  public synchronized void completeIdlePartitions() {
+    if (!loading || !snapshotEnded) {
+      return;
+    }
+
+    long idleSince = System.currentTimeMillis() - idleMillis;
+    loadingPartitions.entrySet().removeIf(partition -> partition.getValue() < idleSince);
+
+    completeIfLoaded();
+  }
+
+  /**
+   * Restore the settings of the index if the snapshot was loading and every partition has passed its end
+   */
+  private void completeIfLoaded() {
+    if (!snapshotEnded || !loadingPartitions.isEmpty()) {
+      return;
+    }
+
+    LOGGER.info("The snapshot was loaded, restoring the settings of the index");
+
+    userRepository.updateIndexSettings(numberOfReplicas, refreshInterval);
+    loading = false;
+    loadedPartitions.clear();
+  }
+
+  private boolean isLastSnapshotRecord(ConsumerRecord<String, DebeziumEvent> record) {
+    Map<String, Object> source = record.value().getPayload().getSource();
+    return Objects.nonNull(source) && LAST_SNAPSHOT_RECORD.equals(String.valueOf(source.get(SNAPSHOT_FIELD)));
+  }
+
+  /**
+   * The connectors mark the snapshot rows with {@code true} and the last one with {@code last} in newer versions
+   */
+  private boolean isSnapshotSource(Map<String, Object> source) {
+    if (Objects.isNull(source) || Objects.isNull(source.get(SNAPSHOT_FIELD))) {
+      return false;
+    }
+
+    String snapshot = String.valueOf(source.get(SNAPSHOT_FIELD));
+    return Boolean.parseBoolean(snapshot) || LAST_SNAPSHOT_RECORD.equals(snapshot);
+  }
+
+}
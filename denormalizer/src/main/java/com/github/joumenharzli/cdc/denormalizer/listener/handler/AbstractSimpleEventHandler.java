@@ -1,50 +1,116 @@
 package com.github.joumenharzli.cdc.denormalizer.listener.handler;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.BinlogPosition;
 import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserSnapshotBatch;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserWriteBatch;
 import com.google.common.collect.Maps;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
 import org.springframework.core.GenericTypeResolver;
 
 import java.util.Map;
 import java.util.Objects;
-import java.util.function.BiConsumer;
 
 /**
  * A simple generic event handler
+ * <p>
+ * The states of the entity are used as is when the event was decoded with the type of the handler,
+ * otherwise they are converted from the columns.
+ * <p>
+ * The binlog position of each event is recorded in the batch as a version of the document of the user.
  *
  * @author Joumen Harzli
  */
-@RequiredArgsConstructor
 @Slf4j
 public abstract class AbstractSimpleEventHandler<T> {
 
-  protected final Map<DebeziumEvent.DebeziumEventPayloadOperation, BiConsumer<T, T>> actions = Maps.newConcurrentMap();
+  protected final Map<DebeziumEvent.DebeziumEventPayloadOperation, EventAction<T>> actions = Maps.newConcurrentMap();
 
   private final ObjectMapper mapper;
+  private final Class<T> entityClass;
+
+  @SuppressWarnings("unchecked")
+  protected AbstractSimpleEventHandler(ObjectMapper mapper) {
+    this.mapper = mapper;
+    this.entityClass = (Class<T>) GenericTypeResolver.resolveTypeArgument(getClass(), AbstractSimpleEventHandler.class);
+
+    if (Objects.isNull(entityClass)){
+      throw new IllegalArgumentException("AbstractSimpleEventHandler should have a type a argument");
+    }
+  }
 
   public abstract void initActions();
 
-  @SuppressWarnings("unchecked")
-  public void process(DebeziumEvent event) {
+  /**
+   * @param entity state of the entity
+   * @return id of the user that owns the entity
+   */
+  protected abstract String extractUserId(T entity);
+
+  /**
+   * Add a row read during the snapshot to the aggregate of its user
+   *
+   * @param batch  the aggregates of the users
+   * @param entity state of the entity
+   */
+  protected abstract void loadEntity(UserSnapshotBatch batch, T entity);
+
+  public Class<T> getEntityClass() {
+    return entityClass;
+  }
+
+  public String getUserId(DebeziumEvent event) {
+    DebeziumEvent.DebeziumEventPayload payload = event.getPayload();
+
+    Object state = Objects.nonNull(payload.getAfter()) ? payload.getAfter() : payload.getBefore();
+
+    return extractUserId(toEntity(state));
+  }
+
+  public void process(DebeziumEvent event, UserWriteBatch batch) {
     DebeziumEvent.DebeziumEventPayload payload = event.getPayload();
 
     DebeziumEvent.DebeziumEventPayloadOperation operation = payload.getOperation();
-    Map<String, Object> payloadBefore = payload.getBefore();
-    Map<String, Object> payloadAfter = payload.getAfter();
+    Object payloadBefore = payload.getBefore();
+    Object payloadAfter = payload.getAfter();
 
     LOGGER.debug("Request to handle {} event with payload that was {} and become {}", operation, payloadBefore, payloadAfter);
 
-    Class<T> entityClass = (Class<T>) GenericTypeResolver.resolveTypeArgument(getClass(), AbstractSimpleEventHandler.class);
+    T before = toEntity(payloadBefore);
+    T after = toEntity(payloadAfter);
 
-    if (Objects.isNull(entityClass)){
-      throw new IllegalArgumentException("AbstractSimpleEventHandler should have a type a argument");
+    actions.get(operation).apply(batch, before, after);
+
+    String userId = extractUserId(Objects.nonNull(after) ? after : before);
+
+    if (StringUtils.isNotEmpty(userId)) {
+      BinlogPosition.fromSource(payload.getSource())
+          .ifPresent(position -> batch.recordVersion(userId, position.toVersion()));
     }
+  }
+
+  public void load(DebeziumEvent event, UserSnapshotBatch batch) {
+    Object payloadAfter = event.getPayload().getAfter();
 
-    T before = mapper.convertValue(payloadBefore, entityClass);
-    T after = mapper.convertValue(payloadAfter, entityClass);
+    LOGGER.debug("Request to load snapshot event with payload {}", payloadAfter);
+
+    loadEntity(batch, toEntity(payloadAfter));
+  }
+
+  private T toEntity(Object state) {
+    if (entityClass.isInstance(state)) {
+      return entityClass.cast(state);
+    }
+    return mapper.convertValue(state, entityClass);
+  }
 
-    actions.get(operation).accept(before, after);
+  /**
+   * Action applied for an operation with the state of the entity before and after the event
+   */
+  @FunctionalInterface
+  protected interface EventAction<T> {
+    void apply(UserWriteBatch batch, T before, T after);
   }
 }
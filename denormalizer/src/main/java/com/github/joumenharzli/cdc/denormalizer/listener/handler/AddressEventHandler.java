@@ -18,7 +18,9 @@ package com.github.joumenharzli.cdc.denormalizer.listener.handler;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.joumenharzli.cdc.denormalizer.listener.EventHandler;
 import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent.DebeziumEventPayloadOperation;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserSnapshotBatch;
 import com.github.joumenharzli.cdc.denormalizer.service.UserService;
+import com.github.joumenharzli.cdc.denormalizer.service.UserSnapshotService;
 import com.github.joumenharzli.cdc.denormalizer.service.dto.AddressDto;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -35,10 +37,12 @@ import javax.annotation.PostConstruct;
 public class AddressEventHandler extends AbstractSimpleEventHandler<AddressDto> implements EventHandler {
 
   private final UserService userService;
+  private final UserSnapshotService userSnapshotService;
 
-  public AddressEventHandler(ObjectMapper mapper, UserService userService) {
+  public AddressEventHandler(ObjectMapper mapper, UserService userService, UserSnapshotService userSnapshotService) {
     super(mapper);
     this.userService = userService;
+    this.userSnapshotService = userSnapshotService;
   }
 
   @PostConstruct
@@ -48,9 +52,20 @@ public class AddressEventHandler extends AbstractSimpleEventHandler<AddressDto>
 
   @Override
   public void initActions() {
-    actions.put(DebeziumEventPayloadOperation.CREATE, (before, after) -> userService.saveUserAddress(after));
-    actions.put(DebeziumEventPayloadOperation.UPDATE, (before, after) -> userService.saveUserAddress(after));
-    actions.put(DebeziumEventPayloadOperation.DELETE, (before, after) -> userService.deleteUserAddress(before));
+    actions.put(DebeziumEventPayloadOperation.CREATE, (batch, before, after) -> userService.saveUserAddress(batch, after));
+    actions.put(DebeziumEventPayloadOperation.UPDATE, (batch, before, after) -> userService.saveUserAddress(batch, after));
+    actions.put(DebeziumEventPayloadOperation.READ, (batch, before, after) -> userService.saveUserAddress(batch, after));
+    actions.put(DebeziumEventPayloadOperation.DELETE, (batch, before, after) -> userService.deleteUserAddress(batch, before));
+  }
+
+  @Override
+  protected void loadEntity(UserSnapshotBatch batch, AddressDto entity) {
+    userSnapshotService.loadUserAddress(batch, entity);
+  }
+
+  @Override
+  protected String extractUserId(AddressDto entity) {
+    return entity.getUserId();
   }
 
 }
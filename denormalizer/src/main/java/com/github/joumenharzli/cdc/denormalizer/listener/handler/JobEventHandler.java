@@ -18,7 +18,9 @@ package com.github.joumenharzli.cdc.denormalizer.listener.handler;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.joumenharzli.cdc.denormalizer.listener.EventHandler;
 import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent.DebeziumEventPayloadOperation;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserSnapshotBatch;
 import com.github.joumenharzli.cdc.denormalizer.service.UserService;
+import com.github.joumenharzli.cdc.denormalizer.service.UserSnapshotService;
 import com.github.joumenharzli.cdc.denormalizer.service.dto.JobDto;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -35,10 +37,12 @@ import javax.annotation.PostConstruct;
 public class JobEventHandler extends AbstractSimpleEventHandler<JobDto> implements EventHandler {
 
   private final UserService userService;
+  private final UserSnapshotService userSnapshotService;
 
-  public JobEventHandler(ObjectMapper mapper, UserService userService) {
+  public JobEventHandler(ObjectMapper mapper, UserService userService, UserSnapshotService userSnapshotService) {
     super(mapper);
     this.userService = userService;
+    this.userSnapshotService = userSnapshotService;
   }
 
   @PostConstruct
@@ -48,9 +52,20 @@ public class JobEventHandler extends AbstractSimpleEventHandler<JobDto> implemen
 
   @Override
   public void initActions() {
-    actions.put(DebeziumEventPayloadOperation.CREATE, (before, after) -> userService.saveUserJob(after));
-    actions.put(DebeziumEventPayloadOperation.UPDATE, (before, after) -> userService.saveUserJob(after));
-    actions.put(DebeziumEventPayloadOperation.DELETE, (before, after) -> userService.deleteUserJob(before));
+    actions.put(DebeziumEventPayloadOperation.CREATE, (batch, before, after) -> userService.saveUserJob(batch, after));
+    actions.put(DebeziumEventPayloadOperation.UPDATE, (batch, before, after) -> userService.saveUserJob(batch, after));
+    actions.put(DebeziumEventPayloadOperation.READ, (batch, before, after) -> userService.saveUserJob(batch, after));
+    actions.put(DebeziumEventPayloadOperation.DELETE, (batch, before, after) -> userService.deleteUserJob(batch, before));
+  }
+
+  @Override
+  protected void loadEntity(UserSnapshotBatch batch, JobDto entity) {
+    userSnapshotService.loadUserJob(batch, entity);
+  }
+
+  @Override
+  protected String extractUserId(JobDto entity) {
+    return entity.getUserId();
   }
 
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.util.Assert;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Consumer factory that reads the maximum number of records of a poll when a consumer is created
+ * <p>
+ * The consumers of a container use the new value once the container is restarted.
+ *
+ * @author Joumen Harzli
+ */
+public class AdaptiveConsumerFactory<K, V> extends DefaultKafkaConsumerFactory<K, V> {
+
+  private final IntSupplier maxPollRecords;
+
+  public AdaptiveConsumerFactory(Map<String, Object> configs, Deserializer<K> keyDeserializer,
+                                 Deserializer<V> valueDeserializer, IntSupplier maxPollRecords) {
+    super(configs, keyDeserializer, valueDeserializer);
+
+    Assert.notNull(maxPollRecords, "Max poll records cannot be null");
+
+    this.maxPollRecords = maxPollRecords;
+  }
+
+  @Override
+  protected KafkaConsumer<K, V> createKafkaConsumer(Map<String, Object> configs) {
+    Map<String, Object> adaptedConfigs = new HashMap<>(configs);
+    adaptedConfigs.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(maxPollRecords.getAsInt()));
+    return super.createKafkaConsumer(adaptedConfigs);
+  }
+
+}
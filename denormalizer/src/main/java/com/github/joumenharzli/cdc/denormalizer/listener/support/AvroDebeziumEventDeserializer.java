@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.joumenharzli.cdc.denormalizer.listener.EventHandlerFactory;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Deserializer of the debezium events written with the avro converter
+ * <p>
+ * The events use the schema registry wire format: a magic byte, the id of the writer schema on four bytes
+ * then the avro binary encoding of the envelope. The before/after states are bound to the type of the handler
+ * of the topic.
+ *
+ * @author Joumen Harzli
+ */
+@Slf4j
+public class AvroDebeziumEventDeserializer implements Deserializer<DebeziumEvent> {
+
+  private static final byte MAGIC_BYTE = 0x0;
+
+  private final ObjectMapper mapper;
+  private final EventHandlerFactory handlerFactory;
+  private final SchemaRegistry schemaRegistry;
+
+  private final Map<Integer, DatumReader<GenericRecord>> readers = Maps.newConcurrentMap();
+  private final Map<Class<?>, Map<Schema, AvroRecordBinder>> binders = Maps.newConcurrentMap();
+
+  /**
+   * The decoders are reused to avoid allocating their buffers, the deserializer is shared by many consumers
+   */
+  private final ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>();
+
+  public AvroDebeziumEventDeserializer(ObjectMapper mapper, EventHandlerFactory handlerFactory,
+                                       SchemaRegistry schemaRegistry) {
+    Assert.notNull(mapper, "Object mapper cannot be null");
+    Assert.notNull(handlerFactory, "Handler factory cannot be null");
+    Assert.notNull(schemaRegistry, "Schema registry cannot be null");
+
+    this.mapper = mapper;
+    this.handlerFactory = handlerFactory;
+    this.schemaRegistry = schemaRegistry;
+  }
+
+  @Override
+  public void configure(Map<String, ?> configs, boolean isKey) {
+    // nothing to configure
+  }
+
+  @Override
+  public DebeziumEvent deserialize(String topic, byte[] data) {
+    if (Objects.isNull(data)) {
+      LOGGER.debug("Received a tombstone from the topic {}", topic);
+      return null;
+    }
+
+    Class<?> entityClass = handlerFactory.getHandler(topic).getEntityClass();
+
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    if (buffer.remaining() < 5 || buffer.get() != MAGIC_BYTE) {
+      throw new SerializationException("Unknown magic byte in the event from the topic " + topic);
+    }
+    int schemaId = buffer.getInt();
+
+    try {
+      BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, buffer.position(), buffer.remaining(),
+                                                                 decoders.get());
+      decoders.set(decoder);
+      GenericRecord envelope = getReader(schemaId).read(null, decoder);
+
+      DebeziumEvent.DebeziumEventPayload payload = new DebeziumEvent.DebeziumEventPayload();
+      payload.setBefore(bind((GenericRecord) envelope.get("before"), entityClass));
+      payload.setAfter(bind((GenericRecord) envelope.get("after"), entityClass));
+      payload.setSource(toMap((GenericRecord) envelope.get("source")));
+      payload.setOperation(DebeziumEvent.DebeziumEventPayloadOperation.fromValue(String.valueOf(envelope.get("op"))));
+
+      Object date = envelope.get("ts_ms");
+      payload.setDate(Objects.isNull(date) ? null : new Date((Long) date));
+
+      DebeziumEvent event = new DebeziumEvent();
+      event.setPayload(payload);
+      return event;
+
+    } catch (IOException | RuntimeException e) {
+      throw new SerializationException("Failed to deserialize the event with the schema " + schemaId +
+                                       " from the topic " + topic, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    // nothing to close
+  }
+
+  private DatumReader<GenericRecord> getReader(int schemaId) {
+    return readers.computeIfAbsent(schemaId, id -> new GenericDatumReader<>(schemaRegistry.getSchema(id)));
+  }
+
+  private Object bind(GenericRecord record, Class<?> entityClass) {
+    if (Objects.isNull(record)) {
+      return null;
+    }
+
+    //@formatter:off
+    return binders.computeIfAbsent(entityClass, type -> Maps.newConcurrentMap())
+                  .computeIfAbsent(record.getSchema(), schema -> new AvroRecordBinder(mapper, schema, entityClass))
+                  .bind(record);
+    //@formatter:on
+  }
+
+  private Map<String, Object> toMap(GenericRecord record) {
+    if (Objects.isNull(record)) {
+      return null;
+    }
+
+    Map<String, Object> values = Maps.newLinkedHashMap();
+    record.getSchema().getFields().forEach(field -> {
+      Object value = record.get(field.pos());
+      values.put(field.name(), value instanceof CharSequence ? value.toString() : value);
+    });
+    return values;
+  }
+
+}
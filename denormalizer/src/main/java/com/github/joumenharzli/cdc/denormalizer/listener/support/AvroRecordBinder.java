@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Binds the avro records written with a schema to a dto
+ * <p>
+ * The properties of the dto are matched once with the fields of the writer schema using their json names,
+ * then each record is bound by position without building an intermediate map.
+ *
+ * @author Joumen Harzli
+ */
+public class AvroRecordBinder {
+
+  private final ObjectMapper mapper;
+  private final BeanDescription description;
+  private final BeanPropertyDefinition[] properties;
+
+  public AvroRecordBinder(ObjectMapper mapper, Schema schema, Class<?> type) {
+    this.mapper = mapper;
+    this.description = mapper.getDeserializationConfig().introspect(mapper.constructType(type));
+
+    Map<String, BeanPropertyDefinition> propertiesByName = description.findProperties()
+        .stream()
+        .filter(property -> Objects.nonNull(property.getMutator()))
+        .collect(Collectors.toMap(BeanPropertyDefinition::getName, Function.identity()));
+
+    List<Schema.Field> fields = schema.getFields();
+    this.properties = new BeanPropertyDefinition[fields.size()];
+    fields.forEach(field -> properties[field.pos()] = propertiesByName.get(field.name()));
+  }
+
+  /**
+   * @param record record written with the schema of the binder
+   * @return a new dto with the values of the record
+   */
+  public Object bind(GenericRecord record) {
+    Object bean = description.instantiateBean(false);
+
+    for (int pos = 0; pos < properties.length; pos++) {
+      BeanPropertyDefinition property = properties[pos];
+      Object value = record.get(pos);
+
+      if (Objects.nonNull(property) && Objects.nonNull(value)) {
+        property.getMutator().setValue(bean, convert(value, property.getRawPrimaryType()));
+      }
+    }
+
+    return bean;
+  }
+
+  private Object convert(Object value, Class<?> type) {
+    Object converted = value instanceof CharSequence ? value.toString() : value;
+
+    if (type.isInstance(converted)) {
+      return converted;
+    }
+    return mapper.convertValue(converted, type);
+  }
+
+}
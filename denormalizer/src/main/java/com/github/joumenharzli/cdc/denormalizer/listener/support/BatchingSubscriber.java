@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Subscription;
+import org.springframework.util.Assert;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Subscriber that handles the items of a publisher by batches without ever requesting more items than a batch.
+ * <p>
+ * The items in the buffer, in the batch being handled and still requested never exceed the size of a batch:
+ * the items of a batch are only requested again once the batch is handled, so the publisher stops emitting
+ * while the handler is slow. A batch is handled once it is full or once its first item is older than the timeout.
+ * <p>
+ * The batches are handled one at a time on the given executor, which should have a single thread.
+ *
+ * @param <T> type of the items
+ * @author Joumen Harzli
+ */
+@Slf4j
+public class BatchingSubscriber<T> extends BaseSubscriber<T> {
+
+  private final int batchSize;
+  private final Duration batchTimeout;
+  private final ScheduledExecutorService executor;
+  private final Consumer<List<T>> handler;
+  private final Consumer<Throwable> errorHandler;
+
+  private List<T> batch = new ArrayList<>();
+  private ScheduledFuture<?> timeout;
+  private volatile boolean cancelled;
+
+  /**
+   * @param batchSize    maximum number of items of a batch
+   * @param batchTimeout maximum time to wait for a batch to be full
+   * @param executor     single thread executor that handles the batches
+   * @param handler      handler of a batch
+   * @param errorHandler called once the publisher or the handler has failed and the subscription is cancelled
+   */
+  public BatchingSubscriber(int batchSize, Duration batchTimeout, ScheduledExecutorService executor,
+                            Consumer<List<T>> handler, Consumer<Throwable> errorHandler) {
+    Assert.isTrue(batchSize > 0, "Batch size should be positive");
+    Assert.notNull(batchTimeout, "Batch timeout cannot be null");
+    Assert.notNull(executor, "Executor cannot be null");
+    Assert.notNull(handler, "Handler cannot be null");
+    Assert.notNull(errorHandler, "Error handler cannot be null");
+
+    this.batchSize = batchSize;
+    this.batchTimeout = batchTimeout;
+    this.executor = executor;
+    this.handler = handler;
+    this.errorHandler = errorHandler;
+  }
+
+  @Override
+  protected void hookOnSubscribe(Subscription subscription) {
+    request(batchSize);
+  }
+
+  @Override
+  protected synchronized void hookOnNext(T item) {
+    if (cancelled) {
+      return;
+    }
+
+    batch.add(item);
+
+    if (batch.size() >= batchSize) {
+      cancelTimeout();
+      executor.execute(this::flush);
+    } else if (batch.size() == 1) {
+      timeout = executor.schedule(this::flush, batchTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  protected void hookOnComplete() {
+    executor.execute(this::flush);
+  }
+
+  @Override
+  protected void hookOnError(Throwable throwable) {
+    errorHandler.accept(throwable);
+  }
+
+  @Override
+  protected void hookOnCancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Handle the items of the buffer then request as many items as were handled
+   */
+  private void flush() {
+    List<T> items;
+    synchronized (this) {
+      cancelTimeout();
+      if (cancelled || batch.isEmpty()) {
+        return;
+      }
+      items = batch;
+      batch = new ArrayList<>();
+    }
+
+    LOGGER.debug("Request to handle a batch of {} items", items.size());
+
+    try {
+      handler.accept(items);
+    } catch (RuntimeException e) {
+      dispose();
+      errorHandler.accept(e);
+      return;
+    }
+
+    request(items.size());
+  }
+
+  private void cancelTimeout() {
+    if (Objects.nonNull(timeout)) {
+      timeout.cancel(false);
+      timeout = null;
+    }
+  }
+
+}
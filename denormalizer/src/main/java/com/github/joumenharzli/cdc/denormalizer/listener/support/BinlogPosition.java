@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import lombok.Value;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.util.Assert;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Position of a change in the binlog of the database
+ * <p>
+ * The position is read from the {@code source} block of the debezium events and is converted to a version
+ * that grows with the binlog: the sequence of the binlog file uses the 20 high bits, the position in the file
+ * the next 32 bits and the row of the event the 11 low bits.
+ *
+ * @author Joumen Harzli
+ */
+@Value
+public class BinlogPosition implements Comparable<BinlogPosition> {
+
+  private static final int ROW_BITS = 11;
+  private static final int POSITION_BITS = 32;
+  private static final int FILE_BITS = 20;
+
+  private static final Comparator<BinlogPosition> COMPARATOR = Comparator.comparingLong(BinlogPosition::getFile)
+      .thenComparingLong(BinlogPosition::getPosition)
+      .thenComparingInt(BinlogPosition::getRow);
+
+  private final long file;
+  private final long position;
+  private final int row;
+
+  /**
+   * Read the position from the source block of an event
+   *
+   * @param source source block of the event
+   * @return the position or empty if the source has no binlog file or position
+   * @throws IllegalArgumentException if the binlog file name does not end with a sequence number
+   */
+  public static Optional<BinlogPosition> fromSource(Map<String, Object> source) {
+    if (Objects.isNull(source) || Objects.isNull(source.get("file")) || Objects.isNull(source.get("pos"))) {
+      return Optional.empty();
+    }
+
+    String fileName = source.get("file").toString();
+    String sequence = StringUtils.substringAfterLast(fileName, ".");
+    Assert.isTrue(StringUtils.isNumeric(sequence) && StringUtils.isNotEmpty(sequence),
+                  "Binlog file " + fileName + " has no sequence number");
+
+    long position = ((Number) source.get("pos")).longValue();
+    int row = Objects.isNull(source.get("row")) ? 0 : ((Number) source.get("row")).intValue();
+
+    return Optional.of(new BinlogPosition(Long.parseLong(sequence), position, row));
+  }
+
+  /**
+   * @return a positive version that keeps the order of the positions
+   * @throws IllegalArgumentException if a part of the position does not fit in its bits
+   */
+  public long toVersion() {
+    Assert.isTrue(file < (1L << FILE_BITS), "Binlog file sequence " + file + " is too large");
+    Assert.isTrue(position < (1L << POSITION_BITS), "Binlog position " + position + " is too large");
+    Assert.isTrue(row < (1 << ROW_BITS), "Binlog row " + row + " is too large");
+
+    return (file << (POSITION_BITS + ROW_BITS)) | (position << ROW_BITS) | row;
+  }
+
+  @Override
+  public int compareTo(BinlogPosition other) {
+    return COMPARATOR.compare(this, other);
+  }
+
+}
@@ -20,6 +20,7 @@ import com.fasterxml.jackson.annotation.JsonValue;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Map;
 
@@ -36,19 +37,34 @@ public class DebeziumEvent {
 
   @RequiredArgsConstructor
   public enum DebeziumEventPayloadOperation {
-    CREATE("c"), UPDATE("u"), DELETE("r");
+    CREATE("c"), UPDATE("u"), DELETE("d"),
+    /**
+     * Row read by the connector while taking the initial snapshot of the table
+     */
+    READ("r");
     private final String value;
 
     @JsonValue
     public String getValue() {
       return value;
     }
+
+    public static DebeziumEventPayloadOperation fromValue(String value) {
+      return Arrays.stream(values())
+          .filter(operation -> operation.value.equals(value))
+          .findFirst()
+          .orElseThrow(() -> new IllegalArgumentException("Unknown operation " + value));
+    }
   }
 
+  /**
+   * The states before and after are the columns of the row or the typed entity
+   * when the event was decoded by the {@link DebeziumEventDeserializer}
+   */
   @Data
   public static class DebeziumEventPayload {
-    private Map<String, Object> before;
-    private Map<String, Object> after;
+    private Object before;
+    private Object after;
     private Map<String, Object> source;
 
     @JsonProperty("op")
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.joumenharzli.cdc.denormalizer.listener.EventHandlerFactory;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Streaming deserializer of the debezium events
+ * <p>
+ * The states of the payload are read directly into the type of the handler of the topic
+ * and the schema is skipped without being built.
+ *
+ * @author Joumen Harzli
+ */
+@Slf4j
+public class DebeziumEventDeserializer implements Deserializer<DebeziumEvent> {
+
+  private final ObjectMapper mapper;
+  private final EventHandlerFactory handlerFactory;
+
+  private final Map<Class<?>, ObjectReader> readers = Maps.newConcurrentMap();
+  private final ObjectReader sourceReader;
+  private final ObjectReader operationReader;
+
+  public DebeziumEventDeserializer(ObjectMapper mapper, EventHandlerFactory handlerFactory) {
+    Assert.notNull(mapper, "Object mapper cannot be null");
+    Assert.notNull(handlerFactory, "Handler factory cannot be null");
+
+    this.mapper = mapper;
+    this.handlerFactory = handlerFactory;
+    this.sourceReader = mapper.readerFor(Map.class);
+    this.operationReader = mapper.readerFor(DebeziumEvent.DebeziumEventPayloadOperation.class);
+  }
+
+  @Override
+  public void configure(Map<String, ?> configs, boolean isKey) {
+    // nothing to configure
+  }
+
+  @Override
+  public DebeziumEvent deserialize(String topic, byte[] data) {
+    if (Objects.isNull(data)) {
+      LOGGER.debug("Received a tombstone from the topic {}", topic);
+      return null;
+    }
+
+    ObjectReader stateReader = readers.computeIfAbsent(handlerFactory.getHandler(topic).getEntityClass(), mapper::readerFor);
+
+    try (JsonParser parser = mapper.getFactory().createParser(data)) {
+      DebeziumEvent event = new DebeziumEvent();
+
+      expect(parser.nextToken(), JsonToken.START_OBJECT);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+
+        if ("payload".equals(field)) {
+          event.setPayload(readPayload(parser, stateReader));
+        } else {
+          parser.skipChildren();
+        }
+      }
+
+      return event;
+    } catch (IOException e) {
+      throw new SerializationException("Failed to deserialize the event from the topic " + topic, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    // nothing to close
+  }
+
+  private DebeziumEvent.DebeziumEventPayload readPayload(JsonParser parser, ObjectReader stateReader) throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    expect(parser.currentToken(), JsonToken.START_OBJECT);
+
+    DebeziumEvent.DebeziumEventPayload payload = new DebeziumEvent.DebeziumEventPayload();
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+
+      //@formatter:off
+      switch (field) {
+        case "before": payload.setBefore(readValue(parser, value, stateReader)); break;
+        case "after":  payload.setAfter(readValue(parser, value, stateReader)); break;
+        case "source": payload.setSource(readValue(parser, value, sourceReader)); break;
+        case "op":     payload.setOperation(readValue(parser, value, operationReader)); break;
+        case "ts_ms":  payload.setDate(value == JsonToken.VALUE_NULL ? null : new Date(parser.getLongValue())); break;
+        default:       parser.skipChildren();
+      }
+      //@formatter:on
+    }
+
+    return payload;
+  }
+
+  private <T> T readValue(JsonParser parser, JsonToken value, ObjectReader reader) throws IOException {
+    return value == JsonToken.VALUE_NULL ? null : reader.readValue(parser);
+  }
+
+  private void expect(JsonToken actual, JsonToken expected) throws IOException {
+    if (actual != expected) {
+      throw new IOException("Expected " + expected + " but found " + actual);
+    }
+  }
+
+}
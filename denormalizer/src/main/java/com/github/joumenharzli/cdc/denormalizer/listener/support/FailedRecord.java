@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import lombok.Value;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+/**
+ * A record that could not be handled with the cause of the failure
+ *
+ * @author Joumen Harzli
+ */
+@Value
+public class FailedRecord {
+
+  private final ConsumerRecord<String, DebeziumEvent> record;
+  private final Exception cause;
+
+}
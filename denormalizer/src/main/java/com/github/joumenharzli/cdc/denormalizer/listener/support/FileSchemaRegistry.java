@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.kafka.common.errors.SerializationException;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Schema registry that reads the schema with the id {@code n} from the file {@code n.avsc} of a directory
+ * <p>
+ * The schemas are read when they are used for the first time so new schemas can be added while the application
+ * is running.
+ *
+ * @author Joumen Harzli
+ */
+@Slf4j
+public class FileSchemaRegistry implements SchemaRegistry {
+
+  private final Path directory;
+  private final Map<Integer, Schema> schemas = Maps.newConcurrentMap();
+
+  public FileSchemaRegistry(Path directory) {
+    Assert.notNull(directory, "Directory cannot be null");
+
+    this.directory = directory;
+  }
+
+  @Override
+  public Schema getSchema(int id) {
+    return schemas.computeIfAbsent(id, this::readSchema);
+  }
+
+  private Schema readSchema(int id) {
+    Path file = directory.resolve(id + ".avsc");
+
+    LOGGER.debug("Reading the schema {} from {}", id, file);
+
+    if (!Files.isRegularFile(file)) {
+      throw new SerializationException("No schema was registered with the id " + id + " in " + directory);
+    }
+
+    try {
+      return new Schema.Parser().parse(file.toFile());
+    } catch (IOException e) {
+      throw new SerializationException("Failed to read the schema " + id + " from " + file, e);
+    }
+  }
+
+}
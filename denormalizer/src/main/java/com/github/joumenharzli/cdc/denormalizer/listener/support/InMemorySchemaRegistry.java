@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.kafka.common.errors.SerializationException;
+import org.springframework.util.Assert;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Schema registry that keeps the schemas in memory
+ *
+ * @author Joumen Harzli
+ */
+@Slf4j
+public class InMemorySchemaRegistry implements SchemaRegistry {
+
+  private final Map<Integer, Schema> schemas = Maps.newConcurrentMap();
+
+  /**
+   * Register a schema
+   *
+   * @param id     id of the schema written in the events
+   * @param schema the schema
+   */
+  public void register(int id, Schema schema) {
+    Assert.notNull(schema, "Schema cannot be null");
+
+    LOGGER.debug("Registering the schema {} with the id {}", schema.getFullName(), id);
+
+    schemas.put(id, schema);
+  }
+
+  @Override
+  public Schema getSchema(int id) {
+    return Optional.ofNullable(schemas.get(id))
+        .orElseThrow(() -> new SerializationException("No schema was registered with the id " + id));
+  }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import org.springframework.util.Assert;
+
+/**
+ * Size of the polls of the consumers that can be changed while the application is running
+ *
+ * @author Joumen Harzli
+ */
+public class PollSettings {
+
+  private volatile int maxPollRecords;
+
+  public PollSettings(int maxPollRecords) {
+    setMaxPollRecords(maxPollRecords);
+  }
+
+  public int getMaxPollRecords() {
+    return maxPollRecords;
+  }
+
+  public void setMaxPollRecords(int maxPollRecords) {
+    Assert.isTrue(maxPollRecords > 0, "Max poll records should be positive");
+
+    this.maxPollRecords = maxPollRecords;
+  }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Names and delays of the retry topics
+ * <p>
+ * The records that fail are sent to the retry topic {@code <prefix>.retry-<n>.<topic>} of each tier in turn, then
+ * to the dead letter topic {@code <prefix>.dlq.<topic>}. The name of the table stays the last part of the topic
+ * so the records are handled by the same handler.
+ *
+ * @author Joumen Harzli
+ */
+public class RetryTopics {
+
+  private final String prefix;
+  private final Duration[] delays;
+
+  public RetryTopics(String prefix, Duration... delays) {
+    Assert.hasText(prefix, "Prefix cannot be null/empty");
+    Assert.notNull(delays, "Delays cannot be null");
+
+    this.prefix = prefix;
+    this.delays = Arrays.copyOf(delays, delays.length);
+  }
+
+  /**
+   * @return number of retry tiers
+   */
+  public int getTiers() {
+    return delays.length;
+  }
+
+  /**
+   * @param tier tier starting from 1
+   * @return the delay before handling again the records of the tier
+   */
+  public Duration getDelay(int tier) {
+    Assert.isTrue(tier > 0 && tier <= delays.length, "Unknown retry tier " + tier);
+
+    return delays[tier - 1];
+  }
+
+  /**
+   * @return the longest delay of all the tiers
+   */
+  public Duration getMaxDelay() {
+    return Arrays.stream(delays).max(Duration::compareTo).orElse(Duration.ZERO);
+  }
+
+  /**
+   * @param tier          tier starting from 1
+   * @param originalTopic topic of the debezium events
+   * @return name of the retry topic of the tier
+   */
+  public String getRetryTopic(int tier, String originalTopic) {
+    return getRetryPrefix(tier) + originalTopic;
+  }
+
+  /**
+   * @param tier tier starting from 1
+   * @return pattern of the retry topics of the tier
+   */
+  public Pattern getRetryPattern(int tier) {
+    return Pattern.compile(Pattern.quote(getRetryPrefix(tier)) + ".+");
+  }
+
+  /**
+   * @param originalTopic topic of the debezium events
+   * @return name of the dead letter topic
+   */
+  public String getDeadLetterTopic(String originalTopic) {
+    return prefix + ".dlq." + originalTopic;
+  }
+
+  private String getRetryPrefix(int tier) {
+    return prefix + ".retry-" + tier + ".";
+  }
+
+}
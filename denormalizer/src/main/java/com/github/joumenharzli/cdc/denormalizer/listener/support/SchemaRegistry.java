@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import org.apache.avro.Schema;
+
+/**
+ * Registry of the writer schemas of the avro events
+ *
+ * @author Joumen Harzli
+ */
+public interface SchemaRegistry {
+
+  /**
+   * Find the schema registered with the id
+   *
+   * @param id id of the schema written in the event
+   * @return the schema
+   * @throws org.apache.kafka.common.errors.SerializationException if no schema was registered with the id
+   */
+  Schema getSchema(int id);
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Executor that dispatches items to a fixed number of lanes using the hash of their key.
+ * <p>
+ * All the items with the same key are handled in order by the same lane while the lanes run in parallel.
+ *
+ * @author Joumen Harzli
+ */
+@Slf4j
+public class StripedExecutor {
+
+  private final int lanes;
+  private final ExecutorService executor;
+
+  public StripedExecutor(int lanes) {
+    Assert.isTrue(lanes > 0, "Number of lanes should be positive");
+
+    this.lanes = lanes;
+    this.executor = Executors.newFixedThreadPool(lanes, new ThreadFactoryBuilder().setNameFormat("lane-%d").build());
+  }
+
+  /**
+   * Split the items between the lanes and wait until every lane has handled its items
+   *
+   * @param itemsByKey items to handle by key
+   * @param worker     handler of the items of a lane
+   * @param <T>        type of the items
+   * @throws RuntimeException the failure of the first lane that has failed
+   */
+  public <T> void invokeAll(Map<String, T> itemsByKey, Consumer<List<T>> worker) {
+    Assert.notNull(itemsByKey, "Items cannot be null");
+    Assert.notNull(worker, "Worker cannot be null");
+
+    List<List<T>> itemsByLane = Lists.newArrayListWithCapacity(lanes);
+    for (int i = 0; i < lanes; i++) {
+      itemsByLane.add(Lists.newArrayList());
+    }
+
+    itemsByKey.forEach((key, item) -> itemsByLane.get(getLane(key)).add(item));
+
+    //@formatter:off
+    List<CompletableFuture<Void>> futures = itemsByLane.stream()
+                                                       .filter(items -> !items.isEmpty())
+                                                       .map(items -> CompletableFuture.runAsync(() -> worker.accept(items), executor))
+                                                       .collect(Collectors.toList());
+    //@formatter:on
+
+    LOGGER.debug("Request to handle {} keys using {} lanes", itemsByKey.size(), futures.size());
+
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private int getLane(String key) {
+    return Math.floorMod(Objects.hashCode(key), lanes);
+  }
+
+}
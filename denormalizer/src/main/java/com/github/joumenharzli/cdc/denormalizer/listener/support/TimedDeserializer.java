@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.util.Assert;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserializer that records the time spent by another deserializer
+ *
+ * @author Joumen Harzli
+ */
+public class TimedDeserializer<T> implements Deserializer<T> {
+
+  private final Deserializer<T> delegate;
+  private final Timer timer;
+
+  public TimedDeserializer(Deserializer<T> delegate, Timer timer) {
+    Assert.notNull(delegate, "Deserializer cannot be null");
+    Assert.notNull(timer, "Timer cannot be null");
+
+    this.delegate = delegate;
+    this.timer = timer;
+  }
+
+  @Override
+  public void configure(Map<String, ?> configs, boolean isKey) {
+    delegate.configure(configs, isKey);
+  }
+
+  @Override
+  public T deserialize(String topic, byte[] data) {
+    long start = System.nanoTime();
+    try {
+      return delegate.deserialize(topic, data);
+    } finally {
+      timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Collection;
+
+/**
+ * Ids of the users whose documents were written
+ * <p>
+ * It is sent to the change feed read by the query services to invalidate the cached search results.
+ *
+ * @author Joumen Harzli
+ */
+@Value
+@Builder
+public class UserChanges {
+
+  /**
+   * ids of the written users
+   */
+  private Collection<String> ids;
+
+  /**
+   * true when the whole index has changed, for example after a rebuild
+   */
+  private boolean all;
+
+  /**
+   * time when the documents were written in milliseconds
+   */
+  private long timestamp;
+
+}
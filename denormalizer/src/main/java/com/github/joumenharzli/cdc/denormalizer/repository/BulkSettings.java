@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+/**
+ * Limits of the bulk requests that can be changed while the application is running
+ * <p>
+ * The latency of the bulk requests is tracked with an exponentially weighted moving average.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+public class BulkSettings {
+
+  private static final double LATENCY_WEIGHT = 0.2;
+
+  private final int configuredMaxActions;
+
+  private volatile int maxActions;
+  private volatile long maxSizeInBytes;
+  private volatile double latencyMillis;
+
+  public BulkSettings(@Value("${application.elasticsearch.bulk.maxActions}") int maxActions,
+                      @Value("${application.elasticsearch.bulk.maxSizeInBytes}") long maxSizeInBytes) {
+    Assert.isTrue(maxActions > 0, "Max actions should be positive");
+    Assert.isTrue(maxSizeInBytes > 0, "Max size in bytes should be positive");
+
+    this.configuredMaxActions = maxActions;
+    this.maxActions = maxActions;
+    this.maxSizeInBytes = maxSizeInBytes;
+  }
+
+  /**
+   * @return the maximum number of actions that was configured
+   */
+  public int getConfiguredMaxActions() {
+    return configuredMaxActions;
+  }
+
+  public int getMaxActions() {
+    return maxActions;
+  }
+
+  public void setMaxActions(int maxActions) {
+    Assert.isTrue(maxActions > 0, "Max actions should be positive");
+
+    this.maxActions = maxActions;
+  }
+
+  public long getMaxSizeInBytes() {
+    return maxSizeInBytes;
+  }
+
+  /**
+   * @return the average latency of the recent bulk requests
+   */
+  public double getLatencyMillis() {
+    return latencyMillis;
+  }
+
+  /**
+   * @param millis latency of a bulk request
+   */
+  public synchronized void recordLatency(long millis) {
+    latencyMillis = latencyMillis == 0 ? millis : LATENCY_WEIGHT * millis + (1 - LATENCY_WEIGHT) * latencyMillis;
+  }
+
+}
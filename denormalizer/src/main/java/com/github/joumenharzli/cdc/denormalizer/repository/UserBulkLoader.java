@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.elasticsearch.core.EntityMapper;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loader that indexes the documents of the users with a {@link BulkProcessor}
+ * <p>
+ * The documents are sent in the background by bulk requests, the callers are blocked when the configured number
+ * of requests are already running. All the documents have the same external version.
+ *
+ * @author Joumen Harzli
+ */
+@Slf4j
+public class UserBulkLoader implements AutoCloseable {
+
+  private static final long CLOSE_TIMEOUT_MINUTES = 10;
+
+  private final String indexName;
+  private final String indexType;
+  private final long version;
+  private final EntityMapper entityMapper;
+  private final BulkProcessor bulkProcessor;
+
+  private final AtomicLong indexed = new AtomicLong();
+  private final AtomicReference<String> failure = new AtomicReference<>();
+
+  UserBulkLoader(Client client, EntityMapper entityMapper, BulkSettings bulkSettings,
+                 String indexName, String indexType, long version, int concurrentRequests) {
+    this.indexName = indexName;
+    this.indexType = indexType;
+    this.version = version;
+    this.entityMapper = entityMapper;
+
+    //@formatter:off
+    this.bulkProcessor = BulkProcessor.builder(client, new Listener())
+                                      .setBulkActions(bulkSettings.getConfiguredMaxActions())
+                                      .setBulkSize(new ByteSizeValue(bulkSettings.getMaxSizeInBytes(), ByteSizeUnit.BYTES))
+                                      .setConcurrentRequests(concurrentRequests)
+                                      .build();
+    //@formatter:on
+  }
+
+  /**
+   * Add the document of a user, it is sent with the next bulk request
+   *
+   * @param user the user to index
+   * @throws ElasticsearchException if a previous bulk request has failed
+   */
+  public void add(User user) {
+    Assert.notNull(user, "User cannot be null");
+
+    checkFailure();
+
+    //@formatter:off
+    bulkProcessor.add(new IndexRequest(indexName, indexType, user.getId())
+                          .source(toJson(user), XContentType.JSON)
+                          .version(version)
+                          .versionType(VersionType.EXTERNAL));
+    //@formatter:on
+  }
+
+  /**
+   * Send the pending documents and wait for all the bulk requests
+   *
+   * @throws ElasticsearchException if a bulk request has failed
+   */
+  @Override
+  public void close() {
+    try {
+      if (!bulkProcessor.awaitClose(CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+        throw new ElasticsearchException("Timed out while waiting for the bulk requests of the index " + indexName);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ElasticsearchException("Interrupted while waiting for the bulk requests of the index " + indexName, e);
+    }
+
+    checkFailure();
+
+    LOGGER.info("Indexed {} documents in the index {}", indexed.get(), indexName);
+  }
+
+  private void checkFailure() {
+    String message = failure.get();
+    if (Objects.nonNull(message)) {
+      throw new ElasticsearchException("Failed to load the index " + indexName + " : " + message);
+    }
+  }
+
+  private String toJson(User user) {
+    try {
+      return entityMapper.mapToString(user);
+    } catch (IOException e) {
+      throw new ElasticsearchException("Failed to map the user " + user.getId(), e);
+    }
+  }
+
+  private class Listener implements BulkProcessor.Listener {
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+      LOGGER.debug("Sending the bulk request {} with {} documents", executionId, request.numberOfActions());
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+      if (response.hasFailures()) {
+        failure.compareAndSet(null, response.buildFailureMessage());
+      }
+      indexed.addAndGet(Arrays.stream(response.getItems()).filter(item -> !item.isFailed()).count());
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable cause) {
+      LOGGER.warn("Bulk request {} has failed", executionId, cause);
+
+      failure.compareAndSet(null, cause.getMessage());
+    }
+  }
+
+}
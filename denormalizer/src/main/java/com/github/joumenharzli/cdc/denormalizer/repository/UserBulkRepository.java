@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bulk operations for the index {@link User}
+ *
+ * @author Joumen Harzli
+ */
+public interface UserBulkRepository {
+
+  /**
+   * Send the pending writes using the bulk API.
+   * The writes are split into many requests when they exceed the configured number of actions or size in bytes.
+   * <p>
+   * The documents and the deletes of the users with a version in the batch are sent with this external version
+   * and are rejected by the index when it has a newer version. The versions of the written documents are recorded
+   * in the batch.
+   *
+   * @param batch the writes to apply
+   * @return the ids of the users whose writes were rejected because they are stale
+   * @throws com.github.joumenharzli.cdc.denormalizer.exception.BulkWriteException if any other write has failed,
+   * once all the requests were sent
+   */
+  Set<String> bulk(UserWriteBatch batch);
+
+  /**
+   * Change how often the writes become visible to the searches, a longer interval makes the bulk loads faster
+   *
+   * @param refreshInterval the interval like {@code 1s} or {@code -1} to disable the refresh
+   */
+  void updateRefreshInterval(String refreshInterval);
+
+  /**
+   * Create a new index with the mapping of the users behind the alias of the users if neither the alias nor an index
+   * with its name exists. The index and the alias are created by a single request, so two instances that start
+   * together never create two indices.
+   *
+   * @param numberOfReplicas the number of replicas of each shard
+   * @param refreshInterval  the refresh interval like {@code 1s} or {@code -1} to disable the refresh
+   * @return true if the index was created
+   */
+  boolean createIndexIfMissing(int numberOfReplicas, String refreshInterval);
+
+  /**
+   * Change the number of replicas and the refresh interval of the index then refresh it
+   *
+   * @param numberOfReplicas the number of replicas of each shard
+   * @param refreshInterval  the refresh interval like {@code 1s} or {@code -1} to disable the refresh
+   */
+  void updateIndexSettings(int numberOfReplicas, String refreshInterval);
+
+  /**
+   * Change the number of replicas and the refresh interval of an index then refresh it
+   *
+   * @param indexName        name of the index
+   * @param numberOfReplicas the number of replicas of each shard
+   * @param refreshInterval  the refresh interval like {@code 1s} or {@code -1} to disable the refresh
+   */
+  void updateIndexSettings(String indexName, int numberOfReplicas, String refreshInterval);
+
+  /**
+   * Create a new index with the mapping of the users
+   *
+   * @param indexName        name of the index
+   * @param numberOfReplicas the number of replicas of each shard
+   * @param refreshInterval  the refresh interval like {@code 1s} or {@code -1} to disable the refresh
+   * @param meta             custom metadata stored in the mapping of the index
+   */
+  void createIndex(String indexName, int numberOfReplicas, String refreshInterval, Map<String, Object> meta);
+
+  /**
+   * Replace the custom metadata stored in the mapping of an index
+   *
+   * @param indexName name of the index
+   * @param meta      custom metadata stored in the mapping of the index
+   */
+  void updateIndexMeta(String indexName, Map<String, Object> meta);
+
+  /**
+   * Open a loader that indexes the documents of the users in the background
+   *
+   * @param indexName          name of the index
+   * @param version            external version of all the documents
+   * @param concurrentRequests the number of bulk requests that can be sent concurrently
+   * @return the loader that must be closed to wait for the pending requests
+   */
+  UserBulkLoader openBulkLoader(String indexName, long version, int concurrentRequests);
+
+  /**
+   * Atomically move the alias named like the index of the users to another index.
+   * If the name is used by an index, this index is deleted only when it is explicitly replaced.
+   *
+   * @param indexName    name of the index that will be read and written through the alias
+   * @param replaceIndex true to delete the index that has the name of the alias
+   * @throws IllegalStateException if the name is used by an index that is not replaced
+   */
+  void moveAlias(String indexName, boolean replaceIndex);
+
+  /**
+   * @return true if the name of the index of the users is used by an index and not by an alias
+   */
+  boolean isConcreteIndex();
+
+  /**
+   * @return the custom metadata of the mapping of the index of the users or an empty map
+   */
+  Map<String, Object> getIndexMeta();
+
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.github.joumenharzli.cdc.denormalizer.exception.BulkWriteException;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.slf4j.Slf4j;
+import com.carrotsearch.hppc.cursors.ObjectCursor;
+import org.elasticsearch.ResourceAlreadyExistsException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.EntityMapper;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation for {@link UserBulkRepository} that uses the client of the {@link ElasticsearchTemplate}
+ *
+ * @author Joumen Harzli
+ */
+@Slf4j
+public class UserBulkRepositoryImpl implements UserBulkRepository {
+
+  private static final String SCRIPT_LANG = "painless";
+  private static final String REFRESH_INTERVAL_SETTING = "index.refresh_interval";
+  private static final String NUMBER_OF_REPLICAS_SETTING = "index.number_of_replicas";
+  private static final String META_FIELD = "_meta";
+  private static final String FIRST_INDEX_SUFFIX = "-initial";
+
+  private final ElasticsearchTemplate elasticsearchTemplate;
+  private final EntityMapper entityMapper;
+  private final BulkSettings bulkSettings;
+
+  public UserBulkRepositoryImpl(ElasticsearchTemplate elasticsearchTemplate,
+                                EntityMapper entityMapper,
+                                BulkSettings bulkSettings) {
+    this.elasticsearchTemplate = elasticsearchTemplate;
+    this.entityMapper = entityMapper;
+    this.bulkSettings = bulkSettings;
+  }
+
+  @Override
+  public Set<String> bulk(UserWriteBatch batch) {
+    Assert.notNull(batch, "Batch cannot be null");
+
+    LOGGER.debug("Request to apply {} writes using the bulk api", batch.size());
+
+    Set<String> staleIds = Sets.newHashSet();
+    Map<String, String> failedDocuments = Maps.newHashMap();
+
+    if (batch.isEmpty()) {
+      return staleIds;
+    }
+
+    ElasticsearchPersistentEntity persistentEntity = elasticsearchTemplate.getPersistentEntityFor(User.class);
+    String indexName = batch.getIndexName().orElse(persistentEntity.getIndexName());
+    String indexType = persistentEntity.getIndexType();
+
+    // the size of the requests is only adapted to the latency of the index of the users
+    int maxActions = batch.getIndexName().isPresent() ? bulkSettings.getConfiguredMaxActions() :
+                     bulkSettings.getMaxActions();
+
+    Client client = elasticsearchTemplate.getClient();
+    BulkRequestBuilder bulkRequest = client.prepareBulk();
+
+    for (String id : batch.getDeletedIds()) {
+      DeleteRequestBuilder deleteRequest = client.prepareDelete(indexName, indexType, id);
+      batch.getVersion(id).ifPresent(version -> deleteRequest.setVersion(version).setVersionType(VersionType.EXTERNAL_GTE));
+
+      bulkRequest.add(deleteRequest);
+      bulkRequest = executeIfFull(client, bulkRequest, maxActions, batch, staleIds, failedDocuments);
+    }
+
+    for (User user : batch.getDocuments()) {
+      IndexRequestBuilder indexRequest = client.prepareIndex(indexName, indexType, user.getId())
+                                               .setSource(toJson(user), XContentType.JSON);
+      batch.getVersion(user.getId()).ifPresent(version -> indexRequest.setVersion(version).setVersionType(VersionType.EXTERNAL_GTE));
+
+      bulkRequest.add(indexRequest);
+      bulkRequest = executeIfFull(client, bulkRequest, maxActions, batch, staleIds, failedDocuments);
+    }
+
+    for (UserScriptUpdate update : batch.getUpdates()) {
+      bulkRequest.add(prepareUpdate(client, indexName, indexType, update));
+      bulkRequest = executeIfFull(client, bulkRequest, maxActions, batch, staleIds, failedDocuments);
+    }
+
+    if (bulkRequest.numberOfActions() > 0) {
+      execute(bulkRequest, batch, staleIds, failedDocuments);
+    }
+
+    // all the requests are sent before failing so the other writes and the stale ids are never lost
+    if (!failedDocuments.isEmpty()) {
+      throw new BulkWriteException(failedDocuments, staleIds);
+    }
+
+    return staleIds;
+  }
+
+  @Override
+  public void updateRefreshInterval(String refreshInterval) {
+    Assert.hasText(refreshInterval, "Refresh interval cannot be null/empty");
+
+    LOGGER.info("Request to set the refresh interval of the index to {}", refreshInterval);
+
+    updateSettings(getIndexName(), Settings.builder().put(REFRESH_INTERVAL_SETTING, refreshInterval));
+  }
+
+  @Override
+  public boolean createIndexIfMissing(int numberOfReplicas, String refreshInterval) {
+    Assert.hasText(refreshInterval, "Refresh interval cannot be null/empty");
+
+    String alias = getIndexName();
+
+    if (elasticsearchTemplate.indexExists(alias)) {
+      return false;
+    }
+
+    String indexName = alias + FIRST_INDEX_SUFFIX;
+
+    LOGGER.info("Request to create the index {} behind the alias {} with {} replicas and a refresh interval of {}",
+                indexName, alias, numberOfReplicas, refreshInterval);
+
+    try {
+      prepareCreateIndex(indexName, numberOfReplicas, refreshInterval, Collections.emptyMap())
+          .addAlias(new Alias(alias))
+          .get();
+    } catch (ResourceAlreadyExistsException e) {
+      LOGGER.info("The index {} was created by another instance", indexName);
+      return false;
+    }
+
+    return true;
+  }
+
+  @Override
+  public void updateIndexSettings(int numberOfReplicas, String refreshInterval) {
+    updateIndexSettings(getIndexName(), numberOfReplicas, refreshInterval);
+  }
+
+  @Override
+  public void updateIndexSettings(String indexName, int numberOfReplicas, String refreshInterval) {
+    Assert.hasText(indexName, "Index name cannot be null/empty");
+    Assert.hasText(refreshInterval, "Refresh interval cannot be null/empty");
+
+    LOGGER.info("Request to set the replicas of the index {} to {} and its refresh interval to {}", indexName,
+                numberOfReplicas, refreshInterval);
+
+    //@formatter:off
+    updateSettings(indexName, Settings.builder()
+                                      .put(NUMBER_OF_REPLICAS_SETTING, numberOfReplicas)
+                                      .put(REFRESH_INTERVAL_SETTING, refreshInterval));
+    //@formatter:on
+
+    elasticsearchTemplate.refresh(indexName);
+  }
+
+  @Override
+  public void createIndex(String indexName, int numberOfReplicas, String refreshInterval, Map<String, Object> meta) {
+    Assert.hasText(indexName, "Index name cannot be null/empty");
+    Assert.hasText(refreshInterval, "Refresh interval cannot be null/empty");
+    Assert.notNull(meta, "Meta cannot be null");
+
+    LOGGER.info("Request to create the index {} with {} replicas and a refresh interval of {}", indexName,
+                numberOfReplicas, refreshInterval);
+
+    prepareCreateIndex(indexName, numberOfReplicas, refreshInterval, meta).get();
+  }
+
+  @Override
+  public void updateIndexMeta(String indexName, Map<String, Object> meta) {
+    Assert.hasText(indexName, "Index name cannot be null/empty");
+    Assert.notNull(meta, "Meta cannot be null");
+
+    LOGGER.info("Request to set the metadata of the index {} to {}", indexName, meta);
+
+    String indexType = elasticsearchTemplate.getPersistentEntityFor(User.class).getIndexType();
+
+    elasticsearchTemplate.putMapping(indexName, indexType,
+                                     ImmutableMap.of(indexType, ImmutableMap.of(META_FIELD, meta)));
+  }
+
+  @Override
+  public UserBulkLoader openBulkLoader(String indexName, long version, int concurrentRequests) {
+    Assert.hasText(indexName, "Index name cannot be null/empty");
+
+    String indexType = elasticsearchTemplate.getPersistentEntityFor(User.class).getIndexType();
+
+    return new UserBulkLoader(elasticsearchTemplate.getClient(), entityMapper, bulkSettings, indexName, indexType,
+                              version, concurrentRequests);
+  }
+
+  @Override
+  public void moveAlias(String indexName, boolean replaceIndex) {
+    Assert.hasText(indexName, "Index name cannot be null/empty");
+
+    String alias = getIndexName();
+
+    LOGGER.info("Request to move the alias {} to the index {}", alias, indexName);
+
+    IndicesAdminClient indices = elasticsearchTemplate.getClient().admin().indices();
+    IndicesAliasesRequestBuilder aliasesRequest = indices.prepareAliases();
+
+    if (indices.prepareAliasesExist(alias).get().exists()) {
+      indices.prepareGetAliases(alias).get().getAliases().keysIt()
+             .forEachRemaining(index -> aliasesRequest.removeAlias(index, alias));
+    } else if (elasticsearchTemplate.indexExists(alias)) {
+      if (!replaceIndex) {
+        throw new IllegalStateException("The index " + alias + " cannot be replaced by an alias");
+      }
+
+      LOGGER.warn("The index {} will be deleted to be replaced by an alias", alias);
+      aliasesRequest.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(alias));
+    }
+
+    aliasesRequest.addAlias(indexName, alias).get();
+  }
+
+  @Override
+  public boolean isConcreteIndex() {
+    String indexName = getIndexName();
+
+    IndicesAdminClient indices = elasticsearchTemplate.getClient().admin().indices();
+    return elasticsearchTemplate.indexExists(indexName) && !indices.prepareAliasesExist(indexName).get().exists();
+  }
+
+  @Override
+  public Map<String, Object> getIndexMeta() {
+    ElasticsearchPersistentEntity persistentEntity = elasticsearchTemplate.getPersistentEntityFor(User.class);
+    String indexName = persistentEntity.getIndexName();
+    String indexType = persistentEntity.getIndexType();
+
+    if (!elasticsearchTemplate.indexExists(indexName)) {
+      return Collections.emptyMap();
+    }
+
+    ImmutableOpenMap<String, ImmutableOpenMap<String, MappingMetaData>> mappings = elasticsearchTemplate
+        .getClient().admin().indices().prepareGetMappings(indexName).addTypes(indexType).get().getMappings();
+
+    // the alias points to a single index
+    for (ObjectCursor<ImmutableOpenMap<String, MappingMetaData>> indexMappings : mappings.values()) {
+      MappingMetaData mapping = indexMappings.value.get(indexType);
+      if (Objects.nonNull(mapping) && mapping.sourceAsMap().get(META_FIELD) instanceof Map) {
+        return castMap(mapping.sourceAsMap().get(META_FIELD));
+      }
+    }
+
+    return Collections.emptyMap();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> castMap(Object value) {
+    return (Map<String, Object>) value;
+  }
+
+  private String getIndexName() {
+    return elasticsearchTemplate.getPersistentEntityFor(User.class).getIndexName();
+  }
+
+  /**
+   * Prepare the creation of an index with its settings and the mapping of the users in a single request
+   */
+  @SuppressWarnings("unchecked")
+  private CreateIndexRequestBuilder prepareCreateIndex(String indexName, int numberOfReplicas, String refreshInterval,
+                                                       Map<String, Object> meta) {
+    String indexType = elasticsearchTemplate.getPersistentEntityFor(User.class).getIndexType();
+
+    //@formatter:off
+    Map<String, Object> mapping = XContentHelper.convertToMap(
+        new BytesArray(ElasticsearchTemplate.readFileFromClasspath(User.MAPPING_PATH)), false, XContentType.JSON).v2();
+    ((Map<String, Object>) mapping.get(indexType)).put(META_FIELD, meta);
+
+    Map<String, Object> settings = ImmutableMap.<String, Object>builder()
+        .put(NUMBER_OF_REPLICAS_SETTING, String.valueOf(numberOfReplicas))
+        .put(REFRESH_INTERVAL_SETTING, refreshInterval)
+        .build();
+    //@formatter:on
+
+    //@formatter:off
+    return elasticsearchTemplate.getClient()
+                                .admin()
+                                .indices()
+                                .prepareCreate(indexName)
+                                .setSettings(settings)
+                                .addMapping(indexType, (Map<String, Object>) mapping.get(indexType));
+    //@formatter:on
+  }
+
+  private void updateSettings(String indexName, Settings.Builder settings) {
+    //@formatter:off
+    elasticsearchTemplate.getClient()
+                         .admin()
+                         .indices()
+                         .prepareUpdateSettings(indexName)
+                         .setSettings(settings)
+                         .get();
+    //@formatter:on
+  }
+
+  /**
+   * Create an update request that executes the script of the update on the server side
+   */
+  private UpdateRequestBuilder prepareUpdate(Client client, String indexName, String indexType,
+                                             UserScriptUpdate update) {
+    Map<String, Object> params = Maps.newHashMap();
+    update.getParams().forEach((name, value) -> params.put(name, toParam(value)));
+
+    UpdateRequestBuilder updateRequest = client.prepareUpdate(indexName, indexType, update.getId())
+                                               .setScript(new Script(ScriptType.INLINE, SCRIPT_LANG,
+                                                                     update.getScript(), params));
+
+    if (Objects.nonNull(update.getUpsert())) {
+      updateRequest.setUpsert(toJson(update.getUpsert()), XContentType.JSON);
+    }
+
+    return updateRequest;
+  }
+
+  /**
+   * Send the bulk request if it has reached the limits
+   *
+   * @return a new request if the current one was sent or the current one
+   */
+  private BulkRequestBuilder executeIfFull(Client client, BulkRequestBuilder bulkRequest, int maxActions,
+                                           UserWriteBatch batch, Set<String> staleIds,
+                                           Map<String, String> failedDocuments) {
+    if (bulkRequest.numberOfActions() >= maxActions ||
+        bulkRequest.request().estimatedSizeInBytes() >= bulkSettings.getMaxSizeInBytes()) {
+      execute(bulkRequest, batch, staleIds, failedDocuments);
+      return client.prepareBulk();
+    }
+    return bulkRequest;
+  }
+
+  /**
+   * Send the bulk request and wait for the response
+   *
+   * @param batch           receives the versions of the written documents
+   * @param staleIds        receives the ids of the documents that were rejected because of their version
+   * @param failedDocuments receives the failures of the other actions by id of document
+   */
+  private void execute(BulkRequestBuilder bulkRequest, UserWriteBatch batch, Set<String> staleIds,
+                       Map<String, String> failedDocuments) {
+    LOGGER.debug("Sending a bulk request with {} actions and {} bytes", bulkRequest.numberOfActions(),
+                 bulkRequest.request().estimatedSizeInBytes());
+
+    long start = System.nanoTime();
+    BulkResponse response = bulkRequest.get();
+    bulkSettings.recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+    if (response.hasFailures()) {
+      Arrays.stream(response.getItems())
+            .filter(BulkItemResponse::isFailed)
+            .filter(item -> !isMissingDocumentUpdate(item))
+            .forEach(item -> {
+              if (isVersionConflict(item)) {
+                LOGGER.debug("Write of the document {} was rejected : {}", item.getId(), item.getFailureMessage());
+                staleIds.add(item.getId());
+              } else {
+                failedDocuments.put(item.getId(), item.getFailureMessage());
+              }
+            });
+    }
+
+    //@formatter:off
+    Arrays.stream(response.getItems())
+          .filter(item -> !item.isFailed() && isDocumentWrite(item))
+          .forEach(item -> batch.recordWrittenVersion(item.getId(), item.getVersion()));
+    //@formatter:on
+  }
+
+  private boolean isDocumentWrite(BulkItemResponse item) {
+    return item.getOpType() == DocWriteRequest.OpType.INDEX;
+  }
+
+  /**
+   * An update without an upsert document fails when the document is missing, there is nothing to update
+   * so the failure is ignored
+   */
+  private boolean isMissingDocumentUpdate(BulkItemResponse item) {
+    return item.getOpType() == DocWriteRequest.OpType.UPDATE && item.getFailure().getStatus() == RestStatus.NOT_FOUND;
+  }
+
+  /**
+   * A versioned write fails with a conflict when the index has a newer version of the document
+   */
+  private boolean isVersionConflict(BulkItemResponse item) {
+    return item.getOpType() != DocWriteRequest.OpType.UPDATE && item.getFailure().getStatus() == RestStatus.CONFLICT;
+  }
+
+  /**
+   * Convert the domain objects to maps the same way as the documents, other values are kept as is
+   */
+  private Object toParam(Object value) {
+    if (Objects.isNull(value) || value instanceof String || value instanceof Number || value instanceof Boolean) {
+      return value;
+    }
+    return XContentHelper.convertToMap(new BytesArray(toJson(value)), false, XContentType.JSON).v2();
+  }
+
+  private String toJson(Object value) {
+    try {
+      return entityMapper.mapToString(value);
+    } catch (IOException e) {
+      throw new ElasticsearchException("Failed to map the value " + value, e);
+    }
+  }
+
+}
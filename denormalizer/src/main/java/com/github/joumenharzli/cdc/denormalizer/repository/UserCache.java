@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Sets;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded cache of the documents of the index {@link User}
+ * <p>
+ * The weight of a user is the number of nested elements in his document so the users with many addresses and jobs
+ * are evicted before the others. The cache always returns copies so the changes of a batch are never visible
+ * before they are written.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class UserCache {
+
+  private static final String CACHE_NAME = "users";
+
+  private final Cache<String, User> cache;
+
+  public UserCache(MeterRegistry registry,
+                   @Value("${application.denormalizer.cache.maximumWeight}") long maximumWeight,
+                   @Value("${application.denormalizer.cache.expireAfterWriteSeconds}") long expireAfterWriteSeconds) {
+
+    //@formatter:off
+    this.cache = CacheBuilder.newBuilder()
+                             .maximumWeight(maximumWeight)
+                             .weigher((String id, User user) -> 1 + user.getAddresses().size() + user.getJobs().size())
+                             .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                             .recordStats()
+                             .build();
+    //@formatter:on
+
+    GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME);
+  }
+
+  /**
+   * @param id id of the user
+   * @return a copy of the cached user
+   */
+  public Optional<User> get(String id) {
+    return Optional.ofNullable(cache.getIfPresent(id)).map(this::copy);
+  }
+
+  /**
+   * @param ids ids of the users
+   * @return copies of the cached users by id
+   */
+  public Map<String, User> getAll(Collection<String> ids) {
+    //@formatter:off
+    return cache.getAllPresent(ids)
+                .values()
+                .stream()
+                .map(this::copy)
+                .collect(Collectors.toMap(User::getId, user -> user));
+    //@formatter:on
+  }
+
+  /**
+   * Cache copies of users that are in sync with the index
+   *
+   * @param users the users to cache
+   */
+  public void putAll(Collection<User> users) {
+    users.forEach(user -> cache.put(user.getId(), copy(user)));
+  }
+
+  /**
+   * Remove users that were deleted or changed outside of the cache
+   *
+   * @param ids ids of the users to remove
+   */
+  public void invalidateAll(Collection<String> ids) {
+    LOGGER.debug("Request to evict the users with ids {} from the cache", ids);
+
+    cache.invalidateAll(ids);
+  }
+
+  private User copy(User user) {
+    User copy = new User();
+    copy.setId(user.getId());
+    copy.setVersion(user.getVersion());
+    copy.setName(user.getName());
+    copy.setAge(user.getAge());
+    copy.setAddresses(Sets.newHashSet(user.getAddresses()));
+    copy.setJobs(Sets.newHashSet(user.getJobs()));
+    return copy;
+  }
+
+}
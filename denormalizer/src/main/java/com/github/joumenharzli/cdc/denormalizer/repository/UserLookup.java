@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Users that were fetched before handling a batch of events
+ * <p>
+ * The lookup remembers the ids that were requested so a user missing from the index is not requested again.
+ *
+ * @author Joumen Harzli
+ */
+public class UserLookup {
+
+  private static final UserLookup EMPTY = new UserLookup(ImmutableSet.of(), ImmutableSet.of());
+
+  private final Set<String> ids;
+  private final Map<String, User> users;
+
+  /**
+   * @param ids   the requested ids
+   * @param users the found users
+   */
+  public UserLookup(Collection<String> ids, Iterable<User> users) {
+    Assert.notNull(ids, "Ids cannot be null");
+    Assert.notNull(users, "Users cannot be null");
+
+    this.ids = ImmutableSet.copyOf(ids);
+
+    ImmutableMap.Builder<String, User> builder = ImmutableMap.builder();
+    users.forEach(user -> builder.put(user.getId(), user));
+    this.users = builder.build();
+  }
+
+  public static UserLookup empty() {
+    return EMPTY;
+  }
+
+  /**
+   * @param id id of the user
+   * @return true if the user was requested even if he was not found
+   */
+  public boolean contains(String id) {
+    return ids.contains(id);
+  }
+
+  /**
+   * @param id id of the user
+   * @return the user if he was found
+   */
+  public Optional<User> get(String id) {
+    return Optional.ofNullable(users.get(id));
+  }
+
+  public int size() {
+    return ids.size();
+  }
+
+}
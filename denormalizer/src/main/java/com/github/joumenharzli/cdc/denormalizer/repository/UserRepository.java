@@ -26,5 +26,5 @@ import com.github.joumenharzli.cdc.denormalizer.domain.User;
  * @author Joumen Harzli
  */
 @Repository
-public interface UserRepository extends ElasticsearchRepository<User, String> {
+public interface UserRepository extends ElasticsearchRepository<User, String>, UserBulkRepository {
 }
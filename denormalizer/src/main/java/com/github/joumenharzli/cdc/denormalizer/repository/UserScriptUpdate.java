@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import lombok.Builder;
+import lombok.Singular;
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * Partial update of the document of a user executed on the server side by a painless script
+ * <p>
+ * When the document does not exist the upsert document is indexed instead, if no upsert document was
+ * provided the update is ignored.
+ *
+ * @author Joumen Harzli
+ */
+@Value
+@Builder
+public class UserScriptUpdate {
+
+  private String id;
+
+  private String script;
+
+  /**
+   * Simple values or domain objects that are converted like the documents
+   */
+  @Singular
+  private Map<String, Object> params;
+
+  private User upsert;
+
+}
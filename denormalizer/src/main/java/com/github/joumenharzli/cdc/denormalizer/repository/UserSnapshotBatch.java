@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.ToString;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggregates of the users built in memory from the rows read during the initial snapshot
+ * <p>
+ * The rows of the elements may be read before the row of their user, so an aggregate is created for any user
+ * and is marked as complete once the row of the user itself was read.
+ *
+ * @author Joumen Harzli
+ */
+@ToString
+public class UserSnapshotBatch {
+
+  private final Map<String, User> users = Maps.newLinkedHashMap();
+  private final Set<String> completeIds = Sets.newHashSet();
+
+  /**
+   * @param id id of the user
+   * @return the aggregate of the user, it is created if it does not exist
+   * @throws IllegalArgumentException if the id is null/empty
+   */
+  public User getUser(String id) {
+    Assert.hasText(id, "User id cannot be null/empty");
+
+    return users.computeIfAbsent(id, key -> {
+      User user = new User();
+      user.setId(key);
+      return user;
+    });
+  }
+
+  /**
+   * Mark the aggregate of a user as containing the row of the user
+   *
+   * @param id id of the user
+   * @throws IllegalArgumentException if the id is null/empty
+   */
+  public void complete(String id) {
+    Assert.hasText(id, "User id cannot be null/empty");
+
+    completeIds.add(id);
+  }
+
+  /**
+   * @param id id of the user
+   * @return true if the row of the user was read
+   */
+  public boolean isComplete(String id) {
+    return completeIds.contains(id);
+  }
+
+  public Collection<User> getUsers() {
+    return Collections.unmodifiableCollection(users.values());
+  }
+
+  public boolean isEmpty() {
+    return users.isEmpty();
+  }
+
+  public int size() {
+    return users.size();
+  }
+
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.Address;
+import com.github.joumenharzli.cdc.denormalizer.domain.Job;
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.google.common.collect.Lists;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.Assert;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Reader of the users from the tables of the database
+ * <p>
+ * The users, their addresses and their jobs are streamed with server side cursors ordered by the id of the user
+ * and are joined while reading so a user is built without holding the tables in memory.
+ * <p>
+ * All the connections of a {@link Snapshot} read the same consistent state of the tables.
+ *
+ * @author Joumen Harzli
+ */
+@Repository
+@ConditionalOnProperty(name = "application.denormalizer.rebuild.enabled", havingValue = "true")
+@Slf4j
+public class UserTableReader {
+
+  /**
+   * Order of the keys of the tables, the default collation of MySQL ignores the case
+   */
+  private static final Comparator<String> KEY_ORDER = String.CASE_INSENSITIVE_ORDER;
+
+  private static final String SELECT_USERS = "SELECT ID, NAME, AGE FROM USERS";
+  private static final String SELECT_ADDRESSES = "SELECT ID, NAME, USER_ID FROM ADDRESSES";
+  private static final String SELECT_KEY_AT = "SELECT ID FROM USERS ORDER BY ID LIMIT 1 OFFSET ?";
+  private static final String SELECT_JOBS = "SELECT ID, NAME, DESCRIPTION, START_DATE, END_DATE, USER_ID FROM JOBS";
+
+  private final DataSource dataSource;
+  private final int fetchSize;
+
+  public UserTableReader(DataSource dataSource,
+                         @Value("${application.denormalizer.rebuild.fetchSize}") int fetchSize) {
+    this.dataSource = dataSource;
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * Open connections that read the same consistent state of the tables
+   *
+   * @param connections the number of connections of the snapshot
+   * @param lockTables  true to lock the tables while the transactions start so the binlog position
+   *                    matches the snapshot
+   * @return the snapshot that must be closed
+   * @throws DataAccessResourceFailureException if the snapshot cannot be opened
+   */
+  public Snapshot openSnapshot(int connections, boolean lockTables) {
+    Assert.isTrue(connections > 0, "Connections should be positive");
+
+    LOGGER.info("Request to open a snapshot of the tables with {} connections", connections);
+
+    Snapshot snapshot = new Snapshot();
+    Connection lockConnection = null;
+
+    try {
+      lockConnection = dataSource.getConnection();
+
+      if (lockTables) {
+        execute(lockConnection, "FLUSH TABLES WITH READ LOCK");
+      } else {
+        LOGGER.warn("The tables are not locked, the binlog position may not match the snapshot");
+      }
+
+      for (int i = 0; i < connections; i++) {
+        Connection connection = dataSource.getConnection();
+        snapshot.connections.add(connection);
+
+        connection.setAutoCommit(false);
+        connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        execute(connection, "START TRANSACTION WITH CONSISTENT SNAPSHOT");
+      }
+
+      try (Statement statement = lockConnection.createStatement();
+           ResultSet resultSet = statement.executeQuery("SHOW MASTER STATUS")) {
+        if (!resultSet.next()) {
+          throw new SQLException("The binlog is not enabled");
+        }
+        snapshot.binlogFile = resultSet.getString("File");
+        snapshot.binlogPosition = resultSet.getLong("Position");
+      }
+
+      if (lockTables) {
+        execute(lockConnection, "UNLOCK TABLES");
+      }
+
+      return snapshot;
+    } catch (SQLException e) {
+      snapshot.close();
+      throw new DataAccessResourceFailureException("Failed to open a snapshot of the tables", e);
+    } finally {
+      JdbcUtils.closeConnection(lockConnection);
+    }
+  }
+
+  private void execute(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  /**
+   * Connections reading the same state of the tables and the binlog position of this state
+   */
+  public class Snapshot implements AutoCloseable {
+
+    private final List<Connection> connections = Lists.newArrayList();
+
+    @Getter
+    private String binlogFile;
+
+    @Getter
+    private long binlogPosition;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Split the users into ranges of about the same size
+     *
+     * @param parts the number of ranges
+     * @return the ordered keys that start each range except the first one
+     * @throws DataAccessResourceFailureException if the keys cannot be read
+     */
+    public List<String> splitKeys(int parts) {
+      Assert.isTrue(parts > 0, "Parts should be positive");
+
+      List<String> keys = Lists.newArrayList();
+      Connection connection = connections.get(0);
+
+      try {
+        long count;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM USERS")) {
+          resultSet.next();
+          count = resultSet.getLong(1);
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_KEY_AT)) {
+          for (int part = 1; part < parts; part++) {
+            statement.setLong(1, count * part / parts);
+            try (ResultSet resultSet = statement.executeQuery()) {
+              if (resultSet.next() && isAfterLastKey(keys, resultSet.getString(1))) {
+                keys.add(resultSet.getString(1));
+              }
+            }
+          }
+        }
+      } catch (SQLException e) {
+        throw new DataAccessResourceFailureException("Failed to split the users", e);
+      }
+
+      return keys;
+    }
+
+    private boolean isAfterLastKey(List<String> keys, String key) {
+      return keys.isEmpty() || KEY_ORDER.compare(keys.get(keys.size() - 1), key) < 0;
+    }
+
+    /**
+     * Read the users of a range with their addresses and their jobs
+     *
+     * @param connection index of the connection used to read
+     * @param fromKey    first key of the range or null to start with the first user
+     * @param toKey      key after the range or null to end with the last user
+     * @param consumer   receives the users in the order of their ids
+     * @throws DataAccessResourceFailureException if the users cannot be read
+     */
+    public void read(int connection, String fromKey, String toKey, Consumer<User> consumer) {
+      Connection jdbcConnection = connections.get(connection);
+
+      try (Cursor users = new Cursor(jdbcConnection, SELECT_USERS, "ID", fromKey, toKey);
+           Cursor addresses = new Cursor(jdbcConnection, SELECT_ADDRESSES, "USER_ID", fromKey, toKey);
+           Cursor jobs = new Cursor(jdbcConnection, SELECT_JOBS, "USER_ID", fromKey, toKey)) {
+
+        while (users.hasRow()) {
+          User user = toUser(users.getResultSet());
+
+          addresses.skipBefore(user.getId());
+          while (addresses.isAt(user.getId())) {
+            user.getAddresses().add(toAddress(addresses.getResultSet()));
+            addresses.next();
+          }
+
+          jobs.skipBefore(user.getId());
+          while (jobs.isAt(user.getId())) {
+            user.getJobs().add(toJob(jobs.getResultSet()));
+            jobs.next();
+          }
+
+          consumer.accept(user);
+          users.next();
+        }
+      } catch (SQLException e) {
+        throw new DataAccessResourceFailureException("Failed to read the users", e);
+      }
+    }
+
+    /**
+     * Close the transactions and the connections
+     */
+    @Override
+    public void close() {
+      connections.forEach(connection -> {
+        try {
+          connection.rollback();
+        } catch (SQLException e) {
+          LOGGER.debug("Failed to end the transaction of the snapshot", e);
+        }
+        JdbcUtils.closeConnection(connection);
+      });
+    }
+
+    private User toUser(ResultSet resultSet) throws SQLException {
+      User user = new User();
+      user.setId(resultSet.getString("ID"));
+      user.setName(resultSet.getString("NAME"));
+      user.setAge((Integer) JdbcUtils.getResultSetValue(resultSet, resultSet.findColumn("AGE"), Integer.class));
+      return user;
+    }
+
+    private Address toAddress(ResultSet resultSet) throws SQLException {
+      Address address = new Address();
+      address.setId(resultSet.getString("ID"));
+      address.setName(resultSet.getString("NAME"));
+      return address;
+    }
+
+    private Job toJob(ResultSet resultSet) throws SQLException {
+      Job job = new Job();
+      job.setId(resultSet.getString("ID"));
+      job.setName(resultSet.getString("NAME"));
+      job.setDescription(resultSet.getString("DESCRIPTION"));
+      job.setStartDate(resultSet.getTimestamp("START_DATE"));
+      job.setEndDate(resultSet.getTimestamp("END_DATE"));
+      return job;
+    }
+  }
+
+  /**
+   * Rows of a range of keys read with a server side cursor in the order of the keys
+   */
+  private class Cursor implements AutoCloseable {
+
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final String keyColumn;
+    private boolean hasRow;
+
+    Cursor(Connection connection, String select, String keyColumn, String fromKey, String toKey) throws SQLException {
+      this.keyColumn = keyColumn;
+
+      StringBuilder sql = new StringBuilder(select).append(" WHERE ").append(keyColumn).append(" IS NOT NULL");
+      if (Objects.nonNull(fromKey)) {
+        sql.append(" AND ").append(keyColumn).append(" >= ?");
+      }
+      if (Objects.nonNull(toKey)) {
+        sql.append(" AND ").append(keyColumn).append(" < ?");
+      }
+      sql.append(" ORDER BY ").append(keyColumn);
+
+      this.statement = connection.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY,
+                                                   ResultSet.CONCUR_READ_ONLY);
+      this.statement.setFetchSize(fetchSize);
+
+      int parameter = 1;
+      if (Objects.nonNull(fromKey)) {
+        statement.setString(parameter++, fromKey);
+      }
+      if (Objects.nonNull(toKey)) {
+        statement.setString(parameter, toKey);
+      }
+
+      this.resultSet = statement.executeQuery();
+      this.hasRow = resultSet.next();
+    }
+
+    boolean hasRow() {
+      return hasRow;
+    }
+
+    ResultSet getResultSet() {
+      return resultSet;
+    }
+
+    void next() throws SQLException {
+      hasRow = resultSet.next();
+    }
+
+    /**
+     * Skip the rows of the keys before a key, they belong to users that were not read
+     */
+    void skipBefore(String key) throws SQLException {
+      while (hasRow && KEY_ORDER.compare(resultSet.getString(keyColumn), key) < 0) {
+        next();
+      }
+    }
+
+    boolean isAt(String key) throws SQLException {
+      return hasRow && KEY_ORDER.compare(resultSet.getString(keyColumn), key) == 0;
+    }
+
+    @Override
+    public void close() {
+      JdbcUtils.closeResultSet(resultSet);
+      JdbcUtils.closeStatement(statement);
+    }
+  }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.ToString;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Pending writes of the index {@link User} that will be sent in a single bulk request.
+ * <p>
+ * Only the last state of each document is kept so a batch never writes the same user twice.
+ * Deletes are sent first, then the documents and finally the partial updates in the order they were added.
+ * <p>
+ * The batch also carries the {@link UserLookup} of the users that were fetched before handling the events.
+ * <p>
+ * The highest version recorded for a user, the binlog position of his last change or the version of his document that
+ * was read, is sent as the external version of the writes of his document.
+ *
+ * @author Joumen Harzli
+ */
+@ToString(exclude = "lookup")
+public class UserWriteBatch {
+
+  private final Map<String, User> documents = Maps.newLinkedHashMap();
+  private final Set<String> deletedIds = Sets.newLinkedHashSet();
+  private final List<UserScriptUpdate> updates = Lists.newArrayList();
+  private final Map<String, Long> versions = Maps.newHashMap();
+  private final UserLookup lookup;
+  private final String indexName;
+
+  public UserWriteBatch() {
+    this(UserLookup.empty());
+  }
+
+  public UserWriteBatch(UserLookup lookup) {
+    this(lookup, null);
+  }
+
+  /**
+   * @param lookup    the users fetched before handling the events
+   * @param indexName the index where the writes are sent or null for the index of the users
+   */
+  public UserWriteBatch(UserLookup lookup, String indexName) {
+    Assert.notNull(lookup, "Lookup cannot be null");
+
+    this.lookup = lookup;
+    this.indexName = indexName;
+  }
+
+  /**
+   * Add or replace the document of a user
+   *
+   * @param user the user to index
+   * @throws IllegalArgumentException if the user or his id is null
+   */
+  public void index(User user) {
+    Assert.notNull(user, "User cannot be null");
+    Assert.hasText(user.getId(), "User id cannot be null/empty");
+
+    deletedIds.remove(user.getId());
+    documents.put(user.getId(), user);
+  }
+
+  /**
+   * Add a partial update of the document of a user
+   *
+   * @param update the update to execute
+   * @throws IllegalArgumentException if the update or the id of the user is null
+   */
+  public void update(UserScriptUpdate update) {
+    Assert.notNull(update, "Update cannot be null");
+    Assert.hasText(update.getId(), "User id cannot be null/empty");
+
+    updates.add(update);
+  }
+
+  /**
+   * Remove the document of a user and discard his previous pending writes
+   *
+   * @param id id of the user to delete
+   * @throws IllegalArgumentException if the id is null/empty
+   */
+  public void delete(String id) {
+    Assert.hasText(id, "User id cannot be null/empty");
+
+    documents.remove(id);
+    updates.removeIf(update -> id.equals(update.getId()));
+    deletedIds.add(id);
+  }
+
+  /**
+   * Discard all the pending writes and the versions of a user
+   *
+   * @param id id of the user
+   * @throws IllegalArgumentException if the id is null/empty
+   */
+  public void discard(String id) {
+    Assert.hasText(id, "User id cannot be null/empty");
+
+    documents.remove(id);
+    deletedIds.remove(id);
+    updates.removeIf(update -> id.equals(update.getId()));
+    versions.remove(id);
+  }
+
+  /**
+   * Record a version of the document of a user, only the highest one is kept
+   *
+   * @param id      id of the user
+   * @param version binlog position of a change or version of the document that was read
+   * @throws IllegalArgumentException if the id is null/empty
+   */
+  public void recordVersion(String id, long version) {
+    Assert.hasText(id, "User id cannot be null/empty");
+
+    versions.merge(id, version, Math::max);
+  }
+
+  /**
+   * Record the version of the document of a user returned by the index once it was written
+   *
+   * @param id      id of the user
+   * @param version new version of the document
+   * @throws IllegalArgumentException if the id is null/empty
+   */
+  public void recordWrittenVersion(String id, long version) {
+    Assert.hasText(id, "User id cannot be null/empty");
+
+    versions.put(id, version);
+  }
+
+  /**
+   * @param id id of the user
+   * @return the highest version recorded for the user or the version of his document once it was written
+   */
+  public Optional<Long> getVersion(String id) {
+    return Optional.ofNullable(versions.get(id));
+  }
+
+  /**
+   * @param id id of the user
+   * @return the pending document of the user if it was indexed in this batch
+   */
+  public Optional<User> getDocument(String id) {
+    return Optional.ofNullable(documents.get(id));
+  }
+
+  /**
+   * @param id id of the user
+   * @return true if the user was deleted in this batch
+   */
+  public boolean isDeleted(String id) {
+    return deletedIds.contains(id);
+  }
+
+  public UserLookup getLookup() {
+    return lookup;
+  }
+
+  /**
+   * @return the index where the writes are sent if it is not the index of the users
+   */
+  public Optional<String> getIndexName() {
+    return Optional.ofNullable(indexName);
+  }
+
+  public Collection<User> getDocuments() {
+    return Collections.unmodifiableCollection(documents.values());
+  }
+
+  public Set<String> getDeletedIds() {
+    return Collections.unmodifiableSet(deletedIds);
+  }
+
+  public List<UserScriptUpdate> getUpdates() {
+    return Collections.unmodifiableList(updates);
+  }
+
+  /**
+   * @return the ids of all the users that have pending writes
+   */
+  public Set<String> getUserIds() {
+    Set<String> ids = Sets.newHashSet(documents.keySet());
+    ids.addAll(deletedIds);
+    updates.forEach(update -> ids.add(update.getId()));
+    return ids;
+  }
+
+  public boolean isEmpty() {
+    return documents.isEmpty() && deletedIds.isEmpty() && updates.isEmpty();
+  }
+
+  public int size() {
+    return documents.size() + deletedIds.size() + updates.size();
+  }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.service;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.Address;
+import com.github.joumenharzli.cdc.denormalizer.domain.Job;
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.github.joumenharzli.cdc.denormalizer.exception.StaleDocumentException;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserCache;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserLookup;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserRepository;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserScriptUpdate;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserWriteBatch;
+import com.github.joumenharzli.cdc.denormalizer.service.dto.AddressDto;
+import com.github.joumenharzli.cdc.denormalizer.service.dto.JobDto;
+import com.github.joumenharzli.cdc.denormalizer.service.dto.UserDto;
+import com.github.joumenharzli.cdc.denormalizer.service.mapper.AddressMapper;
+import com.github.joumenharzli.cdc.denormalizer.service.mapper.JobMapper;
+import com.github.joumenharzli.cdc.denormalizer.service.mapper.UserMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * User Service that changes the documents using partial updates executed on the server side.
+ * <p>
+ * The documents are never read: the columns of the user are merged in the document and the addresses and jobs
+ * are added, replaced or removed by id using painless scripts. When the document does not exist yet it is
+ * created from the received changes.
+ * <p>
+ * The updated users are evicted from the {@link UserCache} because their new documents are only known by the index.
+ *
+ * @author Joumen Harzli
+ */
+@Service
+@ConditionalOnProperty(name = "application.denormalizer.updateMode", havingValue = "script")
+@RequiredArgsConstructor
+@Slf4j
+public class ScriptedUserServiceImpl implements UserService {
+
+  private static final String ADDRESSES = "addresses";
+  private static final String JOBS = "jobs";
+
+  private static final String SAVE_USER_SCRIPT =
+      "ctx._source.name = params.name; ctx._source.age = params.age;";
+
+  private static final String SAVE_ELEMENT_SCRIPT =
+      "if (ctx._source[params.field] == null) { ctx._source[params.field] = []; } " +
+      "ctx._source[params.field].removeIf(e -> e.id == params.element.id); " +
+      "ctx._source[params.field].add(params.element);";
+
+  private static final String REMOVE_ELEMENT_SCRIPT =
+      "if (ctx._source[params.field] != null) { ctx._source[params.field].removeIf(e -> e.id == params.id); }";
+
+  private final UserRepository userRepository;
+  private final UserCache userCache;
+  private final UserMapper userMapper;
+  private final AddressMapper addressMapper;
+  private final JobMapper jobMapper;
+
+  @Override
+  public void save(UserWriteBatch batch, UserDto userDto) {
+    LOGGER.debug("Request to save user : {}", userDto);
+
+    Assert.notNull(userDto, "User cannot be null");
+    Assert.hasText(userDto.getId(), "User id cannot be null/empty");
+
+    //@formatter:off
+    batch.update(UserScriptUpdate.builder()
+                                 .id(userDto.getId())
+                                 .script(SAVE_USER_SCRIPT)
+                                 .param("name", userDto.getName())
+                                 .param("age", userDto.getAge())
+                                 .upsert(userMapper.toEntity(userDto))
+                                 .build());
+    //@formatter:on
+  }
+
+  @Override
+  public void delete(UserWriteBatch batch, UserDto userDto) {
+    LOGGER.debug("Request to delete the user : {}", userDto);
+
+    Assert.notNull(userDto, "User cannot be null");
+    Assert.hasText(userDto.getId(), "User id cannot be null/empty");
+
+    batch.delete(userDto.getId());
+  }
+
+  @Override
+  public void saveUserAddress(UserWriteBatch batch, AddressDto addressDto) {
+    LOGGER.debug("Request to save address {} of the user", addressDto);
+
+    Assert.notNull(addressDto, "Address cannot be null");
+
+    String userId = addressDto.getUserId();
+
+    if (StringUtils.isEmpty(userId)) {
+      LOGGER.debug("Request to save address {} of the user is ignored", addressDto);
+      return;
+    }
+
+    Address address = addressMapper.toEntity(addressDto);
+
+    User upsert = new User();
+    upsert.setId(userId);
+    upsert.getAddresses().add(address);
+
+    batch.update(saveElement(userId, ADDRESSES, address, upsert));
+  }
+
+  @Override
+  public void deleteUserAddress(UserWriteBatch batch, AddressDto addressDto) {
+    LOGGER.debug("Request to delete address {} of the user", addressDto);
+
+    Assert.notNull(addressDto, "Address cannot be null");
+
+    String userId = addressDto.getUserId();
+
+    if (StringUtils.isEmpty(userId)) {
+      LOGGER.debug("Request to remove address {} of the user is ignored", addressDto);
+      return;
+    }
+
+    batch.update(removeElement(userId, ADDRESSES, addressDto.getId()));
+  }
+
+  @Override
+  public void saveUserJob(UserWriteBatch batch, JobDto jobDto) {
+    LOGGER.debug("Request to save job {} of the user", jobDto);
+
+    Assert.notNull(jobDto, "Job cannot be null");
+
+    String userId = jobDto.getUserId();
+
+    if (StringUtils.isEmpty(userId)) {
+      LOGGER.debug("Request to save job {} of the user is ignored", jobDto);
+      return;
+    }
+
+    Job job = jobMapper.toEntity(jobDto);
+
+    User upsert = new User();
+    upsert.setId(userId);
+    upsert.getJobs().add(job);
+
+    batch.update(saveElement(userId, JOBS, job, upsert));
+  }
+
+  @Override
+  public void deleteUserJob(UserWriteBatch batch, JobDto jobDto) {
+    LOGGER.debug("Request to delete job {} of the user", jobDto);
+
+    Assert.notNull(jobDto, "Job cannot be null");
+
+    String userId = jobDto.getUserId();
+
+    if (StringUtils.isEmpty(userId)) {
+      LOGGER.debug("Request to remove job {} of the user is ignored", jobDto);
+      return;
+    }
+
+    batch.update(removeElement(userId, JOBS, jobDto.getId()));
+  }
+
+  @Override
+  public void flush(UserWriteBatch batch) {
+    LOGGER.debug("Request to flush {} writes", batch.size());
+
+    Set<String> staleIds;
+
+    try {
+      staleIds = userRepository.bulk(batch);
+    } finally {
+      // the documents are changed on the server side so they are never cached, even when the bulk has failed
+      userCache.invalidateAll(batch.getUserIds());
+    }
+
+    if (!staleIds.isEmpty()) {
+      throw new StaleDocumentException(staleIds);
+    }
+  }
+
+  /**
+   * The documents are never read in this mode so nothing is fetched
+   */
+  @Override
+  public UserLookup prefetch(Collection<String> ids) {
+    return UserLookup.empty();
+  }
+
+  /**
+   * Create an update that adds or replaces an element of a nested field of the user
+   */
+  private UserScriptUpdate saveElement(String userId, String field, Object element, User upsert) {
+    //@formatter:off
+    return UserScriptUpdate.builder()
+                           .id(userId)
+                           .script(SAVE_ELEMENT_SCRIPT)
+                           .param("field", field)
+                           .param("element", element)
+                           .upsert(upsert)
+                           .build();
+    //@formatter:on
+  }
+
+  /**
+   * Create an update that removes an element of a nested field of the user using its id
+   */
+  private UserScriptUpdate removeElement(String userId, String field, String elementId) {
+    //@formatter:off
+    return UserScriptUpdate.builder()
+                           .id(userId)
+                           .script(REMOVE_ELEMENT_SCRIPT)
+                           .param("field", field)
+                           .param("id", elementId)
+                           .build();
+    //@formatter:on
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.service;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.BinlogPosition;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserBulkLoader;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserRepository;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserTableReader;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Service that rebuilds the index of the users from the tables of the database
+ * <p>
+ * The tables are read from a consistent snapshot by parallel workers, each one reads a range of users.
+ * The users are loaded into a new index named after the time of the rebuild, with the replicas and the refresh
+ * disabled, and with the binlog position of the snapshot as their version. Then the alias of the users is moved
+ * to the new index, the previous index is kept. An index that has the name of the alias is only deleted when its
+ * replacement is enabled, otherwise the rebuild fails before reading the tables.
+ * <p>
+ * The binlog position of the snapshot is stored in the metadata of the mapping of the new index once all the users
+ * are loaded, an index whose loading has failed has no position and is never used as a checkpoint.
+ *
+ * @author Joumen Harzli
+ */
+@Service
+@ConditionalOnProperty(name = "application.denormalizer.rebuild.enabled", havingValue = "true")
+@Slf4j
+public class UserRebuildService {
+
+  public static final String BINLOG_FILE_META = "binlogFile";
+  public static final String BINLOG_POSITION_META = "binlogPosition";
+  public static final String BINLOG_VERSION_META = "binlogVersion";
+
+  private static final DateTimeFormatter INDEX_SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+  private static final int LOADING_REPLICAS = 0;
+  private static final String LOADING_REFRESH_INTERVAL = "-1";
+
+  private final UserTableReader userTableReader;
+  private final UserRepository userRepository;
+  private final ElasticsearchTemplate elasticsearchTemplate;
+
+  @Value("${application.denormalizer.rebuild.workers}")
+  private int workers;
+
+  @Value("${application.denormalizer.rebuild.lockTables}")
+  private boolean lockTables;
+
+  @Value("${application.denormalizer.rebuild.numberOfReplicas}")
+  private int numberOfReplicas;
+
+  @Value("${application.denormalizer.rebuild.refreshInterval}")
+  private String refreshInterval;
+
+  @Value("${application.denormalizer.rebuild.replaceIndex:false}")
+  private boolean replaceIndex;
+
+  public UserRebuildService(UserTableReader userTableReader, UserRepository userRepository,
+                            ElasticsearchTemplate elasticsearchTemplate) {
+    this.userTableReader = userTableReader;
+    this.userRepository = userRepository;
+    this.elasticsearchTemplate = elasticsearchTemplate;
+  }
+
+  /**
+   * Rebuild the index and move the alias of the users to it
+   *
+   * @return the binlog position of the rebuilt index
+   */
+  public BinlogPosition rebuild() {
+    String alias = elasticsearchTemplate.getPersistentEntityFor(User.class).getIndexName();
+    String indexName = alias + "-" + INDEX_SUFFIX_FORMAT.format(LocalDateTime.now());
+
+    LOGGER.info("Request to rebuild the index {} using {} workers", indexName, workers);
+
+    if (!replaceIndex && userRepository.isConcreteIndex()) {
+      throw new IllegalStateException("The index " + alias + " is not an alias, enable its replacement to " +
+                                      "delete it once the index is rebuilt");
+    }
+
+    try (UserTableReader.Snapshot snapshot = userTableReader.openSnapshot(workers, lockTables)) {
+
+      //@formatter:off
+      BinlogPosition position = BinlogPosition.fromSource(ImmutableMap.of("file", snapshot.getBinlogFile(),
+                                                                          "pos", snapshot.getBinlogPosition()))
+                                              .orElseThrow(() -> new IllegalStateException("No binlog position"));
+
+      Map<String, Object> meta = ImmutableMap.<String, Object>builder()
+          .put(BINLOG_FILE_META, snapshot.getBinlogFile())
+          .put(BINLOG_POSITION_META, snapshot.getBinlogPosition())
+          .put(BINLOG_VERSION_META, position.toVersion())
+          .build();
+      //@formatter:on
+
+      LOGGER.info("Snapshot of the tables is at the position {} of the binlog {}", snapshot.getBinlogPosition(),
+                  snapshot.getBinlogFile());
+
+      userRepository.createIndex(indexName, LOADING_REPLICAS, LOADING_REFRESH_INTERVAL, Collections.emptyMap());
+
+      try (UserBulkLoader loader = userRepository.openBulkLoader(indexName, position.toVersion(), workers)) {
+        load(snapshot, loader);
+      }
+
+      userRepository.updateIndexSettings(indexName, numberOfReplicas, refreshInterval);
+      userRepository.updateIndexMeta(indexName, meta);
+      userRepository.moveAlias(indexName, replaceIndex);
+
+      return position;
+    }
+  }
+
+  /**
+   * Read the ranges of users in parallel and add them to the loader
+   */
+  private void load(UserTableReader.Snapshot snapshot, UserBulkLoader loader) {
+    List<String> bounds = Lists.newArrayList();
+    bounds.add(null);
+    bounds.addAll(snapshot.splitKeys(workers));
+    bounds.add(null);
+
+    ExecutorService executor = Executors.newFixedThreadPool(workers,
+                                                            new ThreadFactoryBuilder().setNameFormat("rebuild-%d").build());
+
+    try {
+      List<CompletableFuture<Void>> futures = Lists.newArrayList();
+      for (int range = 0; range < bounds.size() - 1; range++) {
+        int connection = range;
+        String fromKey = bounds.get(range);
+        String toKey = bounds.get(range + 1);
+
+        futures.add(CompletableFuture.runAsync(() -> {
+          LOGGER.info("Reading the users from {} to {}", fromKey, toKey);
+          snapshot.read(connection, fromKey, toKey, loader::add);
+        }, executor));
+      }
+
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+}
@@ -15,11 +15,13 @@
 
 package com.github.joumenharzli.cdc.denormalizer.service;
 
+import com.github.joumenharzli.cdc.denormalizer.repository.UserLookup;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserWriteBatch;
 import com.github.joumenharzli.cdc.denormalizer.service.dto.AddressDto;
 import com.github.joumenharzli.cdc.denormalizer.service.dto.JobDto;
 import com.github.joumenharzli.cdc.denormalizer.service.dto.UserDto;
 
-import reactor.core.publisher.Mono;
+import java.util.Collection;
 
 /**
  * UserService
@@ -27,15 +29,32 @@ import reactor.core.publisher.Mono;
  * @author Joumen Harzli
  */
 public interface UserService {
-  void save(UserDto userDto);
+  void save(UserWriteBatch batch, UserDto userDto);
 
-  void saveUserAddress(AddressDto addressDto);
+  void saveUserAddress(UserWriteBatch batch, AddressDto addressDto);
 
-  void saveUserJob(JobDto jobDto);
+  void saveUserJob(UserWriteBatch batch, JobDto jobDto);
 
-  void delete(UserDto userDto);
+  void delete(UserWriteBatch batch, UserDto userDto);
 
-  void deleteUserJob(JobDto jobDto);
+  void deleteUserJob(UserWriteBatch batch, JobDto jobDto);
 
-  void deleteUserAddress(AddressDto addressDto);
+  void deleteUserAddress(UserWriteBatch batch, AddressDto addressDto);
+
+  /**
+   * Write the changes of a batch
+   *
+   * @param batch the changes to write
+   * @throws com.github.joumenharzli.cdc.denormalizer.exception.StaleDocumentException if the index has rejected
+   *                                                                                   stale documents of the batch
+   */
+  void flush(UserWriteBatch batch);
+
+  /**
+   * Fetch the users that will be changed by a batch of events
+   *
+   * @param ids ids of the users
+   * @return the fetched users
+   */
+  UserLookup prefetch(Collection<String> ids);
 }
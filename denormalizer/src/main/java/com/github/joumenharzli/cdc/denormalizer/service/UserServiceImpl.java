@@ -15,59 +15,83 @@
 
 package com.github.joumenharzli.cdc.denormalizer.service;
 
+import com.github.joumenharzli.cdc.denormalizer.domain.Address;
+import com.github.joumenharzli.cdc.denormalizer.domain.Job;
 import com.github.joumenharzli.cdc.denormalizer.domain.User;
 import com.github.joumenharzli.cdc.denormalizer.exception.EntityNotFoundException;
+import com.github.joumenharzli.cdc.denormalizer.exception.StaleDocumentException;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserCache;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserLookup;
 import com.github.joumenharzli.cdc.denormalizer.repository.UserRepository;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserWriteBatch;
 import com.github.joumenharzli.cdc.denormalizer.service.dto.AddressDto;
 import com.github.joumenharzli.cdc.denormalizer.service.dto.JobDto;
 import com.github.joumenharzli.cdc.denormalizer.service.dto.UserDto;
 import com.github.joumenharzli.cdc.denormalizer.service.mapper.AddressMapper;
 import com.github.joumenharzli.cdc.denormalizer.service.mapper.JobMapper;
 import com.github.joumenharzli.cdc.denormalizer.service.mapper.UserMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
-import java.util.function.Supplier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
- * User Service
+ * User Service that reads the document of the user, applies the changes and writes the whole document
+ * <p>
+ * The version of the document that was read is recorded in the batch so the document is never written with
+ * a lower version and the index rejects it when another writer has written a newer version in the meantime.
  *
  * @author Joumen Harzli
  */
 @Service
+@ConditionalOnProperty(name = "application.denormalizer.updateMode", havingValue = "document", matchIfMissing = true)
 @RequiredArgsConstructor
 @Slf4j
 public class UserServiceImpl implements UserService {
 
   private final UserRepository userRepository;
+  private final UserCache userCache;
   private final UserMapper userMapper;
   private final AddressMapper addressMapper;
   private final JobMapper jobMapper;
 
   @Override
-  public void save(UserDto userDto) {
+  public void save(UserWriteBatch batch, UserDto userDto) {
     LOGGER.debug("Request to save user : {}", userDto);
 
     Assert.notNull(userDto, "User cannot be null");
+    Assert.hasText(userDto.getId(), "User id cannot be null/empty");
 
-    userRepository.save(userMapper.toEntity(userDto));
+    // keep the addresses and the jobs that are already in the document of the user
+    User user = findOrCreate(batch, userDto.getId());
+    userMapper.updateEntity(userDto, user);
+    batch.index(user);
   }
 
   @Override
-  public void delete(UserDto userDto) {
+  public void delete(UserWriteBatch batch, UserDto userDto) {
     LOGGER.debug("Request to delete the user : {}", userDto);
 
     Assert.notNull(userDto, "User cannot be null");
     Assert.hasText(userDto.getId(), "User id cannot be null/empty");
 
-    userRepository.delete(findById(userDto.getId()));
+    batch.delete(findById(batch, userDto.getId()).getId());
   }
 
   @Override
-  public void saveUserAddress(AddressDto addressDto) {
+  public void saveUserAddress(UserWriteBatch batch, AddressDto addressDto) {
     LOGGER.debug("Request to save address {} of the user", addressDto);
 
     Assert.notNull(addressDto, "Address cannot be null");
@@ -79,13 +103,16 @@ public class UserServiceImpl implements UserService {
       return;
     }
 
-    User user = findById(userId);
-    user.getAddresses().add(addressMapper.toEntity(addressDto));
-    userRepository.save(user);
+    Address address = addressMapper.toEntity(addressDto);
+
+    User user = findById(batch, userId);
+    user.getAddresses().remove(address);
+    user.getAddresses().add(address);
+    batch.index(user);
   }
 
   @Override
-  public void deleteUserAddress(AddressDto addressDto) {
+  public void deleteUserAddress(UserWriteBatch batch, AddressDto addressDto) {
     LOGGER.debug("Request to delete address {} of the user", addressDto);
 
     Assert.notNull(addressDto, "Address cannot be null");
@@ -97,13 +124,13 @@ public class UserServiceImpl implements UserService {
       return;
     }
 
-    User user = findById(userId);
+    User user = findById(batch, userId);
     user.getAddresses().remove(addressMapper.toEntity(addressDto));
-    userRepository.save(user);
+    batch.index(user);
   }
 
   @Override
-  public void saveUserJob(JobDto jobDto) {
+  public void saveUserJob(UserWriteBatch batch, JobDto jobDto) {
     LOGGER.debug("Request to save job {} of the user", jobDto);
 
     Assert.notNull(jobDto, "Job cannot be null");
@@ -115,13 +142,16 @@ public class UserServiceImpl implements UserService {
       return;
     }
 
-    User user = findById(userId);
-    user.getJobs().add(jobMapper.toEntity(jobDto));
-    userRepository.save(user);
+    Job job = jobMapper.toEntity(jobDto);
+
+    User user = findById(batch, userId);
+    user.getJobs().remove(job);
+    user.getJobs().add(job);
+    batch.index(user);
   }
 
   @Override
-  public void deleteUserJob(JobDto jobDto) {
+  public void deleteUserJob(UserWriteBatch batch, JobDto jobDto) {
     LOGGER.debug("Request to delete job {} of the user", jobDto);
 
     Assert.notNull(jobDto, "Job cannot be null");
@@ -133,17 +163,122 @@ public class UserServiceImpl implements UserService {
       return;
     }
 
-    User user = findById(userId);
+    User user = findById(batch, userId);
     user.getJobs().remove(jobMapper.toEntity(jobDto));
-    userRepository.save(user);
+    batch.index(user);
+  }
+
+  @Override
+  public void flush(UserWriteBatch batch) {
+    LOGGER.debug("Request to flush {} writes", batch.size());
+
+    Set<String> cachedIds = Sets.newHashSet();
+
+    try {
+      Set<String> staleIds = userRepository.bulk(batch);
+
+      // write-through once the index has acknowledged the writes
+      //@formatter:off
+      List<User> writtenUsers = batch.getDocuments()
+                                     .stream()
+                                     .filter(user -> !staleIds.contains(user.getId()))
+                                     .collect(Collectors.toList());
+      //@formatter:on
+      writtenUsers.forEach(user -> batch.getVersion(user.getId()).ifPresent(user::setVersion));
+      userCache.putAll(writtenUsers);
+      writtenUsers.forEach(user -> cachedIds.add(user.getId()));
+
+      if (!staleIds.isEmpty()) {
+        throw new StaleDocumentException(staleIds);
+      }
+    } finally {
+      // the other users may have changed in the index even when the bulk has failed
+      userCache.invalidateAll(Sets.difference(batch.getUserIds(), cachedIds));
+    }
   }
 
-  private User findById(String id) {
+  @Override
+  public UserLookup prefetch(Collection<String> ids) {
+    LOGGER.debug("Request to prefetch the users with ids : {}", ids);
+
+    Assert.notNull(ids, "Ids cannot be null");
+
+    if (ids.isEmpty()) {
+      return UserLookup.empty();
+    }
+
+    Map<String, User> users = userCache.getAll(ids);
+
+    Set<String> missingIds = Sets.difference(Sets.newHashSet(ids), users.keySet());
+
+    if (!missingIds.isEmpty()) {
+      Iterable<User> fetchedUsers = userRepository.findAllById(missingIds);
+      fetchedUsers.forEach(user -> users.put(user.getId(), user));
+      userCache.putAll(Lists.newArrayList(fetchedUsers));
+    }
+
+    return new UserLookup(ids, users.values());
+  }
+
+  /**
+   * Find a user in the batch or in the index or create a new one
+   */
+  private User findOrCreate(UserWriteBatch batch, String id) {
+    LOGGER.debug("Request to find or create the user with id : {}", id);
+
+    if (batch.isDeleted(id)) {
+      return new User();
+    }
+
+    return find(batch, id).orElseGet(User::new);
+  }
+
+  /**
+   * Find a user in the batch or in the index
+   */
+  private User findById(UserWriteBatch batch, String id) {
     LOGGER.debug("Request to find the user with id : {}", id);
 
-    return userRepository.findById(id)
+    if (batch.isDeleted(id)) {
+      throw new EntityNotFoundException(String.format("Entity with id %s was deleted", id));
+    }
+
+    return find(batch, id)
         .orElseThrow(() -> new EntityNotFoundException(String.format("Entity with id %s was not found", id)));
   }
 
+  /**
+   * Find a user in the pending writes of the batch, then in the prefetched users, in the cache
+   * and finally in the index. The version of the user that was read is recorded in the batch so his document is
+   * never written with a lower version.
+   */
+  private Optional<User> find(UserWriteBatch batch, String id) {
+    Optional<User> pending = batch.getDocument(id);
+
+    if (pending.isPresent()) {
+      return pending;
+    }
+
+    Optional<User> user = read(batch, id);
+    user.map(User::getVersion).ifPresent(version -> batch.recordVersion(id, version));
+    return user;
+  }
+
+  private Optional<User> read(UserWriteBatch batch, String id) {
+    if (batch.getLookup().contains(id)) {
+      return batch.getLookup().get(id);
+    }
+
+    Optional<User> cached = userCache.get(id);
+
+    if (cached.isPresent()) {
+      return cached;
+    }
+
+    Optional<User> user = userRepository.findById(id);
+    user.ifPresent(found -> userCache.putAll(Collections.singleton(found)));
+    return user;
+  }
+
 
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.service;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.Address;
+import com.github.joumenharzli.cdc.denormalizer.domain.Job;
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserCache;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserRepository;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserScriptUpdate;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserSnapshotBatch;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserWriteBatch;
+import com.github.joumenharzli.cdc.denormalizer.service.dto.AddressDto;
+import com.github.joumenharzli.cdc.denormalizer.service.dto.JobDto;
+import com.github.joumenharzli.cdc.denormalizer.service.dto.UserDto;
+import com.github.joumenharzli.cdc.denormalizer.service.mapper.AddressMapper;
+import com.github.joumenharzli.cdc.denormalizer.service.mapper.JobMapper;
+import com.github.joumenharzli.cdc.denormalizer.service.mapper.UserMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import java.util.stream.Collectors;
+
+/**
+ * User Service that loads the rows read during the initial snapshot
+ * <p>
+ * The rows are merged into the aggregates of the users in memory, then each aggregate is written with a single
+ * scripted update that merges it into the document of the user without reading it, or indexes it when the
+ * document does not exist yet.
+ *
+ * @author Joumen Harzli
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UserSnapshotService {
+
+  private static final String MERGE_USER_SCRIPT =
+      "if (params.complete) { ctx._source.name = params.user.name; ctx._source.age = params.user.age; } " +
+      "for (String field : ['addresses', 'jobs']) { " +
+      "if (ctx._source[field] == null) { ctx._source[field] = []; } " +
+      "for (def element : params.user[field]) { " +
+      "ctx._source[field].removeIf(e -> e.id == element.id); ctx._source[field].add(element); } }";
+
+  private final UserRepository userRepository;
+  private final UserCache userCache;
+  private final UserMapper userMapper;
+  private final AddressMapper addressMapper;
+  private final JobMapper jobMapper;
+
+  public void loadUser(UserSnapshotBatch batch, UserDto userDto) {
+    LOGGER.debug("Request to load user : {}", userDto);
+
+    Assert.notNull(userDto, "User cannot be null");
+    Assert.hasText(userDto.getId(), "User id cannot be null/empty");
+
+    userMapper.updateEntity(userDto, batch.getUser(userDto.getId()));
+    batch.complete(userDto.getId());
+  }
+
+  public void loadUserAddress(UserSnapshotBatch batch, AddressDto addressDto) {
+    LOGGER.debug("Request to load address {} of the user", addressDto);
+
+    Assert.notNull(addressDto, "Address cannot be null");
+
+    if (StringUtils.isEmpty(addressDto.getUserId())) {
+      LOGGER.debug("Request to load address {} of the user is ignored", addressDto);
+      return;
+    }
+
+    Address address = addressMapper.toEntity(addressDto);
+
+    User user = batch.getUser(addressDto.getUserId());
+    user.getAddresses().remove(address);
+    user.getAddresses().add(address);
+  }
+
+  public void loadUserJob(UserSnapshotBatch batch, JobDto jobDto) {
+    LOGGER.debug("Request to load job {} of the user", jobDto);
+
+    Assert.notNull(jobDto, "Job cannot be null");
+
+    if (StringUtils.isEmpty(jobDto.getUserId())) {
+      LOGGER.debug("Request to load job {} of the user is ignored", jobDto);
+      return;
+    }
+
+    Job job = jobMapper.toEntity(jobDto);
+
+    User user = batch.getUser(jobDto.getUserId());
+    user.getJobs().remove(job);
+    user.getJobs().add(job);
+  }
+
+  /**
+   * Write the aggregates of a batch
+   *
+   * @param batch the aggregates to write
+   * @throws org.springframework.data.elasticsearch.ElasticsearchException if any write has failed
+   */
+  public void flush(UserSnapshotBatch batch) {
+    LOGGER.debug("Request to flush {} aggregates", batch.size());
+
+    UserWriteBatch writeBatch = new UserWriteBatch();
+
+    //@formatter:off
+    batch.getUsers().forEach(user -> writeBatch.update(UserScriptUpdate.builder()
+                                                                       .id(user.getId())
+                                                                       .script(MERGE_USER_SCRIPT)
+                                                                       .param("complete", batch.isComplete(user.getId()))
+                                                                       .param("user", user)
+                                                                       .upsert(user)
+                                                                       .build()));
+    //@formatter:on
+
+    userRepository.bulk(writeBatch);
+
+    // the merged documents are only known by the index
+    userCache.invalidateAll(batch.getUsers().stream().map(User::getId).collect(Collectors.toList()));
+  }
+
+}
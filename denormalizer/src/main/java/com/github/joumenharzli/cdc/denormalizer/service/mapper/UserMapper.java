@@ -16,6 +16,8 @@
 package com.github.joumenharzli.cdc.denormalizer.service.mapper;
 
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+import org.mapstruct.MappingTarget;
 import org.mapstruct.NullValueMappingStrategy;
 
 import com.github.joumenharzli.cdc.denormalizer.domain.User;
@@ -31,6 +33,17 @@ import com.github.joumenharzli.cdc.denormalizer.service.dto.UserDto;
     nullValueMappingStrategy = NullValueMappingStrategy.RETURN_DEFAULT)
 public interface UserMapper {
 
+  @Mapping(target = "version", ignore = true)
+  @Mapping(target = "addresses", ignore = true)
+  @Mapping(target = "jobs", ignore = true)
   User toEntity(UserDto user);
 
+  /**
+   * The version, the addresses and the jobs of the user are kept, the version is the one of the document that was read
+   */
+  @Mapping(target = "version", ignore = true)
+  @Mapping(target = "addresses", ignore = true)
+  @Mapping(target = "jobs", ignore = true)
+  void updateEntity(UserDto userDto, @MappingTarget User user);
+
 }
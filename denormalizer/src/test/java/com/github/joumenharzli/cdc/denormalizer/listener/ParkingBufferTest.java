@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ParkingBufferTest {
+
+  private static final String ADDRESSES = "mysqlcdc.cdc.ADDRESSES";
+
+  private ParkingBuffer parkingBuffer;
+
+  @Before
+  public void setUp() throws IOException {
+    parkingBuffer = new ParkingBuffer(new SimpleMeterRegistry(), new ObjectMapper(), mock(EventHandlerFactory.class),
+                                      100, 600, 0, "");
+  }
+
+  @Test
+  public void shouldHoldTheOffsetsOfTheParkedRecords() {
+    parkingBuffer.park("1", Arrays.asList(record(0, 5), record(0, 8)));
+
+    assertThat(parkingBuffer.getCommittableOffset(new TopicPartition(ADDRESSES, 0), 10)).isEqualTo(5);
+    assertThat(parkingBuffer.getCommittableOffset(new TopicPartition(ADDRESSES, 1), 10)).isEqualTo(10);
+  }
+
+  @Test
+  public void shouldForgetTheRecordsOfTheRevokedPartitions() {
+    parkingBuffer.park("1", Arrays.asList(record(0, 5), record(1, 3)));
+    parkingBuffer.park("2", Collections.singletonList(record(0, 7)));
+
+    parkingBuffer.onPartitionsRevoked(Collections.singletonList(new TopicPartition(ADDRESSES, 0)));
+
+    assertThat(parkingBuffer.getCommittableOffset(new TopicPartition(ADDRESSES, 0), 10)).isEqualTo(10);
+    assertThat(parkingBuffer.getCommittableOffset(new TopicPartition(ADDRESSES, 1), 10)).isEqualTo(3);
+    assertThat(parkingBuffer.drain("1")).extracting(ConsumerRecord::offset).containsExactly(3L);
+    assertThat(parkingBuffer.drain("2")).isEmpty();
+  }
+
+  @Test
+  public void shouldReturnTheParkedUsersToRecheck() {
+    parkingBuffer.park("1", Collections.singletonList(record(0, 5)));
+    parkingBuffer.park("2", Collections.singletonList(record(1, 3)));
+
+    assertThat(parkingBuffer.getUsersToRecheck()).containsExactlyInAnyOrder("1", "2");
+  }
+
+  private static ConsumerRecord<String, DebeziumEvent> record(int partition, long offset) {
+    return new ConsumerRecord<>(ADDRESSES, partition, offset, null, new DebeziumEvent());
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener;
+
+import com.github.joumenharzli.cdc.denormalizer.listener.support.DebeziumEvent;
+import com.github.joumenharzli.cdc.denormalizer.repository.UserRepository;
+import com.github.joumenharzli.cdc.denormalizer.service.UserSnapshotService;
+import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SnapshotLoaderTest {
+
+  private static final String USERS = "mysqlcdc.cdc.USERS";
+  private static final String ADDRESSES = "mysqlcdc.cdc.ADDRESSES";
+
+  private UserRepository userRepository;
+  private SnapshotLoader snapshotLoader;
+
+  @Before
+  public void setUp() {
+    userRepository = mock(UserRepository.class);
+
+    snapshotLoader = new SnapshotLoader(mock(EventHandlerFactory.class), mock(UserSnapshotService.class),
+                                        userRepository, mock(FreshnessRecorder.class), mock(ChangePublisher.class),
+                                        true, 1, "1s", 0);
+  }
+
+  @Test
+  public void shouldRestoreTheSettingsOnceEveryPartitionHasPassedTheSnapshot() {
+    when(userRepository.createIndexIfMissing(0, "-1")).thenReturn(true);
+    snapshotLoader.init();
+
+    snapshotLoader.track(Arrays.asList(snapshot(USERS, 0, "true"), snapshot(ADDRESSES, 0, "true")));
+    snapshotLoader.track(Arrays.asList(live(USERS, 0), snapshot(ADDRESSES, 0, "true")));
+
+    assertThat(snapshotLoader.isLoading()).isTrue();
+
+    snapshotLoader.track(Arrays.asList(live(ADDRESSES, 0)));
+
+    assertThat(snapshotLoader.isLoading()).isFalse();
+    verify(userRepository).updateIndexSettings(1, "1s");
+  }
+
+  @Test
+  public void shouldNotRestoreTheSettingsBeforeTheEndOfTheSnapshot() throws InterruptedException {
+    when(userRepository.createIndexIfMissing(0, "-1")).thenReturn(true);
+    snapshotLoader.init();
+
+    snapshotLoader.track(Arrays.asList(snapshot(USERS, 0, "true"), snapshot(USERS, 1, "true")));
+    Thread.sleep(5);
+    snapshotLoader.completeIdlePartitions();
+
+    assertThat(snapshotLoader.isLoading()).isTrue();
+    verify(userRepository, never()).updateIndexSettings(anyInt(), anyString());
+  }
+
+  @Test
+  public void shouldConsiderTheIdlePartitionsLoadedOnceTheSnapshotHasEnded() throws InterruptedException {
+    when(userRepository.createIndexIfMissing(0, "-1")).thenReturn(true);
+    snapshotLoader.init();
+
+    snapshotLoader.track(Arrays.asList(snapshot(USERS, 0, "true"), snapshot(ADDRESSES, 0, "last")));
+
+    assertThat(snapshotLoader.isLoading()).isTrue();
+
+    Thread.sleep(5);
+    snapshotLoader.completeIdlePartitions();
+
+    assertThat(snapshotLoader.isLoading()).isFalse();
+    verify(userRepository).updateIndexSettings(1, "1s");
+  }
+
+  @Test
+  public void shouldNeverChangeTheSettingsOfAnExistingIndex() {
+    when(userRepository.createIndexIfMissing(0, "-1")).thenReturn(false);
+    snapshotLoader.init();
+
+    snapshotLoader.track(Arrays.asList(snapshot(USERS, 0, "last"), live(USERS, 0)));
+
+    assertThat(snapshotLoader.isLoading()).isFalse();
+    verify(userRepository, never()).updateIndexSettings(anyInt(), anyString());
+  }
+
+  private static ConsumerRecord<String, DebeziumEvent> snapshot(String topic, int partition, String snapshot) {
+    return record(topic, partition, DebeziumEvent.DebeziumEventPayloadOperation.READ,
+                  ImmutableMap.of("snapshot", snapshot));
+  }
+
+  private static ConsumerRecord<String, DebeziumEvent> live(String topic, int partition) {
+    return record(topic, partition, DebeziumEvent.DebeziumEventPayloadOperation.UPDATE, ImmutableMap.of());
+  }
+
+  private static ConsumerRecord<String, DebeziumEvent> record(String topic, int partition,
+                                                              DebeziumEvent.DebeziumEventPayloadOperation operation,
+                                                              Map<String, Object> source) {
+    DebeziumEvent.DebeziumEventPayload payload = new DebeziumEvent.DebeziumEventPayload();
+    payload.setOperation(operation);
+    payload.setSource(source);
+
+    DebeziumEvent event = new DebeziumEvent();
+    event.setPayload(payload);
+
+    return new ConsumerRecord<>(topic, partition, 0, null, event);
+  }
+
+}
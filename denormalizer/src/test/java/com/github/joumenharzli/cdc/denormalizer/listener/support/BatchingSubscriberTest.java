@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import org.junit.After;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchingSubscriberTest {
+
+  private static final int BATCH_SIZE = 10;
+  private static final Duration BATCH_TIMEOUT = Duration.ofMillis(50);
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldStopRequestingWhileABatchIsHandled() throws InterruptedException {
+    AtomicLong requested = new AtomicLong();
+    AtomicLong emitted = new AtomicLong();
+    CountDownLatch firstBatchStarted = new CountDownLatch(1);
+    CountDownLatch slowSink = new CountDownLatch(1);
+    List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+    Flux<Integer> source = Flux.range(0, 100)
+                               .doOnRequest(requested::addAndGet)
+                               .doOnNext(item -> emitted.incrementAndGet());
+
+    source.subscribe(subscriber(batch -> {
+      firstBatchStarted.countDown();
+      await(slowSink);
+      batches.add(batch);
+    }, error -> {
+    }));
+
+    assertThat(firstBatchStarted.await(5, TimeUnit.SECONDS)).isTrue();
+    Thread.sleep(BATCH_TIMEOUT.toMillis() * 4);
+
+    assertThat(requested.get()).isEqualTo(BATCH_SIZE);
+    assertThat(emitted.get()).isEqualTo(BATCH_SIZE);
+
+    slowSink.countDown();
+    awaitBatches(batches, 100 / BATCH_SIZE);
+
+    assertThat(batches).allMatch(batch -> batch.size() == BATCH_SIZE);
+    assertThat(batches.stream().flatMap(List::stream).collect(Collectors.toList()))
+        .isEqualTo(IntStream.range(0, 100).boxed().collect(Collectors.toList()));
+  }
+
+  @Test
+  public void shouldNeverRequestMoreThanABatchAheadOfTheHandledItems() throws InterruptedException {
+    AtomicLong requested = new AtomicLong();
+    AtomicLong handled = new AtomicLong();
+    AtomicLong maximumAhead = new AtomicLong();
+    List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+    Flux<Integer> source = Flux.range(0, 95)
+                               .doOnRequest(n -> maximumAhead.accumulateAndGet(requested.addAndGet(n) - handled.get(), Math::max));
+
+    source.subscribe(subscriber(batch -> {
+      handled.addAndGet(batch.size());
+      batches.add(batch);
+    }, error -> {
+    }));
+
+    awaitBatches(batches, 10);
+
+    assertThat(maximumAhead.get()).isEqualTo(BATCH_SIZE);
+    assertThat(batches.stream().mapToInt(List::size).sum()).isEqualTo(95);
+  }
+
+  @Test
+  public void shouldHandleAPartialBatchOnceTheTimeoutHasElapsed() throws InterruptedException {
+    List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+    Flux.just(1, 2, 3).concatWith(Flux.never()).subscribe(subscriber(batches::add, error -> {
+    }));
+
+    awaitBatches(batches, 1);
+
+    assertThat(batches).containsExactly(Arrays.asList(1, 2, 3));
+  }
+
+  @Test
+  public void shouldCancelTheSubscriptionWhenABatchFails() throws InterruptedException {
+    AtomicLong requested = new AtomicLong();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    CountDownLatch failed = new CountDownLatch(1);
+    IllegalStateException exception = new IllegalStateException("Cluster unavailable");
+
+    BatchingSubscriber<Integer> subscriber = subscriber(batch -> {
+      throw exception;
+    }, error -> {
+      failure.set(error);
+      failed.countDown();
+    });
+
+    Flux.range(0, 100).doOnRequest(requested::addAndGet).subscribe(subscriber);
+
+    assertThat(failed.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(failure.get()).isSameAs(exception);
+    assertThat(subscriber.isDisposed()).isTrue();
+    assertThat(requested.get()).isEqualTo(BATCH_SIZE);
+  }
+
+  private BatchingSubscriber<Integer> subscriber(Consumer<List<Integer>> handler, Consumer<Throwable> errorHandler) {
+    return new BatchingSubscriber<>(BATCH_SIZE, BATCH_TIMEOUT, executor, handler, errorHandler);
+  }
+
+  private static void awaitBatches(List<List<Integer>> batches, int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (batches.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(batches).hasSize(count);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
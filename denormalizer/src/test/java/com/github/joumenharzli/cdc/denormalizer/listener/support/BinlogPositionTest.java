@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.listener.support;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BinlogPositionTest {
+
+  @Test
+  public void shouldReadThePositionFromTheSource() {
+    assertThat(BinlogPosition.fromSource(ImmutableMap.of("file", "mysql-bin.000003", "pos", 154, "row", 2)))
+        .contains(new BinlogPosition(3, 154, 2));
+  }
+
+  @Test
+  public void shouldUseTheFirstRowWhenTheSourceHasNoRow() {
+    assertThat(BinlogPosition.fromSource(ImmutableMap.of("file", "mysql-bin.000003", "pos", 154L)))
+        .contains(new BinlogPosition(3, 154, 0));
+  }
+
+  @Test
+  public void shouldIgnoreASourceWithoutPosition() {
+    assertThat(BinlogPosition.fromSource(null)).isEmpty();
+    assertThat(BinlogPosition.fromSource(Collections.emptyMap())).isEmpty();
+    assertThat(BinlogPosition.fromSource(ImmutableMap.of("file", "mysql-bin.000003"))).isEmpty();
+  }
+
+  @Test
+  public void shouldRejectAFileWithoutSequence() {
+    assertThatThrownBy(() -> BinlogPosition.fromSource(ImmutableMap.of("file", "mysql-bin", "pos", 154)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void shouldEncodeThePartsInTheirBits() {
+    assertThat(new BinlogPosition(1, 0, 0).toVersion()).isEqualTo(1L << 43);
+    assertThat(new BinlogPosition(0, 1, 0).toVersion()).isEqualTo(1L << 11);
+    assertThat(new BinlogPosition(0, 0, 1).toVersion()).isEqualTo(1L);
+  }
+
+  @Test
+  public void shouldKeepTheOrderOfThePositions() {
+    List<BinlogPosition> positions = Arrays.asList(new BinlogPosition(2, 5, 2),
+                                                   new BinlogPosition(1, (1L << 32) - 1, (1 << 11) - 1),
+                                                   new BinlogPosition(2, 4, 2000),
+                                                   new BinlogPosition(2, 5, 1),
+                                                   new BinlogPosition((1L << 20) - 1, 0, 0));
+
+    List<Long> versionsInOrderOfPositions = positions.stream()
+                                                     .sorted()
+                                                     .map(BinlogPosition::toVersion)
+                                                     .collect(Collectors.toList());
+
+    assertThat(versionsInOrderOfPositions).isSorted().doesNotHaveDuplicates().allMatch(version -> version > 0);
+  }
+
+  @Test
+  public void shouldRejectThePartsThatDoNotFitInTheirBits() {
+    assertThatThrownBy(() -> new BinlogPosition(1L << 20, 0, 0).toVersion())
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new BinlogPosition(0, 1L << 32, 0).toVersion())
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new BinlogPosition(0, 0, 1 << 11).toVersion())
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import com.github.joumenharzli.cdc.denormalizer.exception.BulkWriteException;
+import com.google.common.collect.Maps;
+import org.elasticsearch.action.DocWriteRequest.OpType;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.EntityMapper;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+import static org.mockito.Mockito.*;
+
+public class UserBulkRepositoryImplTest {
+
+  private static final String INDEX = "users";
+  private static final ShardId SHARD = new ShardId(INDEX, "uuid", 0);
+
+  private final Map<String, IndexRequestBuilder> indexRequests = Maps.newHashMap();
+  private final Map<String, DeleteRequestBuilder> deleteRequests = Maps.newHashMap();
+
+  private final Deque<BulkResponse> responses = new ArrayDeque<>();
+  private int sentRequests;
+
+  private Client client;
+  private UserBulkRepositoryImpl repository;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    ElasticsearchTemplate elasticsearchTemplate = mock(ElasticsearchTemplate.class);
+    ElasticsearchPersistentEntity<User> persistentEntity = mock(ElasticsearchPersistentEntity.class);
+    EntityMapper entityMapper = mock(EntityMapper.class);
+
+    client = mock(Client.class);
+
+    when(elasticsearchTemplate.getPersistentEntityFor(User.class)).thenReturn(persistentEntity);
+    when(elasticsearchTemplate.getClient()).thenReturn(client);
+    when(persistentEntity.getIndexName()).thenReturn(INDEX);
+    when(persistentEntity.getIndexType()).thenReturn(INDEX);
+    when(entityMapper.mapToString(any())).thenReturn("{}");
+
+    when(client.prepareBulk()).thenAnswer(invocation -> bulkRequest());
+
+    when(client.prepareIndex(anyString(), anyString(), anyString())).thenAnswer(invocation -> indexRequests
+        .computeIfAbsent(invocation.getArgument(2), id -> mock(IndexRequestBuilder.class, RETURNS_SELF)));
+    when(client.prepareDelete(anyString(), anyString(), anyString())).thenAnswer(invocation -> deleteRequests
+        .computeIfAbsent(invocation.getArgument(2), id -> mock(DeleteRequestBuilder.class, RETURNS_SELF)));
+
+    // a bulk request per write
+    repository = new UserBulkRepositoryImpl(elasticsearchTemplate, entityMapper, new BulkSettings(1, 5242880));
+  }
+
+  @Test
+  public void shouldSendTheHighestVersionsAsExternalVersions() {
+    UserWriteBatch batch = new UserWriteBatch();
+    batch.index(user("1"));
+    batch.recordVersion("2", 3);
+    batch.recordVersion("2", 7);
+    batch.index(user("2"));
+    batch.recordVersion("3", 5);
+    batch.delete("3");
+
+    respond(response(deleted(0, "3", 5)), response(indexed(0, "1", 1)), response(indexed(0, "2", 7)));
+
+    assertThat(repository.bulk(batch)).isEmpty();
+
+    verify(indexRequests.get("1"), never()).setVersion(anyLong());
+    verify(indexRequests.get("1"), never()).setVersionType(any());
+    verify(indexRequests.get("2")).setVersion(7);
+    verify(indexRequests.get("2")).setVersionType(VersionType.EXTERNAL_GTE);
+    verify(deleteRequests.get("3")).setVersion(5);
+    verify(deleteRequests.get("3")).setVersionType(VersionType.EXTERNAL_GTE);
+
+    assertThat(batch.getVersion("1")).contains(1L);
+    assertThat(batch.getVersion("2")).contains(7L);
+  }
+
+  @Test
+  public void shouldReturnTheStaleIds() {
+    UserWriteBatch batch = new UserWriteBatch();
+    batch.recordVersion("1", 3);
+    batch.index(user("1"));
+
+    respond(response(conflict(0, "1")));
+
+    assertThat(repository.bulk(batch)).containsExactly("1");
+    assertThat(batch.getVersion("1")).contains(3L);
+  }
+
+  @Test
+  public void shouldSendAllTheRequestsBeforeFailing() {
+    UserWriteBatch batch = new UserWriteBatch();
+    batch.index(user("1"));
+    batch.index(user("2"));
+    batch.index(user("3"));
+
+    respond(response(failure(0, "1")), response(conflict(0, "2")), response(indexed(0, "3", 2)));
+
+    BulkWriteException exception = catchThrowableOfType(() -> repository.bulk(batch), BulkWriteException.class);
+
+    assertThat(exception).isNotNull();
+    assertThat(exception.getFailedDocuments()).containsOnlyKeys("1");
+    assertThat(exception.getStaleIds()).containsExactly("2");
+
+    assertThat(sentRequests).isEqualTo(3);
+    assertThat(batch.getVersion("3")).contains(2L);
+  }
+
+  @Test
+  public void shouldIgnoreTheUpdatesOfMissingDocuments() {
+    UserWriteBatch batch = new UserWriteBatch();
+    batch.update(UserScriptUpdate.builder().id("1").script("ctx._source.age = 1").build());
+
+    when(client.prepareUpdate(anyString(), anyString(), anyString()))
+        .thenAnswer(invocation -> mock(UpdateRequestBuilder.class, RETURNS_SELF));
+    respond(response(new BulkItemResponse(0, OpType.UPDATE, new BulkItemResponse.Failure(
+        INDEX, INDEX, "1", new DocumentMissingException(SHARD, INDEX, "1")))));
+
+    Set<String> staleIds = repository.bulk(batch);
+
+    assertThat(staleIds).isEmpty();
+  }
+
+  /**
+   * @return a bulk request that counts its actions and answers the next response
+   */
+  private BulkRequestBuilder bulkRequest() {
+    BulkRequestBuilder bulkRequest = mock(BulkRequestBuilder.class, RETURNS_SELF);
+    AtomicInteger actions = new AtomicInteger();
+
+    doAnswer(invocation -> {
+      actions.incrementAndGet();
+      return bulkRequest;
+    }).when(bulkRequest).add(any(IndexRequestBuilder.class));
+    doAnswer(invocation -> {
+      actions.incrementAndGet();
+      return bulkRequest;
+    }).when(bulkRequest).add(any(DeleteRequestBuilder.class));
+    doAnswer(invocation -> {
+      actions.incrementAndGet();
+      return bulkRequest;
+    }).when(bulkRequest).add(any(UpdateRequestBuilder.class));
+
+    when(bulkRequest.numberOfActions()).thenAnswer(invocation -> actions.get());
+    when(bulkRequest.request()).thenReturn(new BulkRequest());
+    when(bulkRequest.get()).thenAnswer(invocation -> {
+      sentRequests++;
+      return responses.remove();
+    });
+
+    return bulkRequest;
+  }
+
+  private void respond(BulkResponse... bulkResponses) {
+    responses.addAll(Arrays.asList(bulkResponses));
+  }
+
+  private static BulkResponse response(BulkItemResponse... items) {
+    return new BulkResponse(items, 1);
+  }
+
+  private static BulkItemResponse indexed(int itemId, String id, long version) {
+    return new BulkItemResponse(itemId, OpType.INDEX, new IndexResponse(SHARD, INDEX, id, version, true));
+  }
+
+  private static BulkItemResponse deleted(int itemId, String id, long version) {
+    return new BulkItemResponse(itemId, OpType.DELETE, new DeleteResponse(SHARD, INDEX, id, version, true));
+  }
+
+  private static BulkItemResponse conflict(int itemId, String id) {
+    return new BulkItemResponse(itemId, OpType.INDEX, new BulkItemResponse.Failure(
+        INDEX, INDEX, id, new VersionConflictEngineException(SHARD, INDEX, id, "version conflict")));
+  }
+
+  private static BulkItemResponse failure(int itemId, String id) {
+    return new BulkItemResponse(itemId, OpType.INDEX, new BulkItemResponse.Failure(
+        INDEX, INDEX, id, new IllegalArgumentException("mapper_parsing_exception")));
+  }
+
+  private static User user(String id) {
+    User user = new User();
+    user.setId(id);
+    return user;
+  }
+
+}
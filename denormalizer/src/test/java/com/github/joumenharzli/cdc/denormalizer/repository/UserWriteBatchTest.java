@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.denormalizer.repository;
+
+import com.github.joumenharzli.cdc.denormalizer.domain.User;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UserWriteBatchTest {
+
+  @Test
+  public void shouldKeepTheHighestVersion() {
+    UserWriteBatch batch = new UserWriteBatch();
+
+    batch.recordVersion("1", 5);
+    batch.recordVersion("1", 3);
+    batch.recordVersion("1", 4);
+
+    assertThat(batch.getVersion("1")).contains(5L);
+    assertThat(batch.getVersion("2")).isEmpty();
+  }
+
+  @Test
+  public void shouldReplaceTheVersionByTheWrittenOne() {
+    UserWriteBatch batch = new UserWriteBatch();
+
+    batch.recordVersion("1", 5);
+    batch.recordWrittenVersion("1", 4);
+
+    assertThat(batch.getVersion("1")).contains(4L);
+  }
+
+  @Test
+  public void shouldDiscardTheWritesAndTheVersionsOfAUser() {
+    UserWriteBatch batch = new UserWriteBatch();
+
+    batch.recordVersion("1", 3);
+    batch.index(user("1"));
+    batch.recordVersion("2", 3);
+    batch.delete("2");
+
+    batch.discard("1");
+    batch.discard("2");
+
+    assertThat(batch.isEmpty()).isTrue();
+    assertThat(batch.getVersion("1")).isEmpty();
+    assertThat(batch.getVersion("2")).isEmpty();
+  }
+
+  @Test
+  public void shouldKeepOnlyTheLastWriteOfAUser() {
+    UserWriteBatch batch = new UserWriteBatch();
+
+    batch.index(user("1"));
+    batch.update(UserScriptUpdate.builder().id("1").script("ctx._source.age = 1").build());
+    batch.delete("1");
+
+    assertThat(batch.getDocuments()).isEmpty();
+    assertThat(batch.getUpdates()).isEmpty();
+    assertThat(batch.getDeletedIds()).containsExactly("1");
+
+    batch.index(user("1"));
+
+    assertThat(batch.getDeletedIds()).isEmpty();
+    assertThat(batch.getDocument("1")).isPresent();
+    assertThat(batch.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldGiveTheIdsOfAllThePendingWrites() {
+    UserWriteBatch batch = new UserWriteBatch();
+
+    batch.index(user("1"));
+    batch.delete("2");
+    batch.update(UserScriptUpdate.builder().id("3").script("ctx._source.age = 1").build());
+
+    assertThat(batch.getUserIds()).containsOnly("1", "2", "3");
+  }
+
+  private static User user(String id) {
+    User user = new User();
+    user.setId(id);
+    return user;
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.joumenharzli.cdc.query.service.dto.QueryOperator;
+import com.github.joumenharzli.cdc.query.service.dto.QueryParameter;
+
+/**
+ * Parsing of the search parameters by the {@link QueryTokenizer}
+ * <p>
+ * The split parser reproduces the previous parsing that split the text then looked for every operator in each
+ * parameter, it does not know the lists of values of IN and BETWEEN.
+ *
+ * @author Joumen Harzli
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryTokenizerBenchmark {
+
+  private static final QueryOperator[] SPLIT_OPERATORS = {
+      QueryOperator.EQUALS, QueryOperator.DIFFERENT, QueryOperator.GREATER, QueryOperator.LESS,
+      QueryOperator.GREATER_OR_EQUALS, QueryOperator.LESS_OR_EQUALS, QueryOperator.MATCH};
+
+  /**
+   * typical: a few filters of a search
+   * many: a long list of filters whose operators are found at the end of the list of operators
+   */
+  @Param({"typical", "many"})
+  private String shape;
+
+  private String parameters;
+  private String listParameters;
+
+  @Setup
+  public void setUp() {
+    if ("typical".equals(shape)) {
+      parameters = "name~joumen&age>=20&addresses.name=paris";
+    } else {
+      StringJoiner joiner = new StringJoiner("&");
+      for (int i = 0; i < 50; i++) {
+        joiner.add("jobs.description" + i + "<=" + StringUtils.repeat('x', 20));
+      }
+      parameters = joiner.toString();
+    }
+
+    StringJoiner values = new StringJoiner(",", "(", ")");
+    for (int i = 0; i < 100; i++) {
+      values.add("name" + i);
+    }
+    listParameters = "name IN" + values + "&age BETWEEN(20,30)";
+  }
+
+  @Benchmark
+  public List<QueryParameter> tokenizer() {
+    return new QueryTokenizer(parameters).parse();
+  }
+
+  @Benchmark
+  public List<QueryParameter> splitParser() {
+    List<QueryParameter> result = new ArrayList<>();
+    for (String text : parameters.split("&")) {
+      QueryOperator operator = null;
+      for (QueryOperator candidate : SPLIT_OPERATORS) {
+        if (StringUtils.contains(text, candidate.getOperation())) {
+          operator = candidate;
+          break;
+        }
+      }
+
+      String[] values = StringUtils.split(text, operator.getOperation());
+      result.add(QueryParameter.builder().field(values[0]).value(values[1]).operator(operator).build());
+    }
+    return result;
+  }
+
+  @Benchmark
+  public List<QueryParameter> tokenizerLists() {
+    return new QueryTokenizer(listParameters).parse();
+  }
+
+}
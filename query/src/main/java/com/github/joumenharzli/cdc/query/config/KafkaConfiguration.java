@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.config;
+
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Kafka Consumer Configuration of the change feed
+ * <p>
+ * Every instance reads all the changes under its own group starting from the latest ones, the changes
+ * published before the start of the instance cannot affect its empty cache. The offsets are never committed so
+ * the group of a stopped instance leaves nothing behind on the brokers.
+ *
+ * @author Joumen Harzli
+ */
+@Configuration
+@EnableKafka
+public class KafkaConfiguration {
+
+  @Value("${application.kafka.bootstrapServers}")
+  private String bootstrapServers;
+
+  @Value("${spring.application.name}")
+  private String applicationName;
+
+  @Bean
+  public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory(
+      ConsumerFactory<String, String> consumerFactory) {
+    ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+    factory.setConsumerFactory(consumerFactory);
+    // the changes are never acknowledged by the listener so the container does not commit them
+    factory.getContainerProperties().setAckMode(AbstractMessageListenerContainer.AckMode.MANUAL);
+    return factory;
+  }
+
+  @Bean
+  public ConsumerFactory<String, String> consumerFactory() {
+    //@formatter:off
+    Map<String, Object> configs = ImmutableMap.<String, Object>builder()
+        .put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers)
+        .put(ConsumerConfig.GROUP_ID_CONFIG, applicationName + "-" + UUID.randomUUID())
+        .put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest")
+        .put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false)
+        .build();
+    //@formatter:on
+
+    return new DefaultKafkaConsumerFactory<>(configs, new StringDeserializer(), new StringDeserializer());
+  }
+
+}
@@ -31,7 +31,7 @@ import java.util.Set;
  *
  * @author Joumen Harzli
  */
-@Document(indexName = "users", type = "users")
+@Document(indexName = "users", type = "users", createIndex = false)
 @Data
 @EqualsAndHashCode(of = {"id"})
 public class User implements Serializable {
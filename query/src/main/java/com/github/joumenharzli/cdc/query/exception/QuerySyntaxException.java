@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.exception;
+
+/**
+ * Exception thrown when the parameters of a search are not valid
+ *
+ * @author Joumen Harzli
+ */
+public class QuerySyntaxException extends IllegalArgumentException {
+
+  private final int position;
+
+  /**
+   * @param message  the description of the error
+   * @param text     the parsed parameters
+   * @param position the index of the character where the error was found
+   */
+  public QuerySyntaxException(String message, String text, int position) {
+    super(String.format("%s at position %d of %s", message, position, text));
+    this.position = position;
+  }
+
+  public int getPosition() {
+    return position;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.listener;
+
+import java.io.IOException;
+
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.joumenharzli.cdc.query.service.SearchResultCache;
+import com.github.joumenharzli.cdc.query.service.dto.UserChangesDto;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Invalidate the cached search results using the ids of the users written by the denormalizer
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class UserChangesListener {
+
+  private final SearchResultCache searchResultCache;
+  private final ObjectMapper objectMapper;
+
+  @KafkaListener(topics = "${application.kafka.changesTopic}")
+  public void handleChanges(String message) {
+    UserChangesDto changes;
+    try {
+      changes = objectMapper.readValue(message, UserChangesDto.class);
+    } catch (IOException e) {
+      LOGGER.warn("Ignoring the invalid changes {}", message, e);
+      return;
+    }
+
+    LOGGER.debug("Request to invalidate the search results of the users {}", changes.getIds());
+
+    if (changes.isAll()) {
+      searchResultCache.invalidateAll();
+    } else {
+      searchResultCache.invalidate(changes.getIds(), changes.getTimestamp());
+    }
+  }
+
+}
@@ -26,5 +26,6 @@ import com.github.joumenharzli.cdc.query.domain.User;
  * @author Joumen Harzli
  */
 @Repository
-public interface UserRepository extends ElasticsearchRepository<User, String> {
+public interface UserRepository extends ElasticsearchRepository<User, String>, UserSearchAfterRepository,
+                                        UserScrollRepository {
 }
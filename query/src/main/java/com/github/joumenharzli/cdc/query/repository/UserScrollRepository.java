@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.repository;
+
+import org.elasticsearch.index.query.QueryBuilder;
+
+import com.github.joumenharzli.cdc.query.domain.User;
+
+/**
+ * Sliced scroll of the index {@link User}
+ *
+ * @author Joumen Harzli
+ */
+public interface UserScrollRepository {
+
+  /**
+   * Open the scroll of a slice and read its first page
+   * <p>
+   * The users are read in the order of the index, the slices of a scroll can be read in parallel.
+   *
+   * @param query     query of the search
+   * @param slice     id of the slice
+   * @param slices    number of slices
+   * @param size      size of the pages
+   * @param keepAlive time in milliseconds during which the scroll is kept between two pages
+   * @return the first page of the slice
+   */
+  UserScrollPage startScroll(QueryBuilder query, int slice, int slices, int size, long keepAlive);
+
+  /**
+   * @param scrollId  id of the scroll returned with the previous page
+   * @param keepAlive time in milliseconds during which the scroll is kept between two pages
+   * @return the next page of the scroll
+   */
+  UserScrollPage continueScroll(String scrollId, long keepAlive);
+
+  /**
+   * Release the resources of a scroll
+   *
+   * @param scrollId id of the scroll
+   */
+  void clearScroll(String scrollId);
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.repository;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.EntityMapper;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.util.Assert;
+
+import com.github.joumenharzli.cdc.query.domain.User;
+import com.google.common.collect.Lists;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Implementation for {@link UserScrollRepository} that uses the client of the {@link ElasticsearchTemplate}
+ *
+ * @author Joumen Harzli
+ */
+@RequiredArgsConstructor
+@Slf4j
+public class UserScrollRepositoryImpl implements UserScrollRepository {
+
+  /**
+   * sorting by index order is the cheapest order for a scroll
+   */
+  private static final String INDEX_ORDER_FIELD = "_doc";
+
+  private final ElasticsearchTemplate elasticsearchTemplate;
+  private final EntityMapper entityMapper;
+
+  @Override
+  public UserScrollPage startScroll(QueryBuilder query, int slice, int slices, int size, long keepAlive) {
+    Assert.notNull(query, "Query cannot be null");
+    Assert.isTrue(slice >= 0 && slice < slices, "Slice must be between 0 and the number of slices");
+    Assert.isTrue(size > 0, "Size must be positive");
+
+    LOGGER.debug("Request to start the scroll of the slice {} of {}", slice, slices);
+
+    ElasticsearchPersistentEntity persistentEntity = elasticsearchTemplate.getPersistentEntityFor(User.class);
+
+    //@formatter:off
+    SearchRequestBuilder request = elasticsearchTemplate.getClient()
+                                                        .prepareSearch(persistentEntity.getIndexName())
+                                                        .setTypes(persistentEntity.getIndexType())
+                                                        .setQuery(query)
+                                                        .setSize(size)
+                                                        .setScroll(TimeValue.timeValueMillis(keepAlive))
+                                                        .addSort(SortBuilders.fieldSort(INDEX_ORDER_FIELD));
+    //@formatter:on
+
+    // a slice is only accepted when there are at least two of them
+    if (slices > 1) {
+      request.slice(new SliceBuilder(slice, slices));
+    }
+
+    return mapResponse(request.get());
+  }
+
+  @Override
+  public UserScrollPage continueScroll(String scrollId, long keepAlive) {
+    Assert.hasText(scrollId, "Scroll id cannot be null/empty");
+
+    //@formatter:off
+    return mapResponse(elasticsearchTemplate.getClient()
+                                            .prepareSearchScroll(scrollId)
+                                            .setScroll(TimeValue.timeValueMillis(keepAlive))
+                                            .get());
+    //@formatter:on
+  }
+
+  @Override
+  public void clearScroll(String scrollId) {
+    Assert.hasText(scrollId, "Scroll id cannot be null/empty");
+
+    LOGGER.debug("Request to clear the scroll {}", scrollId);
+
+    elasticsearchTemplate.getClient().prepareClearScroll().addScrollId(scrollId).get();
+  }
+
+  private UserScrollPage mapResponse(SearchResponse response) {
+    SearchHit[] hits = response.getHits().getHits();
+
+    List<User> users = Lists.newArrayListWithCapacity(hits.length);
+    for (SearchHit hit : hits) {
+      users.add(mapHit(hit));
+    }
+
+    return new UserScrollPage(users, response.getScrollId());
+  }
+
+  private User mapHit(SearchHit hit) {
+    try {
+      User user = entityMapper.mapToObject(hit.getSourceAsString(), User.class);
+      user.setId(hit.getId());
+      return user;
+    } catch (IOException e) {
+      throw new ElasticsearchException("Failed to map the document " + hit.getId(), e);
+    }
+  }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.repository;
+
+import java.util.List;
+
+import com.github.joumenharzli.cdc.query.domain.User;
+
+import lombok.Value;
+
+/**
+ * Page of users found with search_after
+ *
+ * @author Joumen Harzli
+ */
+@Value
+public class UserSearchAfterPage {
+
+  private List<User> content;
+
+  /**
+   * sort values of the last user, null when there is no next page
+   */
+  private Object[] lastSortValues;
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.repository;
+
+import org.elasticsearch.index.query.QueryBuilder;
+
+import com.github.joumenharzli.cdc.query.domain.User;
+
+/**
+ * Pagination of the index {@link User} with search_after
+ *
+ * @author Joumen Harzli
+ */
+public interface UserSearchAfterRepository {
+
+  /**
+   * Find the users that come after the last user of the previous page
+   * <p>
+   * The users are sorted by score then by id so the order is stable whatever the depth of the page.
+   *
+   * @param query       query of the search
+   * @param size        size of the page
+   * @param searchAfter sort values of the last user of the previous page or null for the first page
+   * @return the found users and the sort values of the last one
+   */
+  UserSearchAfterPage searchAfter(QueryBuilder query, int size, Object[] searchAfter);
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.repository;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.EntityMapper;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.util.Assert;
+
+import com.github.joumenharzli.cdc.query.domain.User;
+import com.google.common.collect.Lists;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Implementation for {@link UserSearchAfterRepository} that uses the client of the {@link ElasticsearchTemplate}
+ *
+ * @author Joumen Harzli
+ */
+@RequiredArgsConstructor
+@Slf4j
+public class UserSearchAfterRepositoryImpl implements UserSearchAfterRepository {
+
+  /**
+   * unique field of the documents in elasticsearch 5, used to break the ties of the scores
+   */
+  private static final String TIEBREAKER_FIELD = "_uid";
+
+  private final ElasticsearchTemplate elasticsearchTemplate;
+  private final EntityMapper entityMapper;
+
+  @Override
+  public UserSearchAfterPage searchAfter(QueryBuilder query, int size, Object[] searchAfter) {
+    Assert.notNull(query, "Query cannot be null");
+    Assert.isTrue(size > 0, "Size must be positive");
+
+    LOGGER.debug("Request to search for {} users after {}", size, searchAfter);
+
+    ElasticsearchPersistentEntity persistentEntity = elasticsearchTemplate.getPersistentEntityFor(User.class);
+
+    //@formatter:off
+    SearchRequestBuilder request = elasticsearchTemplate.getClient()
+                                                        .prepareSearch(persistentEntity.getIndexName())
+                                                        .setTypes(persistentEntity.getIndexType())
+                                                        .setQuery(query)
+                                                        .setSize(size)
+                                                        .addSort(SortBuilders.scoreSort())
+                                                        .addSort(SortBuilders.fieldSort(TIEBREAKER_FIELD)
+                                                                             .order(SortOrder.ASC));
+    //@formatter:on
+
+    if (Objects.nonNull(searchAfter)) {
+      request.searchAfter(searchAfter);
+    }
+
+    SearchResponse response = request.get();
+    SearchHits hits = response.getHits();
+
+    List<User> users = Lists.newArrayListWithCapacity(hits.getHits().length);
+    for (SearchHit hit : hits.getHits()) {
+      users.add(mapHit(hit));
+    }
+
+    // a page that is not full is the last one
+    Object[] lastSortValues = users.size() < size ? null : hits.getAt(users.size() - 1).getSortValues();
+
+    return new UserSearchAfterPage(users, lastSortValues);
+  }
+
+  private User mapHit(SearchHit hit) {
+    try {
+      User user = entityMapper.mapToObject(hit.getSourceAsString(), User.class);
+      user.setId(hit.getId());
+      return user;
+    } catch (IOException e) {
+      throw new ElasticsearchException("Failed to map the document " + hit.getId(), e);
+    }
+  }
+
+}
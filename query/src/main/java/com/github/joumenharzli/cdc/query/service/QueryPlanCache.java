@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.service;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.joumenharzli.cdc.query.service.dto.QueryParameter;
+import com.github.joumenharzli.cdc.query.util.QueryPlan;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded cache of the {@link QueryPlan} of the shapes of parameters
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class QueryPlanCache {
+
+  private static final String CACHE_NAME = "query.plans";
+
+  private final Cache<String, QueryPlan> cache;
+
+  public QueryPlanCache(MeterRegistry registry,
+                        @Value("${application.planCache.maximumSize}") long maximumSize) {
+
+    //@formatter:off
+    this.cache = CacheBuilder.newBuilder()
+                             .maximumSize(maximumSize)
+                             .recordStats()
+                             .build();
+    //@formatter:on
+
+    GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME);
+  }
+
+  /**
+   * @param parameters parameters of a search
+   * @return the plan of the shape of the parameters, compiled if it is not cached
+   */
+  public QueryPlan getPlan(List<QueryParameter> parameters) {
+    String shape = QueryPlan.getShape(parameters);
+
+    QueryPlan plan = cache.getIfPresent(shape);
+    if (Objects.isNull(plan)) {
+      LOGGER.debug("Request to compile the plan of the shape {}", shape);
+
+      plan = QueryPlan.compile(parameters);
+      cache.put(shape, plan);
+    }
+
+    return plan;
+  }
+
+}
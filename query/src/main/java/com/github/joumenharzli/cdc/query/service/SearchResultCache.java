@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.service;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import com.github.joumenharzli.cdc.query.service.dto.QueryParameter;
+import com.github.joumenharzli.cdc.query.service.dto.UserDto;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded cache of the pages of search results
+ * <p>
+ * An entry is removed when one of the users of its page is written. A user that starts to match a search
+ * after a write is only found when the page of the search expires.
+ * <p>
+ * The changes are published before the written users are visible to the searches, so a page is not cached when
+ * one of its users was written less than a refresh interval of the index before the search has started.
+ *
+ * @author Joumen Harzli
+ */
+@Component
+@Slf4j
+public class SearchResultCache {
+
+  private static final String CACHE_NAME = "users.search";
+
+  //@formatter:off
+  private static final Comparator<QueryParameter> PARAMETERS_ORDER =
+      Comparator.comparing(QueryParameter::getField, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(QueryParameter::getOperator, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(QueryParameter::getValue, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(parameter -> String.valueOf(parameter.getValues()));
+  //@formatter:on
+
+  private final boolean enabled;
+  private final Cache<SearchKey, CachedPage> cache;
+
+  /**
+   * Keys of the cached pages that contain each user
+   */
+  private final Map<String, Set<SearchKey>> keysByUser = new ConcurrentHashMap<>();
+
+  /**
+   * Time of the last write of the users, used to reject the pages read before a write but cached after it
+   */
+  private final Cache<String, Long> lastWrites;
+
+  private final long refreshIntervalMillis;
+
+  private final Timer age;
+  private final Timer invalidationDelay;
+
+  public SearchResultCache(MeterRegistry registry,
+                           @Value("${application.cache.enabled}") boolean enabled,
+                           @Value("${application.cache.maximumSize}") long maximumSize,
+                           @Value("${application.cache.expireAfterWriteSeconds}") long expireAfterWriteSeconds,
+                           @Value("${application.cache.refreshIntervalMillis}") long refreshIntervalMillis) {
+    this.enabled = enabled;
+    this.refreshIntervalMillis = refreshIntervalMillis;
+
+    //@formatter:off
+    this.cache = CacheBuilder.newBuilder()
+                             .maximumSize(maximumSize)
+                             .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                             .removalListener(this::onRemoval)
+                             .recordStats()
+                             .build();
+
+    this.lastWrites = CacheBuilder.newBuilder()
+                                  .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                                  .build();
+
+    this.age = Timer.builder(CACHE_NAME + ".age")
+                    .description("Age of the cached pages when they are returned")
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(registry);
+
+    this.invalidationDelay = Timer.builder(CACHE_NAME + ".invalidation.delay")
+                                  .description("Delay between the write of a user and the invalidation of his pages")
+                                  .publishPercentiles(0.5, 0.95, 0.99)
+                                  .register(registry);
+    //@formatter:on
+
+    GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME);
+  }
+
+  /**
+   * @param parameters filters of the search
+   * @param pageable   page number, size and sorting
+   * @return the key of the search whatever the order of its parameters
+   */
+  public SearchKey getKey(List<QueryParameter> parameters, Pageable pageable) {
+    return new SearchKey(parameters.stream().sorted(PARAMETERS_ORDER).collect(Collectors.toList()), pageable);
+  }
+
+  /**
+   * @param key key of the search
+   * @return the cached page of the search
+   */
+  public Optional<Page<UserDto>> get(SearchKey key) {
+    if (!enabled) {
+      return Optional.empty();
+    }
+
+    CachedPage cachedPage = cache.getIfPresent(key);
+    if (Objects.isNull(cachedPage)) {
+      return Optional.empty();
+    }
+
+    age.record(System.currentTimeMillis() - cachedPage.getCreationTime(), TimeUnit.MILLISECONDS);
+    return Optional.of(cachedPage.getPage());
+  }
+
+  /**
+   * Cache a page unless one of its users was written after the search has started or shortly before
+   *
+   * @param key       key of the search
+   * @param page      the found page
+   * @param startTime time when the search has started in milliseconds
+   */
+  public void put(SearchKey key, Page<UserDto> page, long startTime) {
+    if (!enabled) {
+      return;
+    }
+
+    List<String> ids = page.getContent().stream().map(UserDto::getId).collect(Collectors.toList());
+
+    // the page is registered and cached before the writes are checked, so a write that is not seen by the check
+    // is invalidated after the page is cached
+    ids.forEach(id -> keysByUser.computeIfAbsent(id, userId -> ConcurrentHashMap.newKeySet()).add(key));
+    cache.put(key, new CachedPage(page, ids, System.currentTimeMillis()));
+
+    for (String id : ids) {
+      Long lastWrite = lastWrites.getIfPresent(id);
+      if (Objects.nonNull(lastWrite) && lastWrite >= startTime - refreshIntervalMillis) {
+        LOGGER.debug("The user {} may not be visible to the search {}, the page is not cached", id, key);
+        cache.invalidate(key);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Remove the pages that contain the written users
+   *
+   * @param ids       ids of the written users
+   * @param writeTime time when the users were written in milliseconds
+   */
+  public void invalidate(Collection<String> ids, long writeTime) {
+    long now = System.currentTimeMillis();
+
+    ids.forEach(id -> {
+      lastWrites.put(id, now);
+
+      Set<SearchKey> keys = keysByUser.remove(id);
+      if (Objects.nonNull(keys)) {
+        cache.invalidateAll(keys);
+      }
+    });
+
+    invalidationDelay.record(Math.max(0, now - writeTime), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Remove all the pages
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  private void onRemoval(RemovalNotification<SearchKey, CachedPage> notification) {
+    CachedPage cachedPage = notification.getValue();
+    // the keys of a replaced page are already registered for the users of the new page
+    if (Objects.isNull(cachedPage) || notification.getCause() == RemovalCause.REPLACED) {
+      return;
+    }
+
+    cachedPage.getIds().forEach(id -> keysByUser.computeIfPresent(id, (userId, keys) -> {
+      keys.remove(notification.getKey());
+      return keys.isEmpty() ? null : keys;
+    }));
+  }
+
+  /**
+   * Key of a search
+   */
+  @lombok.Value
+  public static class SearchKey {
+    private List<QueryParameter> parameters;
+    private Pageable pageable;
+  }
+
+  @lombok.Value
+  private static class CachedPage {
+    private Page<UserDto> page;
+    private List<String> ids;
+    private long creationTime;
+  }
+
+}
@@ -21,9 +21,12 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
 import com.github.joumenharzli.cdc.query.domain.User;
+import com.github.joumenharzli.cdc.query.exception.InvalidCursorException;
 import com.github.joumenharzli.cdc.query.service.dto.QueryParameter;
+import com.github.joumenharzli.cdc.query.service.dto.UserCursorPageDto;
 import com.github.joumenharzli.cdc.query.service.dto.UserDto;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -43,4 +46,25 @@ public interface UserService {
    */
   Mono<Page<UserDto>> findByCriteria(List<QueryParameter> parameters, Pageable pageable);
 
+  /**
+   * Find users using the provided parameters page by page with a cursor
+   *
+   * @param parameters filters to use
+   * @param size       size of the page
+   * @param cursor     cursor returned with the previous page or null for the first page
+   * @return the found users and the cursor of the next page
+   * @throws IllegalArgumentException if any given argument is invalid
+   * @throws InvalidCursorException   if the cursor is not valid
+   */
+  Mono<UserCursorPageDto> findByCriteria(List<QueryParameter> parameters, int size, String cursor);
+
+  /**
+   * Stream all the users that match the provided parameters
+   *
+   * @param parameters filters to use
+   * @return the found users, read as they are requested
+   * @throws IllegalArgumentException if any given argument is invalid
+   */
+  Flux<UserDto> export(List<QueryParameter> parameters);
+
 }
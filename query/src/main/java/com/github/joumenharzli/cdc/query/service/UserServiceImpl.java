@@ -15,22 +15,35 @@
 
 package com.github.joumenharzli.cdc.query.service;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
 
+import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
+import com.github.joumenharzli.cdc.query.exception.InvalidCursorException;
+import com.github.joumenharzli.cdc.query.domain.User;
 import com.github.joumenharzli.cdc.query.repository.UserRepository;
+import com.github.joumenharzli.cdc.query.repository.UserScrollPage;
 import com.github.joumenharzli.cdc.query.service.dto.QueryParameter;
+import com.github.joumenharzli.cdc.query.service.dto.UserCursorPageDto;
 import com.github.joumenharzli.cdc.query.service.dto.UserDto;
 import com.github.joumenharzli.cdc.query.service.mapper.UserMapper;
+import com.github.joumenharzli.cdc.query.util.CursorUtils;
 import com.github.joumenharzli.cdc.query.util.SearchQueryBuilder;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
@@ -44,11 +57,31 @@ import reactor.core.scheduler.Schedulers;
 @Slf4j
 public class UserServiceImpl implements UserService {
 
+  /**
+   * default max_result_window of the index, the largest page that elasticsearch returns
+   */
+  private static final int MAX_RESULT_WINDOW = 10000;
+
+  private static final UserScrollPage EMPTY_SCROLL = new UserScrollPage(Collections.emptyList(), null);
+
   private final UserRepository userRepository;
   private final UserMapper userMapper;
+  private final SearchResultCache searchResultCache;
+  private final QueryPlanCache queryPlanCache;
+
+  @Value("${application.export.slices}")
+  private int exportSlices;
+
+  @Value("${application.export.pageSize}")
+  private int exportPageSize;
+
+  @Value("${application.export.keepAliveMillis}")
+  private long exportKeepAlive;
 
   /**
    * Find users using the provided parameters
+   * <p>
+   * The pages are served from the {@link SearchResultCache} when the same search was done recently
    *
    * @param parameters filters to use
    * @param pageable   page number, size and sorting
@@ -62,15 +95,122 @@ public class UserServiceImpl implements UserService {
     Assert.notNull(parameters, "List of parameters cannot be null");
     Assert.notNull(pageable, "Pageable cannot be null");
 
+    SearchResultCache.SearchKey key = searchResultCache.getKey(parameters, pageable);
+
+    Optional<Page<UserDto>> cachedPage = searchResultCache.get(key);
+    if (cachedPage.isPresent()) {
+      return Mono.just(cachedPage.get());
+    }
+
+    long startTime = System.currentTimeMillis();
+
     //@formatter:off
     return Mono.fromSupplier(() -> SearchQueryBuilder.fromParameters(parameters)
+                                                        .withPlan(queryPlanCache.getPlan(parameters))
                                                         .withPageable(pageable)
                                                         .build())
                .flatMap(searchQuery -> Mono.just(userRepository.search(searchQuery)))
                .subscribeOn(Schedulers.elastic())
-               .map(page -> new PageImpl<>(userMapper.toDtos(page.getContent()), page.getPageable(), page.getTotalElements()));
+               .<Page<UserDto>>map(page -> new PageImpl<>(userMapper.toDtos(page.getContent()), page.getPageable(), page.getTotalElements()))
+               .doOnNext(page -> searchResultCache.put(key, page, startTime));
     //@formatter:on
   }
 
+  /**
+   * Find users using the provided parameters page by page with a cursor
+   * <p>
+   * The cursor holds the search_after values of the last user of the previous page so the cost of a page
+   * does not depend on its depth.
+   *
+   * @param parameters filters to use
+   * @param size       size of the page
+   * @param cursor     cursor returned with the previous page or null for the first page
+   * @return the found users and the cursor of the next page
+   * @throws IllegalArgumentException if any given argument is invalid
+   * @throws InvalidCursorException   if the cursor is not valid
+   */
+  @Override
+  public Mono<UserCursorPageDto> findByCriteria(List<QueryParameter> parameters, int size, String cursor) {
+    LOGGER.debug("Request to search for {} users with parameters {} after the cursor {}", size, parameters, cursor);
+
+    Assert.notNull(parameters, "List of parameters cannot be null");
+    Assert.isTrue(size > 0, "Size must be positive");
+    Assert.isTrue(size <= MAX_RESULT_WINDOW, "Size must not exceed " + MAX_RESULT_WINDOW);
+
+    Object[] searchAfter = StringUtils.isEmpty(cursor) ? null : CursorUtils.decode(cursor);
+
+    //@formatter:off
+    return Mono.fromSupplier(() -> SearchQueryBuilder.fromParameters(parameters)
+                                                        .withPlan(queryPlanCache.getPlan(parameters))
+                                                        .build())
+               .map(searchQuery -> userRepository.searchAfter(searchQuery.getQuery(), size, searchAfter))
+               .subscribeOn(Schedulers.elastic())
+               .map(page -> new UserCursorPageDto(userMapper.toDtos(page.getContent()),
+                                                  Objects.isNull(page.getLastSortValues()) ? null :
+                                                  CursorUtils.encode(page.getLastSortValues())));
+    //@formatter:on
+  }
+
+  /**
+   * Stream all the users that match the provided parameters
+   * <p>
+   * The slices of a scroll are read in parallel. A page of a slice is only read when the users of its previous
+   * page were requested by the subscriber, so at most a page per slice is held in memory whatever the number
+   * of users.
+   *
+   * @param parameters filters to use
+   * @return the found users, read as they are requested
+   * @throws IllegalArgumentException if any given argument is invalid
+   */
+  @Override
+  public Flux<UserDto> export(List<QueryParameter> parameters) {
+    LOGGER.debug("Request to export the users with parameters {}", parameters);
+
+    Assert.notNull(parameters, "List of parameters cannot be null");
+
+    //@formatter:off
+    return Mono.fromSupplier(() -> SearchQueryBuilder.fromParameters(parameters)
+                                                        .withPlan(queryPlanCache.getPlan(parameters))
+                                                        .build()
+                                                        .getQuery())
+               .flatMapMany(query -> Flux.range(0, exportSlices)
+                                         .flatMap(slice -> exportSlice(query, slice), exportSlices, 1))
+               .map(userMapper::toDto);
+    //@formatter:on
+  }
+
+  /**
+   * Read the pages of a slice as they are requested and clear its scroll when it is completed or cancelled
+   */
+  private Flux<User> exportSlice(QueryBuilder query, int slice) {
+    //@formatter:off
+    return Flux.<List<User>, UserScrollPage>generate(() -> EMPTY_SCROLL, (previous, sink) -> {
+                 UserScrollPage page = previous == EMPTY_SCROLL ?
+                     userRepository.startScroll(query, slice, exportSlices, exportPageSize, exportKeepAlive) :
+                     userRepository.continueScroll(previous.getScrollId(), exportKeepAlive);
+
+                 if (page.getContent().isEmpty()) {
+                   sink.complete();
+                 } else {
+                   sink.next(page.getContent());
+                 }
+                 return page;
+               }, this::clearScroll)
+               .subscribeOn(Schedulers.elastic())
+               .concatMapIterable(Function.identity(), 1);
+    //@formatter:on
+  }
+
+  private void clearScroll(UserScrollPage page) {
+    if (StringUtils.isEmpty(page.getScrollId())) {
+      return;
+    }
+
+    try {
+      userRepository.clearScroll(page.getScrollId());
+    } catch (RuntimeException e) {
+      LOGGER.warn("Failed to clear the scroll {}", page.getScrollId(), e);
+    }
+  }
 
 }
@@ -20,12 +20,16 @@ import lombok.RequiredArgsConstructor;
 
 /**
  * Query Operator
+ * <p>
+ * {@link #MATCH} is a full text search whose score sorts the results, the other operators only filter them.
+ * {@link #IN} and {@link #BETWEEN} take a list of values, the other operators take a single value.
  *
  * @author Joumen Harzli
  */
 @RequiredArgsConstructor
 public enum QueryOperator {
-  EQUALS("="), DIFFERENT("<>"), GREATER(">"), LESS("<");
+  EQUALS("="), DIFFERENT("<>"), GREATER(">"), LESS("<"), GREATER_OR_EQUALS(">="), LESS_OR_EQUALS("<="),
+  MATCH("~"), IN("IN"), BETWEEN("BETWEEN");
 
   @Getter
   private final String operation;
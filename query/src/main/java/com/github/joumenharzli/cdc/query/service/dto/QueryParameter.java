@@ -15,6 +15,8 @@
 
 package com.github.joumenharzli.cdc.query.service.dto;
 
+import java.util.List;
+
 import lombok.Builder;
 import lombok.Data;
 
@@ -29,6 +31,7 @@ public class QueryParameter {
 
   private String field;
   private String value;
+  private List<String> values;
   private QueryOperator operator;
 
 }
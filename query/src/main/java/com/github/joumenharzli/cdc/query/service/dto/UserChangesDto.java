@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.service.dto;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import lombok.Data;
+
+/**
+ * Ids of the users written by the denormalizer
+ *
+ * @author Joumen Harzli
+ */
+@Data
+public class UserChangesDto {
+
+  private List<String> ids = Lists.newArrayList();
+
+  /**
+   * true when the whole index has changed
+   */
+  private boolean all;
+
+  /**
+   * time when the documents were written in milliseconds
+   */
+  private long timestamp;
+
+}
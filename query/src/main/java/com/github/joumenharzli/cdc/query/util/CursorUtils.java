@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.util;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Objects;
+
+import org.springframework.util.Assert;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.joumenharzli.cdc.query.exception.InvalidCursorException;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Cursor Utils
+ * <p>
+ * A cursor is the opaque form of the search_after values of the last document of a page: the values are written
+ * as a json array encoded in url safe base 64. The values are the score then the uid of the document.
+ *
+ * @author Joumen Harzli
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class CursorUtils {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * @param sortValues the sort values of the last document of a page
+   * @return the cursor of the next page
+   */
+  public static String encode(Object[] sortValues) {
+    Assert.notNull(sortValues, "Sort values cannot be null");
+
+    try {
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(sortValues));
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to write the sort values", e);
+    }
+  }
+
+  /**
+   * @param cursor the cursor of a page
+   * @return the sort values of the last document of the previous page
+   * @throws InvalidCursorException if the cursor is not valid
+   */
+  public static Object[] decode(String cursor) {
+    Assert.hasText(cursor, "Cursor cannot be null/empty");
+
+    Object[] sortValues;
+    try {
+      sortValues = MAPPER.readValue(Base64.getUrlDecoder().decode(cursor), Object[].class);
+    } catch (IOException | IllegalArgumentException e) {
+      throw new InvalidCursorException(cursor, e);
+    }
+
+    if (Objects.isNull(sortValues) || sortValues.length != 2 ||
+        !(sortValues[0] instanceof Number) || !(sortValues[1] instanceof String)) {
+      throw new InvalidCursorException(cursor, null);
+    }
+
+    return sortValues;
+  }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.springframework.util.Assert;
+
+import com.github.joumenharzli.cdc.query.service.dto.QueryParameter;
+
+import static com.github.joumenharzli.cdc.query.service.dto.QueryOperator.*;
+import static io.vavr.API.*;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import static org.elasticsearch.index.query.QueryBuilders.*;
+
+/**
+ * Compiled search query of a shape of parameters
+ * <p>
+ * The shape is the list of the fields and the operators of the parameters. The plan resolves once the nested
+ * paths, the clauses and the queries of the operators of a shape, then only the values are bound to it.
+ *
+ * @author Joumen Harzli
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class QueryPlan {
+
+  private static final String DOT = ".";
+  private static final char SHAPE_SEPARATOR = '&';
+
+  private final int size;
+  private final List<Clause> clauses;
+  private final List<NestedClause> nestedClauses;
+
+  /**
+   * @param parameters parameters of a search
+   * @return the fields and the operators of the parameters in their order
+   */
+  public static String getShape(List<QueryParameter> parameters) {
+    StringBuilder shape = new StringBuilder();
+    for (QueryParameter parameter : parameters) {
+      shape.append(parameter.getField()).append(parameter.getOperator().getOperation()).append(SHAPE_SEPARATOR);
+    }
+    return shape.toString();
+  }
+
+  /**
+   * Compile the shape of the parameters
+   * <p>
+   * The parameters of the same nested path are merged into a single nested query so they must be matched
+   * by the same nested document. Only the full text clauses are scored, the exact and the range clauses
+   * are filters that can be cached by the nodes.
+   *
+   * @param parameters parameters of a search, only their fields and operators are used
+   * @return the plan of the shape of the parameters
+   */
+  public static QueryPlan compile(List<QueryParameter> parameters) {
+    Assert.notNull(parameters, "List of parameters cannot be null");
+
+    List<Clause> clauses = new ArrayList<>();
+    Map<String, List<Clause>> clausesByPath = new LinkedHashMap<>();
+
+    for (int index = 0; index < parameters.size(); index++) {
+      QueryParameter parameter = parameters.get(index);
+      Clause clause = compileClause(index, parameter);
+
+      if (StringUtils.contains(parameter.getField(), DOT)) {
+        String path = StringUtils.substringBeforeLast(parameter.getField(), DOT);
+        clausesByPath.computeIfAbsent(path, key -> new ArrayList<>()).add(clause);
+      } else {
+        clauses.add(clause);
+      }
+    }
+
+    List<NestedClause> nestedClauses = new ArrayList<>();
+    clausesByPath.forEach((path, nestedClause) -> nestedClauses.add(new NestedClause(path, nestedClause)));
+
+    return new QueryPlan(parameters.size(), Collections.unmodifiableList(clauses),
+                         Collections.unmodifiableList(nestedClauses));
+  }
+
+  /**
+   * @param parameters parameters with the shape of the plan
+   * @return a new query with the values of the parameters
+   */
+  public QueryBuilder bind(List<QueryParameter> parameters) {
+    Assert.isTrue(parameters.size() == size, "The parameters do not have the shape of the plan");
+
+    BoolQueryBuilder query = boolQuery();
+    bindClauses(query, clauses, parameters);
+
+    for (NestedClause nestedClause : nestedClauses) {
+      BoolQueryBuilder nestedQuery = boolQuery();
+      bindClauses(nestedQuery, nestedClause.clauses, parameters);
+
+      if (nestedClause.scoring) {
+        query.must(nestedQuery(nestedClause.path, nestedQuery, ScoreMode.Avg));
+      } else {
+        query.filter(nestedQuery(nestedClause.path, nestedQuery, ScoreMode.None));
+      }
+    }
+
+    return query;
+  }
+
+  private static void bindClauses(BoolQueryBuilder query, List<Clause> clauses, List<QueryParameter> parameters) {
+    for (Clause clause : clauses) {
+      QueryBuilder clauseQuery = clause.factory.apply(parameters.get(clause.index));
+
+      switch (clause.occur) {
+        case MUST:
+          query.must(clauseQuery);
+          break;
+        case MUST_NOT:
+          query.mustNot(clauseQuery);
+          break;
+        default:
+          query.filter(clauseQuery);
+      }
+    }
+  }
+
+  private static Clause compileClause(int index, QueryParameter parameter) {
+    String field = parameter.getField();
+
+    //@formatter:off
+    return Match(parameter.getOperator()).of(
+        Case($(EQUALS), () -> new Clause(index, Occur.FILTER, p -> matchQuery(field, p.getValue()))),
+        Case($(DIFFERENT), () -> new Clause(index, Occur.MUST_NOT, p -> matchQuery(field, p.getValue()))),
+        Case($(GREATER), () -> new Clause(index, Occur.FILTER, p -> rangeQuery(field).gt(p.getValue()))),
+        Case($(LESS), () -> new Clause(index, Occur.FILTER, p -> rangeQuery(field).lt(p.getValue()))),
+        Case($(GREATER_OR_EQUALS), () -> new Clause(index, Occur.FILTER, p -> rangeQuery(field).gte(p.getValue()))),
+        Case($(LESS_OR_EQUALS), () -> new Clause(index, Occur.FILTER, p -> rangeQuery(field).lte(p.getValue()))),
+        Case($(BETWEEN), () -> new Clause(index, Occur.FILTER, p -> rangeQuery(field).gte(p.getValues().get(0))
+                                                                                    .lte(p.getValues().get(1)))),
+        Case($(IN), () -> new Clause(index, Occur.FILTER, p -> getInQuery(field, p.getValues()))),
+        Case($(MATCH), () -> new Clause(index, Occur.MUST, p -> matchQuery(field, p.getValue())))
+    );
+    //@formatter:on
+  }
+
+  /**
+   * @return a query that matches any of the values, the values are analyzed like in the "equals" query
+   */
+  private static BoolQueryBuilder getInQuery(String field, List<String> values) {
+    BoolQueryBuilder query = boolQuery().minimumShouldMatch(1);
+    values.forEach(value -> query.should(matchQuery(field, value)));
+    return query;
+  }
+
+  /**
+   * Clause of a parameter
+   */
+  @RequiredArgsConstructor
+  private static class Clause {
+    private final int index;
+    private final Occur occur;
+    private final Function<QueryParameter, QueryBuilder> factory;
+  }
+
+  /**
+   * Nested query of the clauses of a path, it is scored when one of its clauses is scored
+   */
+  private static class NestedClause {
+    private final String path;
+    private final List<Clause> clauses;
+    private final boolean scoring;
+
+    NestedClause(String path, List<Clause> clauses) {
+      this.path = path;
+      this.clauses = Collections.unmodifiableList(clauses);
+      this.scoring = clauses.stream().anyMatch(clause -> clause.occur == Occur.MUST);
+    }
+  }
+
+}
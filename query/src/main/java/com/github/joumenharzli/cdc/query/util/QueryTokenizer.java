@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.joumenharzli.cdc.query.exception.QuerySyntaxException;
+import com.github.joumenharzli.cdc.query.service.dto.QueryOperator;
+import com.github.joumenharzli.cdc.query.service.dto.QueryParameter;
+
+import static com.github.joumenharzli.cdc.query.service.dto.QueryOperator.*;
+
+/**
+ * Tokenizer of the search parameters
+ * <p>
+ * The parameters are read in a single pass: {@code field op value} separated by "&amp;" where op is one of
+ * =, &lt;&gt;, &gt;=, &lt;=, &gt;, &lt;, ~ or {@code field IN(v1,v2,...)} and {@code field BETWEEN(low,high)}.
+ *
+ * @author Joumen Harzli
+ */
+final class QueryTokenizer {
+
+  private static final char SEPARATOR = '&';
+  private static final char LIST_START = '(';
+  private static final char LIST_SEPARATOR = ',';
+  private static final char LIST_END = ')';
+  private static final String IN_KEYWORD = "IN";
+  private static final String BETWEEN_KEYWORD = "BETWEEN";
+
+  private final String text;
+  private final int length;
+  private int position;
+
+  QueryTokenizer(String text) {
+    this.text = text;
+    this.length = text.length();
+  }
+
+  /**
+   * @return the parameters in the order of the text
+   * @throws QuerySyntaxException if the text is not valid
+   */
+  List<QueryParameter> parse() {
+    List<QueryParameter> parameters = new ArrayList<>();
+
+    parameters.add(parseParameter());
+    while (position < length) {
+      // parseParameter always stops at a separator or at the end
+      position++;
+      parameters.add(parseParameter());
+    }
+
+    return parameters;
+  }
+
+  private QueryParameter parseParameter() {
+    String field = parseField();
+    skipWhitespaces();
+
+    if (position >= length) {
+      throw error("Operator expected");
+    }
+
+    char current = text.charAt(position);
+    switch (current) {
+      case '=':
+        position++;
+        return parameter(field, EQUALS, parseValue());
+      case '~':
+        position++;
+        return parameter(field, MATCH, parseValue());
+      case '<':
+        position++;
+        if (isNext('>')) {
+          return parameter(field, DIFFERENT, parseValue());
+        }
+        if (isNext('=')) {
+          return parameter(field, LESS_OR_EQUALS, parseValue());
+        }
+        return parameter(field, LESS, parseValue());
+      case '>':
+        position++;
+        if (isNext('=')) {
+          return parameter(field, GREATER_OR_EQUALS, parseValue());
+        }
+        return parameter(field, GREATER, parseValue());
+      default:
+        return parseKeywordParameter(field);
+    }
+  }
+
+  /**
+   * Parse the operators IN and BETWEEN, they must be separated from the field by a whitespace
+   */
+  private QueryParameter parseKeywordParameter(String field) {
+    int start = position;
+    boolean separated = start > 0 && Character.isWhitespace(text.charAt(start - 1));
+
+    if (separated && isNextKeyword(IN_KEYWORD)) {
+      return parameter(field, IN, parseList(start, -1));
+    }
+    if (separated && isNextKeyword(BETWEEN_KEYWORD)) {
+      return parameter(field, BETWEEN, parseList(start, 2));
+    }
+
+    throw error("Operator expected");
+  }
+
+  private String parseField() {
+    int start = position;
+    while (position < length && isFieldCharacter(text.charAt(position))) {
+      position++;
+    }
+
+    if (position == start) {
+      throw error("Field expected");
+    }
+
+    return text.substring(start, position);
+  }
+
+  /**
+   * @return the text until the next separator, the leading whitespaces are ignored
+   */
+  private String parseValue() {
+    skipWhitespaces();
+
+    int start = position;
+    while (position < length && text.charAt(position) != SEPARATOR) {
+      position++;
+    }
+
+    if (position == start) {
+      throw error("Value expected");
+    }
+
+    return text.substring(start, position);
+  }
+
+  /**
+   * @param operatorPosition position of the operator
+   * @param expectedSize     number of values expected or -1 for any number of values
+   * @return the values between parentheses separated by commas
+   */
+  private List<String> parseList(int operatorPosition, int expectedSize) {
+    skipWhitespaces();
+
+    if (!isNext(LIST_START)) {
+      throw error("'" + LIST_START + "' expected");
+    }
+
+    List<String> values = new ArrayList<>();
+    int start = position;
+
+    while (true) {
+      if (position >= length) {
+        throw error("'" + LIST_END + "' expected");
+      }
+
+      char current = text.charAt(position);
+      if (current == LIST_SEPARATOR || current == LIST_END) {
+        if (position == start) {
+          throw error("Value expected");
+        }
+
+        values.add(text.substring(start, position));
+        position++;
+        start = position;
+
+        if (current == LIST_END) {
+          break;
+        }
+      } else if (current == SEPARATOR) {
+        throw error("'" + LIST_END + "' expected");
+      } else {
+        position++;
+      }
+    }
+
+    if (expectedSize > 0 && values.size() != expectedSize) {
+      throw new QuerySyntaxException(expectedSize + " values expected", text, operatorPosition);
+    }
+
+    skipWhitespaces();
+    if (position < length && text.charAt(position) != SEPARATOR) {
+      throw error("'" + SEPARATOR + "' expected");
+    }
+
+    return values;
+  }
+
+  private boolean isNext(char expected) {
+    if (position < length && text.charAt(position) == expected) {
+      position++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return true and move after the keyword if the text continues with it, whatever its case
+   */
+  private boolean isNextKeyword(String keyword) {
+    int end = position + keyword.length();
+    if (text.regionMatches(true, position, keyword, 0, keyword.length()) &&
+        (end >= length || !isFieldCharacter(text.charAt(end)))) {
+      position = end;
+      return true;
+    }
+    return false;
+  }
+
+  private void skipWhitespaces() {
+    while (position < length && Character.isWhitespace(text.charAt(position))) {
+      position++;
+    }
+  }
+
+  private static boolean isFieldCharacter(char character) {
+    return Character.isLetterOrDigit(character) || character == '_' || character == '.';
+  }
+
+  private static QueryParameter parameter(String field, QueryOperator operator, String value) {
+    return QueryParameter.builder().field(field).operator(operator).value(value).build();
+  }
+
+  private static QueryParameter parameter(String field, QueryOperator operator, List<String> values) {
+    return QueryParameter.builder().field(field).operator(operator).values(values).build();
+  }
+
+  private QuerySyntaxException error(String message) {
+    return new QuerySyntaxException(message, text, position);
+  }
+
+}
@@ -17,11 +17,7 @@ package com.github.joumenharzli.cdc.query.util;
 
 import java.util.List;
 import java.util.Objects;
-import java.util.function.Supplier;
 
-import org.apache.commons.lang3.StringUtils;
-import org.apache.lucene.search.join.ScoreMode;
-import org.elasticsearch.index.query.AbstractQueryBuilder;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
 import org.springframework.data.elasticsearch.core.query.SearchQuery;
@@ -29,12 +25,9 @@ import org.springframework.util.Assert;
 
 import com.github.joumenharzli.cdc.query.service.dto.QueryParameter;
 
-import static com.github.joumenharzli.cdc.query.service.dto.QueryOperator.*;
-import static io.vavr.API.*;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import static org.elasticsearch.index.query.QueryBuilders.*;
 
 /**
  * Builder of {@link SearchQuery}
@@ -45,12 +38,11 @@ import static org.elasticsearch.index.query.QueryBuilders.*;
 @Slf4j
 public class SearchQueryBuilder {
 
-  private static final String DOT = ".";
-
   private final List<QueryParameter> parameters;
   private final NativeSearchQueryBuilder searchQuery = new NativeSearchQueryBuilder();
 
   private Pageable pageable;
+  private QueryPlan plan;
 
   /**
    * Create an instance of {@link SearchQueryBuilder}
@@ -65,6 +57,17 @@ public class SearchQueryBuilder {
     return new SearchQueryBuilder(parameters);
   }
 
+  /**
+   * Use a plan compiled for the shape of the parameters
+   *
+   * @param plan plan of the shape of the parameters
+   * @return an instance of {@link SearchQueryBuilder}
+   */
+  public SearchQueryBuilder withPlan(QueryPlan plan) {
+    this.plan = plan;
+    return this;
+  }
+
   /**
    * Add pagination
    *
@@ -82,7 +85,11 @@ public class SearchQueryBuilder {
   public SearchQuery build() {
     LOGGER.debug("Request to build a search query using parameters {} and pageable {}", parameters, pageable);
 
-    parseParameters();
+    if (Objects.isNull(plan)) {
+      plan = QueryPlan.compile(parameters);
+    }
+
+    searchQuery.withQuery(plan.bind(parameters));
 
     if (Objects.nonNull(pageable)) {
       searchQuery.withPageable(pageable);
@@ -91,92 +98,4 @@ public class SearchQueryBuilder {
     return searchQuery.build();
   }
 
-  /**
-   * Parse parameters and create queries
-   */
-  private void parseParameters() {
-    parameters.forEach(
-        parameter ->
-            Match(parameter.getOperator())
-                .of(
-                    Case($(EQUALS), () -> run(() -> addEqualsQuery(parameter))),
-                    Case($(DIFFERENT), () -> run(() -> addDifferentQuery(parameter))),
-                    Case($(GREATER), () -> run(() -> addGreaterQuery(parameter))),
-                    Case($(LESS), () -> run(() -> addLessQuery(parameter)))
-                ));
-  }
-
-  /**
-   * Add "equals" query
-   *
-   * @param parameter query parameters
-   * @return an instance of {@link NativeSearchQueryBuilder}
-   */
-  private NativeSearchQueryBuilder addEqualsQuery(QueryParameter parameter) {
-    return
-        getQuery(
-            parameter,
-            () -> boolQuery().must(matchQuery(parameter.getField(), parameter.getValue())));
-  }
-
-  /**
-   * Add "different" query
-   *
-   * @param parameter query parameters
-   * @return an instance of {@link NativeSearchQueryBuilder}
-   */
-  private NativeSearchQueryBuilder addDifferentQuery(QueryParameter parameter) {
-    return
-        getQuery(
-            parameter,
-            () -> boolQuery()
-                .mustNot(matchQuery(parameter.getField(), parameter.getValue())));
-  }
-
-  /**
-   * Add "greater" query
-   *
-   * @param parameter query parameters
-   * @return an instance of {@link NativeSearchQueryBuilder}
-   */
-  private NativeSearchQueryBuilder addGreaterQuery(QueryParameter parameter) {
-    return
-        getQuery(
-            parameter,
-            () -> rangeQuery(parameter.getField()).gt(parameter.getValue()));
-  }
-
-  /**
-   * Add "less" query
-   *
-   * @param parameter query parameters
-   * @return an instance of {@link NativeSearchQueryBuilder}
-   */
-  private NativeSearchQueryBuilder addLessQuery(QueryParameter parameter) {
-    return
-        getQuery(
-            parameter,
-            () -> rangeQuery(parameter.getField()).lt(parameter.getValue()));
-  }
-
-  /**
-   * Add query or nested query depending on the provided field.
-   * if the field name contains a dot "." then we should extract the index name
-   *
-   * @param parameter query parameters
-   * @param function  a supplier that defines the query that will be added
-   * @return an instance of {@link NativeSearchQueryBuilder}
-   */
-  private NativeSearchQueryBuilder getQuery(QueryParameter parameter,
-                                            Supplier<AbstractQueryBuilder> function) {
-
-    if (StringUtils.contains(parameter.getField(), DOT)) {
-      String indexName = StringUtils.substringBeforeLast(parameter.getField(), DOT);
-      return searchQuery.withQuery(nestedQuery(indexName, function.get(), ScoreMode.None));
-    } else {
-      return searchQuery.withQuery(function.get());
-    }
-
-  }
-
 }
@@ -19,11 +19,16 @@ import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import com.github.joumenharzli.cdc.query.config.CodecConfiguration;
 import com.github.joumenharzli.cdc.query.domain.User;
+import com.github.joumenharzli.cdc.query.exception.InvalidCursorException;
+import com.github.joumenharzli.cdc.query.exception.QuerySyntaxException;
 import com.github.joumenharzli.cdc.query.service.UserService;
+import com.github.joumenharzli.cdc.query.service.dto.UserCursorPageDto;
 import com.github.joumenharzli.cdc.query.service.dto.UserDto;
 import com.github.joumenharzli.cdc.query.util.QueryUtils;
 import com.google.common.collect.Lists;
@@ -31,6 +36,7 @@ import com.google.common.collect.Lists;
 import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -50,12 +56,15 @@ public class UserResource {
    * GET /users/search/:parameters: get users using multiple criteria
    * <p>
    * example: /users/search/name=joumen&job.name=engineer&age>20&page=0&size=10
+   * <p>
+   * operators: =, &lt;&gt;, &gt;=, &lt;=, &gt;, &lt;, ~ (full text), IN(v1,v2,...) and BETWEEN(low,high)
    *
    * @param parameters filters to use separated by "&"
    * @param page       number of the page
    * @param size       size of the page
    * @return the ResponseEntity with status 200 (OK) and with body containing the page with the found results
    * @throws IllegalArgumentException when any given argument is invalid
+   * @throws QuerySyntaxException     when the parameters are not valid
    */
   @GetMapping(value = {"/search/{parameters}", "/search"})
   @Timed
@@ -73,4 +82,58 @@ public class UserResource {
     //@formatter:on
   }
 
+  /**
+   * GET /users/cursor/:parameters: get users using multiple criteria page by page with a cursor
+   * <p>
+   * example: /users/cursor/name=joumen&age>20&size=10 then /users/cursor/name=joumen&age>20&size=10&cursor=...
+   * with the cursor returned by the previous page
+   *
+   * @param parameters filters to use separated by "&"
+   * @param size       size of the page
+   * @param cursor     cursor of the page, absent for the first page
+   * @return the ResponseEntity with status 200 (OK) and with body containing the found results and the cursor
+   * of the next page
+   * @throws IllegalArgumentException when any given argument is invalid
+   * @throws QuerySyntaxException     when the parameters are not valid
+   * @throws InvalidCursorException   when the cursor is not valid
+   */
+  @GetMapping(value = {"/cursor/{parameters}", "/cursor"})
+  @Timed
+  public Mono<ResponseEntity<UserCursorPageDto>> searchAfter(@PathVariable Optional<String> parameters,
+                                                             @RequestParam(name = "size") int size,
+                                                             @RequestParam(name = "cursor", required = false) String cursor) {
+
+    LOGGER.debug("REST request to search for users with parameters {} and size {} after {}", parameters, size, cursor);
+
+    //@formatter:off
+    return Mono.fromSupplier(() -> parameters.map(QueryUtils::parseURLParameters)
+                                             .orElse(Lists.newArrayList()))
+               .flatMap(parameterList -> userService.findByCriteria(parameterList, size, cursor))
+               .map(ResponseEntity::ok);
+    //@formatter:on
+  }
+
+  /**
+   * GET /users/export/:parameters: stream all the users that match multiple criteria
+   * <p>
+   * example: /users/export/age>20 with the header Accept: application/x-ndjson or text/event-stream
+   *
+   * @param parameters filters to use separated by "&"
+   * @return the found users, one json document per line or per event
+   * @throws IllegalArgumentException when any given argument is invalid
+   * @throws QuerySyntaxException     when the parameters are not valid
+   */
+  @GetMapping(value = {"/export/{parameters}", "/export"},
+              produces = {CodecConfiguration.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+  public Flux<UserDto> export(@PathVariable Optional<String> parameters) {
+
+    LOGGER.debug("REST request to export the users with parameters {}", parameters);
+
+    //@formatter:off
+    return Mono.fromSupplier(() -> parameters.map(QueryUtils::parseURLParameters)
+                                             .orElse(Lists.newArrayList()))
+               .flatMapMany(userService::export);
+    //@formatter:on
+  }
+
 }
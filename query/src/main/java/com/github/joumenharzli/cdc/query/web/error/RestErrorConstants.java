@@ -29,5 +29,7 @@ public final class RestErrorConstants {
   public static final String ERR_INTERNAL_SERVER_ERROR = "error.internal";
   public static final String ERR_VALIDATION_ERROR = "error.validation";
   public static final String ERR_NOT_FOUND_ERROR = "error.notFound";
+  public static final String ERR_QUERY_SYNTAX_ERROR = "error.querySyntax";
+  public static final String ERR_INVALID_CURSOR_ERROR = "error.invalidCursor";
 
 }
@@ -30,6 +30,9 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import com.github.joumenharzli.cdc.query.exception.InvalidCursorException;
+import com.github.joumenharzli.cdc.query.exception.QuerySyntaxException;
+
 import lombok.RequiredArgsConstructor;
 
 /**
@@ -71,6 +74,37 @@ public class RestExceptionTranslator {
 
   }
 
+  /**
+   * Handle the errors of the search parameters
+   *
+   * @return the position of the error and a bad request
+   */
+  @ResponseStatus(value = HttpStatus.BAD_REQUEST)
+  @ExceptionHandler(value = QuerySyntaxException.class)
+  @ResponseBody
+  public RestErrorDto handleQuerySyntaxExceptions(QuerySyntaxException exception) {
+    String errorCode = RestErrorConstants.ERR_QUERY_SYNTAX_ERROR;
+    LOGGER.error(ERROR_MSG, errorCode, exception);
+
+    return new RestErrorDto(errorCode,
+                            getLocalizedMessageFromErrorCode(errorCode, new Object[]{exception.getPosition()}));
+  }
+
+  /**
+   * Handle the cursors that were not created by the service
+   *
+   * @return a bad request
+   */
+  @ResponseStatus(value = HttpStatus.BAD_REQUEST)
+  @ExceptionHandler(value = InvalidCursorException.class)
+  @ResponseBody
+  public RestErrorDto handleInvalidCursorExceptions(InvalidCursorException exception) {
+    String errorCode = RestErrorConstants.ERR_INVALID_CURSOR_ERROR;
+    LOGGER.error(ERROR_MSG, errorCode, exception);
+
+    return new RestErrorDto(errorCode, getLocalizedMessageFromErrorCode(errorCode));
+  }
+
   /**
    * Handle all types of errors
    *
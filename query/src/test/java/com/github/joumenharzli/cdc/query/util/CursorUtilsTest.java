@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.util;
+
+import java.util.Base64;
+
+import org.junit.Test;
+
+import com.github.joumenharzli.cdc.query.exception.InvalidCursorException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CursorUtilsTest {
+
+  @Test
+  public void shouldDecodeTheEncodedSortValues() {
+    String cursor = CursorUtils.encode(new Object[]{1.5f, "user#1"});
+
+    assertThat(CursorUtils.decode(cursor)).containsExactly(1.5d, "user#1");
+  }
+
+  @Test
+  public void shouldRejectACursorThatIsNotBase64() {
+    assertThatThrownBy(() -> CursorUtils.decode("not a cursor")).isInstanceOf(InvalidCursorException.class);
+  }
+
+  @Test
+  public void shouldRejectACursorThatIsNotAJsonArray() {
+    assertThatThrownBy(() -> CursorUtils.decode(encode("{\"score\":1}")))
+        .isInstanceOf(InvalidCursorException.class);
+  }
+
+  @Test
+  public void shouldRejectACursorWithoutTwoValues() {
+    assertThatThrownBy(() -> CursorUtils.decode(encode("[]"))).isInstanceOf(InvalidCursorException.class);
+    assertThatThrownBy(() -> CursorUtils.decode(encode("[1.5]"))).isInstanceOf(InvalidCursorException.class);
+    assertThatThrownBy(() -> CursorUtils.decode(encode("[1.5,\"user#1\",2]")))
+        .isInstanceOf(InvalidCursorException.class);
+  }
+
+  @Test
+  public void shouldRejectACursorWhoseValuesAreNotAScoreAndAnUid() {
+    assertThatThrownBy(() -> CursorUtils.decode(encode("[\"user#1\",1.5]")))
+        .isInstanceOf(InvalidCursorException.class);
+    assertThatThrownBy(() -> CursorUtils.decode(encode("[1.5,{\"uid\":1}]")))
+        .isInstanceOf(InvalidCursorException.class);
+  }
+
+  private static String encode(String json) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes());
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.junit.Test;
+
+import com.github.joumenharzli.cdc.query.service.dto.QueryOperator;
+import com.github.joumenharzli.cdc.query.service.dto.QueryParameter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.elasticsearch.index.query.QueryBuilders.*;
+
+public class QueryPlanTest {
+
+  @Test
+  public void shouldBindTheValuesToTheCompiledShape() {
+    QueryPlan plan = QueryPlan.compile(QueryUtils.parseURLParameters("name~joumen&age>=20&age<>30"));
+
+    QueryBuilder query = plan.bind(QueryUtils.parseURLParameters("name~harzli&age>=40&age<>50"));
+
+    assertThat(query).isEqualTo(boolQuery().must(matchQuery("name", "harzli"))
+                                           .filter(rangeQuery("age").gte("40"))
+                                           .mustNot(matchQuery("age", "50")));
+  }
+
+  @Test
+  public void shouldBindTheListsOfValues() {
+    QueryPlan plan = QueryPlan.compile(QueryUtils.parseURLParameters("name IN(a,b)&age BETWEEN(1,2)"));
+
+    QueryBuilder query = plan.bind(QueryUtils.parseURLParameters("name IN(c,d,e)&age BETWEEN(20,30)"));
+
+    assertThat(query).isEqualTo(boolQuery().filter(boolQuery().minimumShouldMatch(1)
+                                                              .should(matchQuery("name", "c"))
+                                                              .should(matchQuery("name", "d"))
+                                                              .should(matchQuery("name", "e")))
+                                           .filter(rangeQuery("age").gte("20").lte("30")));
+  }
+
+  @Test
+  public void shouldMergeTheClausesOfANestedPath() {
+    List<QueryParameter> parameters = QueryUtils.parseURLParameters("jobs.name=engineer&jobs.description~java");
+
+    QueryBuilder query = QueryPlan.compile(parameters).bind(parameters);
+
+    assertThat(query).isEqualTo(boolQuery().must(nestedQuery("jobs",
+                                                             boolQuery().filter(matchQuery("jobs.name", "engineer"))
+                                                                        .must(matchQuery("jobs.description", "java")),
+                                                             ScoreMode.Avg)));
+  }
+
+  @Test
+  public void shouldFilterANestedPathWithoutScoredClauses() {
+    List<QueryParameter> parameters = QueryUtils.parseURLParameters("addresses.name=paris");
+
+    QueryBuilder query = QueryPlan.compile(parameters).bind(parameters);
+
+    assertThat(query).isEqualTo(boolQuery().filter(nestedQuery("addresses",
+                                                               boolQuery().filter(matchQuery("addresses.name", "paris")),
+                                                               ScoreMode.None)));
+  }
+
+  @Test
+  public void shouldRejectParametersOfAnotherSize() {
+    QueryPlan plan = QueryPlan.compile(QueryUtils.parseURLParameters("name=joumen"));
+
+    assertThatThrownBy(() -> plan.bind(QueryUtils.parseURLParameters("name=joumen&age>20")))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void shouldGiveTheSameShapeWhateverTheValues() {
+    List<QueryParameter> first = QueryUtils.parseURLParameters("name=joumen&age>20");
+    List<QueryParameter> second = QueryUtils.parseURLParameters("name=harzli&age>30");
+
+    assertThat(QueryPlan.getShape(first)).isEqualTo(QueryPlan.getShape(second))
+                                         .isNotEqualTo(QueryPlan.getShape(Arrays.asList(
+                                             QueryParameter.builder().field("name").operator(QueryOperator.MATCH)
+                                                           .value("joumen").build())));
+  }
+
+}
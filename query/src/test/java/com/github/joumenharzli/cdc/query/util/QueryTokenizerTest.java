@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 Joumen Harzli
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.github.joumenharzli.cdc.query.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.joumenharzli.cdc.query.exception.QuerySyntaxException;
+import com.github.joumenharzli.cdc.query.service.dto.QueryParameter;
+
+import static com.github.joumenharzli.cdc.query.service.dto.QueryOperator.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class QueryTokenizerTest {
+
+  @Test
+  public void shouldParseTheComparisonOperators() {
+    List<QueryParameter> parameters = new QueryTokenizer("a=1&b<>2&c>=3&d<=4&e>5&f<6&g~x y").parse();
+
+    assertThat(parameters).extracting(QueryParameter::getField, QueryParameter::getOperator,
+                                      QueryParameter::getValue)
+                          .containsExactly(tuple("a", EQUALS, "1"),
+                                           tuple("b", DIFFERENT, "2"),
+                                           tuple("c", GREATER_OR_EQUALS, "3"),
+                                           tuple("d", LESS_OR_EQUALS, "4"),
+                                           tuple("e", GREATER, "5"),
+                                           tuple("f", LESS, "6"),
+                                           tuple("g", MATCH, "x y"));
+  }
+
+  @Test
+  public void shouldKeepTheOperatorCharactersOfTheValue() {
+    List<QueryParameter> parameters = new QueryTokenizer("jobs.name<>a=b").parse();
+
+    assertThat(parameters).extracting(QueryParameter::getField, QueryParameter::getOperator,
+                                      QueryParameter::getValue)
+                          .containsExactly(tuple("jobs.name", DIFFERENT, "a=b"));
+  }
+
+  @Test
+  public void shouldParseTheListsOfValues() {
+    List<QueryParameter> parameters = new QueryTokenizer("name in(a,b,c)&age BETWEEN (20,30)").parse();
+
+    assertThat(parameters).extracting(QueryParameter::getField, QueryParameter::getOperator,
+                                      QueryParameter::getValues)
+                          .containsExactly(tuple("name", IN, Arrays.asList("a", "b", "c")),
+                                           tuple("age", BETWEEN, Arrays.asList("20", "30")));
+  }
+
+  @Test
+  public void shouldReportTheMissingOperator() {
+    assertError("name", "Operator expected", 4);
+  }
+
+  @Test
+  public void shouldReportTheMissingField() {
+    assertError("=joumen", "Field expected", 0);
+  }
+
+  @Test
+  public void shouldReportTheMissingValue() {
+    assertError("name=joumen&age>", "Value expected", 16);
+  }
+
+  @Test
+  public void shouldReportAKeywordThatIsNotSeparatedFromTheField() {
+    assertError("nameIN(a)", "Operator expected", 6);
+  }
+
+  @Test
+  public void shouldReportAnUnclosedList() {
+    assertError("name IN(a,b&age=1", "')' expected", 11);
+  }
+
+  @Test
+  public void shouldReportAnEmptyValueOfAList() {
+    assertError("name IN(a,,b)", "Value expected", 10);
+  }
+
+  @Test
+  public void shouldReportTheNumberOfValuesOfBetween() {
+    assertError("age BETWEEN(1,2,3)", "2 values expected", 4);
+  }
+
+  @Test
+  public void shouldReportTheTextAfterAList() {
+    assertError("name IN(a) x", "'&' expected", 11);
+  }
+
+  private static void assertError(String text, String message, int position) {
+    QuerySyntaxException exception = catchThrowableOfType(() -> new QueryTokenizer(text).parse(),
+                                                          QuerySyntaxException.class);
+
+    assertThat(exception).isNotNull().hasMessageStartingWith(message);
+    assertThat(exception.getPosition()).isEqualTo(position);
+  }
+
+}